@@ -1,12 +1,43 @@
 package burp;
 
-import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.net.URL;                                                                                                  
 import java.io.OutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.JMenuItem;
+import javax.swing.SwingUtilities;
 
+import com.veggiespam.imagelocationscanner.ContentDecoder;
+import com.veggiespam.imagelocationscanner.ContentHash;
+import com.veggiespam.imagelocationscanner.DeadlineInputStream;
+import com.veggiespam.imagelocationscanner.FileChannelInputStream;
+import com.veggiespam.imagelocationscanner.Finding;
 import com.veggiespam.imagelocationscanner.ILS;
+import com.veggiespam.imagelocationscanner.ImageFormat;
+import com.veggiespam.imagelocationscanner.ImageSegments;
+import com.veggiespam.imagelocationscanner.InlineImageFinder;
+import com.veggiespam.imagelocationscanner.MetadataHints;
+import com.veggiespam.imagelocationscanner.MultipartParser;
+import com.veggiespam.imagelocationscanner.ScanCache;
+import com.veggiespam.imagelocationscanner.ScanLog;
+import com.veggiespam.imagelocationscanner.ScanResult;
 
 
 
@@ -21,11 +52,27 @@ import com.veggiespam.imagelocationscanner.ILS;
  * @version 0.2
  * @see http://www.veggiespam.com/ils/
  */
-public class BurpExtender implements IBurpExtender, IScannerCheck
+public class BurpExtender implements IBurpExtender, IScannerCheck, IContextMenuFactory, IExtensionStateListener
 {
 	private IBurpExtenderCallbacks callbacks;
     private IExtensionHelpers helpers;                                                                                
     private OutputStream stdout;
+    private ScanPool pool;
+    private ScanCache cache;
+    private ScanSettings settings;
+    private final ScanMetrics metrics = new ScanMetrics();
+    private ILSTab tab;
+    private final TempFiles tempFiles = new TempFiles();
+    private OverloadController overload;
+    private HostBudget hostBudget;
+    private SkipLearner skipLearner;
+    private ScopeCache scope;
+    private IssueAggregator aggregator;
+    private final WarmUp warmUp = new WarmUp();
+    private final VariantIndex variants = new VariantIndex();
+    private final UploadIndex uploads = new UploadIndex();
+    private final CanaryIndex canaries = new CanaryIndex();
+    private volatile boolean scannerAvailable = true;
 
 	/** A bunch of static strings that are used by both ZAP and Burp plug-ins. 
 	 * Burp requires modName be set that way. */
@@ -35,47 +82,287 @@ public class BurpExtender implements IBurpExtender, IScannerCheck
     private static final String issueBackground  = ILS.alertBackground;
     private static final String remediationBackground = ILS.remediationBackground;
     private static final String remediationDetail = ILS.remediationDetail;
+    private static final String uploadAlertTitle = ILS.uploadAlertTitle;
+    private static final String uploadIssueDetailPrefix = ILS.uploadAlertDetailPrefix;
+    private static final String uploadIssueBackground = ILS.uploadAlertBackground;
+    private static final String strippingAlertTitle = ILS.strippingAlertTitle;
+    private static final String strippingIssueBackground = ILS.strippingAlertBackground;
+    private static final String canaryAlertTitle = ILS.canaryAlertTitle;
+    private static final String canaryIssueBackground = ILS.canaryAlertBackground;
     
+    /** How long unloading waits for queued scans before dropping them. */
+    private static final long UNLOAD_DRAIN_MILLIS = 3000;
+
+    /** Bytes parsed per image in the HEADER_ONLY tier when the format has no payload marker (TIFF). */
+    private static final int HEADER_ONLY_BYTES = 256 * 1024;
+
+    /** Most of a spilled body read back for evidence: metadata larger than this is cut. */
+    private static final int MAX_EVIDENCE_BYTES = 1024 * 1024;
+
+    /** The result cache survives restarts in this file in Burp's user directory. */
+    private static final String CACHE_FILE = "ils-scan-cache.bin";
+    /** And the URL patterns learned to serve stripped images in this one. */
+    private static final String SKIPS_FILE = "ils-stripped-paths.bin";
+    /** And the canary images uploaded by active scans in this one. */
+    private static final String CANARIES_FILE = "ils-canaries.bin";
+
     /** Used in some debug statements. */
     private static final String SEP = " | ";
 
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
 
     public void registerExtenderCallbacks(IBurpExtenderCallbacks callbacks) {
     	this.callbacks = callbacks;
         helpers = callbacks.getHelpers();
     	
     	callbacks.setExtensionName(modName);
-    	callbacks.registerScannerCheck(this);
-    	
         stdout = callbacks.getStdout();
+        ScanLog.setSink(new ScanLog.Sink() {
+            @Override
+            public void write(String line) {
+                try {
+                    stdout.write((modName + ": " + line + "\n").getBytes(ISO_8859_1));
+                    stdout.flush();
+                } catch (IOException e) {
+                    // no op.
+                }
+            }
+        });
+
+        settings = new ScanSettings(callbacks);
+        settings.load();
+        ScanLog.setLevel(settings.getLogLevel());
+        hostBudget = new HostBudget(settings);
+        skipLearner = new SkipLearner(settings);
+        scope = new ScopeCache(callbacks);
+        aggregator = new IssueAggregator(callbacks);
+        pool = new ScanPool(settings.getWorkers(), metrics.queueWait, hostBudget);
+        cache = new ScanCache(settings.getCacheCapacity());
+        overload = new OverloadController(pool);
+        settings.addListener(new ScanSettings.Listener() {
+            @Override
+            public void settingsChanged(ScanSettings s) {
+                // both resize in place, queued scans and cached results are kept
+                pool.setWorkers(s.getWorkers());
+                cache.setCapacity(s.getCacheCapacity());
+                ScanLog.setLevel(s.getLogLevel());
+            }
+        });
+
+    	callbacks.registerScannerCheck(this);
+        callbacks.registerContextMenuFactory(this);
+        callbacks.registerExtensionStateListener(this);
+        callbacks.registerScopeChangeListener(scope);
+        callbacks.registerMessageEditorTabFactory(new MetadataTabFactory(this));
+        callbacks.registerIntruderPayloadGeneratorFactory(new MetadataPayloads(settings));
+        // Always registered; it returns at once unless live scanning is switched on.
+        callbacks.registerHttpListener(new TrafficScanner(this));
+        // After the scanner, which keeps the original response; also returns at once unless switched on.
+        callbacks.registerHttpListener(new ImageStripper(this));
+        String[] version = callbacks.getBurpVersion();
+        scannerAvailable = version == null || version.length == 0
+                || ! (version[0].contains("Free") || version[0].contains("Community"));
+
+        // Reload what the last session learnt, without holding up Burp's startup.
+        Thread loader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loadState();
+            }
+        }, "ILS-cache-load");
+        loader.setDaemon(true);
+        loader.setPriority(Thread.MIN_PRIORITY);
+        loader.start();
+        warmUp.start();
 
-    	db("plug-in version " + ILS.pluginVersion);
-        db("registerExtenderCallbacks() is complete");
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                tab = new ILSTab(BurpExtender.this);
+                BurpExtender.this.callbacks.customizeUiComponent(tab.getUiComponent());
+                BurpExtender.this.callbacks.addSuiteTab(tab);
+            }
+        });
+
+        ScanLog.info("startup", "registerExtenderCallbacks() is complete", "version", ILS.pluginVersion);
     }
     
-    /** Passive only, so this is a blank implementation. */
+    /** Shuts down cleanly: no running threads, cache saved for next time, temp files gone. */
+    @Override
+    public void extensionUnloaded() {
+        warmUp.stop();
+        if (tab != null) {
+            tab.dispose();
+        }
+        int dropped = pool.shutdown(UNLOAD_DRAIN_MILLIS);
+        saveState();
+        int deleted = tempFiles.deleteAll();
+        ScanLog.info("unload", "unloaded", "dropped_scans", dropped, "deleted_temp_files", deleted);
+        ScanLog.shutdown();
+    }
+
+    /** A table that is kept in a file in Burp's user directory between sessions. */
+    private interface Stored {
+        int load(DataInputStream in) throws IOException;
+        void save(DataOutputStream out) throws IOException;
+    }
+
+    private final Stored storedCache = new Stored() {
+        @Override
+        public int load(DataInputStream in) throws IOException {
+            return cache.load(in);
+        }
+
+        @Override
+        public void save(DataOutputStream out) throws IOException {
+            cache.save(out);
+        }
+    };
+
+    private final Stored storedSkips = new Stored() {
+        @Override
+        public int load(DataInputStream in) throws IOException {
+            return skipLearner.load(in);
+        }
+
+        @Override
+        public void save(DataOutputStream out) throws IOException {
+            skipLearner.save(out);
+        }
+    };
+
+    private final Stored storedCanaries = new Stored() {
+        @Override
+        public int load(DataInputStream in) throws IOException {
+            return canaries.load(in);
+        }
+
+        @Override
+        public void save(DataOutputStream out) throws IOException {
+            canaries.save(out);
+        }
+    };
+
+    private static File stateFile(String name) {
+        return new File(new File(System.getProperty("user.home"), ".BurpSuite"), name);
+    }
+
+    private void loadState() {
+        load(CACHE_FILE, storedCache, "cached scan results");
+        load(SKIPS_FILE, storedSkips, "learned URL patterns");
+        load(CANARIES_FILE, storedCanaries, "uploaded canaries");
+    }
+
+    private void saveState() {
+        save(CACHE_FILE, storedCache);
+        save(SKIPS_FILE, storedSkips);
+        save(CANARIES_FILE, storedCanaries);
+    }
+
+    private void load(String name, Stored table, String what) {
+        File f = stateFile(name);
+        if (! f.isFile()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            ScanLog.info("state.load", "loaded " + what, "count", table.load(in), "file", f);
+        } catch (IOException e) {
+            ScanLog.warn("state.load", "could not load", "file", f, "error", e);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /** Writes next to the real file and renames, so a crash never leaves half a table. */
+    private void save(String name, Stored table) {
+        File f = stateFile(name);
+        f.getParentFile().mkdirs();
+        File tmp = tempFiles.register(new File(f.getPath() + ".tmp"));
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            table.save(out);
+            out.close();
+            out = null;
+            f.delete();
+            if (! tmp.renameTo(f)) {
+                ScanLog.warn("state.save", "could not rename", "from", tmp, "to", f);
+            }
+        } catch (IOException e) {
+            ScanLog.warn("state.save", "could not save", "file", f, "error", e);
+        } finally {
+            closeQuietly(out);
+            tempFiles.delete(tmp);
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // no op.
+            }
+        }
+    }
+
+    TempFiles getTempFiles() {
+        return tempFiles;
+    }
+
+    /** Uploads a canary image through every insertion point that carries an image, e.g.
+     * the file part of a multipart upload, and remembers it; see CanaryIndex.  The answer
+     * to the upload is checked here, later responses by the passive check. */
     @Override
     public List<IScanIssue> doActiveScan(IHttpRequestResponse baseRequestResponse, IScannerInsertionPoint insertionPoint) {
-    	return null;
+        String base = insertionPoint.getBaseValue();
+        if (base == null) {
+            return null;
+        }
+        byte[] value = base.getBytes(ISO_8859_1);
+        if (ImageFormat.detect(value, 0, value.length) == ImageFormat.UNKNOWN) {
+            return null;
+        }
+        URL url = helpers.analyzeRequest(baseRequestResponse).getUrl();
+        CanaryIndex.Canary canary = canaries.create(url, insertionPoint.getInsertionPointName());
+        IHttpRequestResponse sent = callbacks.makeHttpRequest(baseRequestResponse.getHttpService(),
+                insertionPoint.buildRequest(CanaryIndex.image(canary)));
+        ScanLog.info("canary", "uploaded", ScanLog.URL, url, "token", canary.token,
+                "insertion_point", canary.insertionPoint);
+        byte[] resp = sent.getResponse();
+        if (resp == null) {
+            return null;
+        }
+        List<IScanIssue> issues = new ArrayList<IScanIssue>();
+        issues.addAll(canaryIssues(sent, resp, helpers.analyzeResponse(resp).getBodyOffset()));
+        return issues.isEmpty() ? null : issues;
     }
     
     @Override
     public List<IScanIssue> doPassiveScan(IHttpRequestResponse baseRequestResponse) {
-    	//db("doPassiveScan()");
+        ScanLog.debug("passive", "doPassiveScan()");
     	
-        URL url = helpers.analyzeRequest(baseRequestResponse).getUrl();
-        String mimeInferred = helpers.analyzeResponse(baseRequestResponse.getResponse()).getInferredMimeType();
+        if (settings.isInScopeOnly() && ! isInScope(baseRequestResponse.getHttpService(), baseRequestResponse.getRequest())) {
+            metrics.outOfScope.increment();
+            return null;
+        }
+
+        byte[] resp = baseRequestResponse.getResponse();
+        IResponseInfo responseInfo = helpers.analyzeResponse(resp);
+        String mimeInferred = responseInfo.getInferredMimeType();
         
         // inferred seems to work, no need for additional checking on stated types
-        // String mimeStated = helpers.analyzeResponse(baseRequestResponse.getResponse()).getStatedMimeType();
-        
-        String fileName = url.getFile();
+        // String mimeStated = responseInfo.getStatedMimeType();
         
         /* The extension was online needed for stated processing, but we don't
          * need to do that.  So, ignore unless there is a need for it later if
          * a new condition is discovered
          */
-        /* String extension = "";
+        /* String fileName = url.getFile();
+        String extension = "";
         int i = fileName.lastIndexOf('.');
         if (i > 0) {
             extension = fileName.substring(i+1);
@@ -83,50 +370,784 @@ public class BurpExtender implements IBurpExtender, IScannerCheck
         //db(mimeStated + SEP + mimeInferred + SEP + extension);
         */
         
-        // If body type is png / jpg / tiff, then we call the scanner on the response body
+        // Uploads are checked whatever the server answers; it may strip or never serve them.
+        List<IScanIssue> alert = scanRequest(baseRequestResponse, baseRequestResponse.getRequest());
+
+        // If body type is png / jpg / tiff, then we call the scanner on the response body.
+        // Burp cannot infer the type of a compressed body, so those are checked by peeking.
+        int bodyOffset = responseInfo.getBodyOffset();
 		if ((mimeInferred.equalsIgnoreCase("JPEG")) 
 		   ||  (mimeInferred.equalsIgnoreCase("PNG")) 
-		   ||  (mimeInferred.equalsIgnoreCase("TIFF")) ) {
-            byte[] resp = baseRequestResponse.getResponse();
-            int responseOffset = helpers.analyzeResponse(resp).getBodyOffset();
-            //String responseBody = new String(baseRequestResponse.getResponse()).substring(responseOffset);
-            byte[] body = Arrays.copyOfRange(resp,responseOffset, resp.length);
-          
-            //db("Parsing image file " + fileName);
-            String hasGPS = ILS.scanForLocationInImage(body);
-            if (! hasGPS.isEmpty()) {
-				// TODO: Future, print to burp stdio logs if the config option is enabled.
-            	// db(fileName + ": found location: " + hasGPS);
-                List<IScanIssue> alert = new ArrayList<IScanIssue>();
+		   ||  (mimeInferred.equalsIgnoreCase("TIFF"))
+		   ||  isEncodedImage(resp, bodyOffset) ) {
+            CustomScanIssue issue = scanResponse(baseRequestResponse, resp, bodyOffset);
+            if (issue != null) {
+                alert.add(issue);
+            }
+        } else if (isText(mimeInferred) || isText(responseInfo.getStatedMimeType())) {
+            // single-page apps ship images as data: URIs and base64 JSON fields
+            alert.addAll(scanInline(baseRequestResponse, resp, bodyOffset));
+        }
+        
+        if (settings.isAggregateIssues()) {
+            alert = aggregate(alert);
+        }
+        return alert.isEmpty() ? null : alert;
+    }
+
+    /** Replaces per-image issues by the roll-ups that are due; see IssueAggregator. */
+    private List<IScanIssue> aggregate(List<IScanIssue> issues) {
+        List<IScanIssue> due = new ArrayList<IScanIssue>();
+        for (IScanIssue issue : issues) {
+            due.addAll(aggregator.add((CustomScanIssue) issue));
+        }
+        return due;
+    }
+
+    /** True when the body is a gzip / deflate encoded image; inflates a few bytes to tell. */
+    static boolean isEncodedImage(byte[] resp, int bodyOffset) {
+        String encoding = contentEncoding(resp, bodyOffset);
+        return encoding != null
+                && ContentDecoder.peekFormat(resp, bodyOffset, resp.length - bodyOffset, encoding) != ImageFormat.UNKNOWN;
+    }
+
+    /** Burp's MIME type names for bodies that may carry base64 images. */
+    private static boolean isText(String mime) {
+        return mime != null && (mime.equalsIgnoreCase("HTML") || mime.equalsIgnoreCase("JSON") || mime.equalsIgnoreCase("CSS")
+                || mime.equalsIgnoreCase("script") || mime.equalsIgnoreCase("XML") || mime.equalsIgnoreCase("text"));
+    }
+
+    /** Scans the image in the response body and builds the issue for it.  Shared by the
+     * passive check and the retro-scans, so all of them go through the same cache.
+     * 
+     * @param resp the response of baseRequestResponse, already fetched by the caller
+     * @param responseOffset offset of the body inside resp
+     * @return the issue, or null if the image carries no location or privacy data
+     */
+    CustomScanIssue scanResponse(IHttpRequestResponse baseRequestResponse, byte[] resp, int responseOffset) {
+        String host = baseRequestResponse.getHttpService().getHost();
+        long cpu = HostBudget.threadCpuNanos();
+        try {
+            URL target = HttpMessages.getUrl(baseRequestResponse.getHttpService(), baseRequestResponse.getRequest());
+            OverloadController.Tier tier = overload.current();
+            if (hostBudget.isOverBudget(host)) {
+                tier = OverloadController.Tier.SAMPLE;
+            }
+            if (tier == OverloadController.Tier.SAMPLE && ! overload.sample(target)) {
+                metrics.sampledOut.increment();
+                return null;
+            }
+            if (! canaries.isEmpty()) {
+                for (CustomScanIssue c : canaryIssues(baseRequestResponse, resp, responseOffset)) {
+                    deliver(c);
+                }
+            }
+            // while uploads wait for their served copy, stripped paths are exactly the ones to look at
+            if (uploads.isEmpty() && skipLearner.shouldSkip(target)) {
+                metrics.learnedSkips.increment();
+                return null;
+            }
+            String encoding = contentEncoding(resp, responseOffset);
+            if (encoding != null) {
+                tier = OverloadController.Tier.FULL;  // inflating only the header is as cheap as it gets
+            }
+            ScanResult result = (encoding == null)
+                    ? scanBody(resp, responseOffset, resp.length - responseOffset, tier, target)
+                    : scanEncoded(resp, responseOffset, resp.length - responseOffset, encoding, target);
+            boolean parsed = tier == OverloadController.Tier.FULL || tier == OverloadController.Tier.HEADER_ONLY;
+            boolean served = encoding == null && parsed && ! uploads.isEmpty();
+            String hasGPS = result.getHtml();
+            if (result.isEmpty() && ! served) {
+            	ScanLog.debug("scan.response", "no findings", ScanLog.URL, target, "tier", tier);
+            	return null;
+            }
+
+            URL url = helpers.analyzeRequest(baseRequestResponse).getUrl();
+
+            // The walk that finds the segments to mark also fingerprints the picture.
+            ImageSegments segments = ImageSegments.locate(resp, responseOffset, resp.length - responseOffset,
+                    encoding == null && (served || settings.isCollapseCopies()));
+            ContentHash fingerprint = segments.getPayloadFingerprint();
+            if (served && fingerprint != null) {
+                UploadIndex.Correlation c = uploads.correlate(fingerprint, url, result.getFindings());
+                if (c != null) {
+                    deliver(strippingIssue(baseRequestResponse, url, segments, c));
+                }
+            }
+            if (result.isEmpty()) {
+            	ScanLog.debug("scan.response", "no findings", ScanLog.URL, target, "tier", tier);
+            	return null;
+            }
+            String note = (encoding == null) ? "" : "<p>Found in the " + encoding + "-encoded response body.</p>";
+            if (fingerprint != null) {
+                VariantIndex.Match match = variants.record(fingerprint, url, result.getFindings());
+                if (match.sameFindings != null) {
+                    metrics.copies.increment();
+                    ScanLog.debug("scan.response", "copy of a reported picture", ScanLog.URL, target,
+                            "first", match.sameFindings.url);
+                    return null;
+                }
+                if (match.otherFindings != null) {
+                    note += "<p>The same picture, with different metadata, was reported at "
+                            + match.otherFindings.url + ".</p>";
+                }
+            }
+            ScanLog.debug("scan.response", "findings", ScanLog.URL, target, "tier", tier,
+                    ScanLog.FINDINGS, result.getFindings().size());
+
+            // Keep the evidence in Burp's temp files, not on our heap, with the metadata marked.
+            IHttpRequestResponse[] x = new IHttpRequestResponse[1];
+            x[0] = IssueEvidence.persist(callbacks, baseRequestResponse, segments);
+        
+            CustomScanIssue issue = new CustomScanIssue(
+                    baseRequestResponse.getHttpService(),
+                    url,
+                    x,
+            		alertTitle,
+            		issueDetailPrefix + note + tierNote(tier) + hasGPS,
+                    "Information",
+                    confidence(tier),
+                    issueBackground, remediationBackground, remediationDetail,  // three static strings
+                    result.getFindings()
+            	);
+            issue.setFingerprint(fingerprint);
+            return issue;
+        } finally {
+            hostBudget.charge(host, HostBudget.threadCpuNanos() - cpu, resp.length - responseOffset);
+        }
+    }
+
+    /** The issue comparing a served image with its earlier upload; the served response is the evidence. */
+    private CustomScanIssue strippingIssue(IHttpRequestResponse baseRequestResponse, URL url, ImageSegments segments,
+            UploadIndex.Correlation c) {
+        StringBuilder detail = new StringBuilder();
+        detail.append("<p>This picture was uploaded to ").append(IssueAggregator.escape(c.upload.url))
+                .append(String.format(" at %tF %<tT", c.upload.time))
+                .append(" and is served here with its metadata <b>").append(c.verdict).append("</b>.</p>");
+        if (! c.survived.isEmpty()) {
+            detail.append("<p>Still in the served image:</p><ul>");
+            for (String f : c.survived) {
+                detail.append("<li>").append(IssueAggregator.escape(f)).append("</li>");
+            }
+            detail.append("</ul>");
+        }
+        if (! c.removed.isEmpty()) {
+            detail.append("<p>Removed by the server:</p><ul>");
+            for (String f : c.removed) {
+                detail.append("<li>").append(IssueAggregator.escape(f)).append("</li>");
+            }
+            detail.append("</ul>");
+        }
+        ScanLog.info("upload.served", c.verdict.toString(), ScanLog.URL, url, "upload", c.upload.url);
+        IHttpRequestResponse[] x = new IHttpRequestResponse[1];
+        x[0] = IssueEvidence.persist(callbacks, baseRequestResponse, segments);
+        return new CustomScanIssue(
+                baseRequestResponse.getHttpService(),
+                url,
+                x,
+                strippingAlertTitle,
+                detail.toString(),
+                c.verdict == UploadIndex.Verdict.STRIPPED ? "Information" : "Low",
+                "Certain",
+                strippingIssueBackground, remediationBackground, remediationDetail,
+                new ArrayList<Finding>()
+            );
+    }
+
+    /** Issues for the canaries in the image of the response body, if any.  Only plain
+     * bodies are looked at; a server that re-encodes uploads rarely compresses images. */
+    private List<CustomScanIssue> canaryIssues(IHttpRequestResponse baseRequestResponse, byte[] resp, int responseOffset) {
+        List<CustomScanIssue> issues = new ArrayList<CustomScanIssue>(1);
+        if (contentEncoding(resp, responseOffset) != null) {
+            return issues;
+        }
+        ImageSegments segments = ImageSegments.locate(resp, responseOffset, resp.length - responseOffset);
+        List<CanaryIndex.Sighting> sightings = canaries.find(resp, segments);
+        if (sightings.isEmpty()) {
+            return issues;
+        }
+        URL url = helpers.analyzeRequest(baseRequestResponse).getUrl();
+        for (CanaryIndex.Sighting s : sightings) {
+            if (! canaries.markServed(s.canary, url)) {
+                continue;
+            }
+            metrics.canariesFound.increment();
+            StringBuilder detail = new StringBuilder();
+            detail.append("<p>The canary image <b>").append(s.canary.token).append("</b> was uploaded to ")
+                    .append(IssueAggregator.escape(s.canary.uploadUrl))
+                    .append(" through the insertion point ").append(IssueAggregator.escape(s.canary.insertionPoint))
+                    .append(String.format(" at %tF %<tT", s.canary.time))
+                    .append(" and is served here with its metadata.</p><p>Found in:</p><ul>");
+            for (String f : s.fields) {
+                detail.append("<li>").append(IssueAggregator.escape(f)).append("</li>");
+            }
+            detail.append("</ul>");
+            ScanLog.info("canary", "served", ScanLog.URL, url, "token", s.canary.token, "upload", s.canary.uploadUrl);
+            IHttpRequestResponse[] x = new IHttpRequestResponse[1];
+            x[0] = IssueEvidence.persist(callbacks, baseRequestResponse, segments);
+            issues.add(new CustomScanIssue(
+                    baseRequestResponse.getHttpService(),
+                    url,
+                    x,
+                    canaryAlertTitle,
+                    detail.toString(),
+                    "Low",
+                    "Certain",
+                    canaryIssueBackground, remediationBackground, remediationDetail,
+                    new ArrayList<Finding>()
+                ));
+        }
+        return issues;
+    }
+
+    /** Scans the images uploaded by the request of baseRequestResponse: the file parts of
+     * a multipart/form-data body, or the whole body when it is an image (PUT / raw POST).
+     * Each image is scanned where it lies in the request, nothing is copied.
+     * 
+     * @param req the request of baseRequestResponse, already fetched by the caller
+     * @return one issue per uploaded image that carries location or privacy data; never null
+     */
+    List<IScanIssue> scanRequest(IHttpRequestResponse baseRequestResponse, byte[] req) {
+        List<IScanIssue> issues = new ArrayList<IScanIssue>();
+        if (! HttpMessages.mayCarryUpload(req)) {
+            return issues;
+        }
+        int bodyOffset = HttpMessages.findBodyOffset(req);
+        String host = baseRequestResponse.getHttpService().getHost();
+        long cpu = HostBudget.threadCpuNanos();
+        try {
+            String boundary = MultipartParser.boundaryOf(HttpMessages.getHeader(req, bodyOffset, "Content-Type"));
+            List<MultipartParser.Part> parts;
+            if (boundary != null) {
+                parts = MultipartParser.findImageParts(req, bodyOffset, req.length, boundary);
+            } else {
+                parts = new ArrayList<MultipartParser.Part>(1);
+                MultipartParser.Part whole = MultipartParser.wholeBody(req, bodyOffset, req.length);
+                if (whole != null) {
+                    parts.add(whole);
+                }
+            }
+            if (parts.isEmpty()) {
+                return issues;
+            }
+
+            URL url = null;
+            OverloadController.Tier tier = overload.current();
+            if (hostBudget.isOverBudget(host)) {
+                tier = OverloadController.Tier.DETECT_ONLY;  // an upload is one-off, no URL to sample by
+            }
+            for (MultipartParser.Part part : parts) {
+                ScanResult result = scanBody(req, part.getOffset(), part.getLength(), tier, null);
+                if (result.isEmpty()) {
+                    continue;
+                }
+                if (url == null) {
+                    url = helpers.analyzeRequest(baseRequestResponse).getUrl();
+                }
+                String upload = "";
+                if (part.getName().length() > 0 || part.getFilename().length() > 0) {
+                    upload = "<p>Form field: " + IssueAggregator.escape(part.getName()) + SEP
+                            + "file name: " + IssueAggregator.escape(part.getFilename()) + "</p>";
+                }
+
+                ImageSegments segments = ImageSegments.locate(req, part.getOffset(), part.getLength(),
+                        tier == OverloadController.Tier.FULL || tier == OverloadController.Tier.HEADER_ONLY);
+                if (segments.getPayloadFingerprint() != null) {
+                    // to tell later whether the server strips it before serving it
+                    uploads.record(segments.getPayloadFingerprint(), url, result.getFindings());
+                }
+                List<int[]> markers = segments.isEmpty()
+                        ? Collections.singletonList(new int[] { part.getOffset(), part.getOffset() + part.getLength() })
+                        : segments.toMarkers(0);
+                IHttpRequestResponse[] x = new IHttpRequestResponse[1];
+                x[0] = IssueEvidence.persistMarked(callbacks, baseRequestResponse, markers, null);
+
+                issues.add(new CustomScanIssue(
+                        baseRequestResponse.getHttpService(),
+                        url,
+                        x,
+                        uploadAlertTitle,
+                        uploadIssueDetailPrefix + upload + tierNote(tier) + result.getHtml(),
+                        "Information",
+                        confidence(tier),
+                        uploadIssueBackground, remediationBackground, remediationDetail, result.getFindings()
+                    ));
+            }
+            return issues;
+        } finally {
+            hostBudget.charge(host, HostBudget.threadCpuNanos() - cpu, req.length);
+        }
+    }
+
+    /** Scans the images embedded as base64 text (data: URIs, JSON fields) in a text response.
+     * Each is decoded only as far as the metadata readers read, straight from resp.
+     * 
+     * @param resp the response of baseRequestResponse, already fetched by the caller
+     * @param responseOffset offset of the body inside resp
+     * @return one issue per inline image that carries location or privacy data; never null
+     */
+    List<IScanIssue> scanInline(IHttpRequestResponse baseRequestResponse, byte[] resp, int responseOffset) {
+        String host = baseRequestResponse.getHttpService().getHost();
+        long cpu = HostBudget.threadCpuNanos();
+        try {
+            List<IScanIssue> issues = new ArrayList<IScanIssue>();
+            if (hostBudget.isOverBudget(host) && ! overload.sample(
+                    HttpMessages.getUrl(baseRequestResponse.getHttpService(), baseRequestResponse.getRequest()))) {
+                metrics.sampledOut.increment();
+                return issues;
+            }
+            URL url = null;
+            for (InlineImageFinder.InlineImage image : InlineImageFinder.find(resp, responseOffset, resp.length)) {
+                if (! accept(image.getFormat(), image.getDecodedLength())) {
+                    continue;
+                }
+                // keyed on the base64 text; hashing it is cheaper than decoding it
+                ContentHash key = ContentHash.of(resp, image.getOffset(), image.getLength());
+                ScanResult result = scanStream(image.getFormat(), key, image.getDecodedLength(), image.open());
+                if (result.isEmpty()) {
+                    continue;
+                }
+                if (url == null) {
+                    url = helpers.analyzeRequest(baseRequestResponse).getUrl();
+                }
+
+                List<int[]> markers = Collections.singletonList(
+                        new int[] { image.getOffset(), image.getOffset() + image.getLength() });
                 IHttpRequestResponse[] x = new IHttpRequestResponse[1];
-                x[0] = baseRequestResponse;
-                
-                alert.add(new CustomScanIssue(
+                x[0] = IssueEvidence.persistMarked(callbacks, baseRequestResponse, null, markers);
+
+                issues.add(new CustomScanIssue(
                         baseRequestResponse.getHttpService(),
                         url,
                         x,
-                		alertTitle,
-                		issueDetailPrefix + hasGPS,
+                        alertTitle,
+                        issueDetailPrefix + "<p>Embedded as base64 text at offset " + image.getOffset()
+                                + " of the response.</p>" + result.getHtml(),
                         "Information",
                         "Certain",
-                        issueBackground, remediationBackground, remediationDetail  // three static strings
-                	)
+                        issueBackground, remediationBackground, remediationDetail, result.getFindings()
+                    ));
+            }
+            return issues;
+        } finally {
+            hostBudget.charge(host, HostBudget.threadCpuNanos() - cpu, resp.length - responseOffset);
+        }
+    }
+
+    /** Returns the findings for the image at data[offset..offset+length), straight from the
+     * cache when the same image was scanned before.  Applies the format, size, time budget
+     * and category settings, and parses only as much as the tier allows.
+     *
+     * @param learn the URL to teach the skip learner with, or null; only parsing tiers teach it
+     */
+    private ScanResult scanBody(byte[] data, int offset, int length, OverloadController.Tier tier, URL learn) {
+        ImageFormat format = ImageFormat.detect(data, offset, length);
+        if (! accept(format, length)) {
+            return ScanResult.EMPTY;
+        }
+        metrics.recordTier(tier);
+        switch (tier) {
+            case FULL:
+                return scanStream(format, ContentHash.of(data, offset, length), length,
+                        new ByteArrayInputStream(data, offset, length), null, learn);
+            case HEADER_ONLY:
+                // The cut, closed prefix is its own cache key, so the pixels are not even hashed.
+                byte[] header;
+                try {
+                    header = ContentDecoder.readUntilPayload(new ByteArrayInputStream(data, offset, length), HEADER_ONLY_BYTES);
+                } catch (IOException e) {
+                    return ScanResult.EMPTY;  // cannot happen on an array
+                }
+                return scanStream(format, ContentHash.of(header), header.length, new ByteArrayInputStream(header),
+                        null, learn);
+            default:
+                return detectOnly(data, offset, length);
+        }
+    }
+
+    /** Hints instead of findings, never cached: a full scan later must still run. */
+    private ScanResult detectOnly(byte[] data, int offset, int length) {
+        List<Finding> findings = new ArrayList<Finding>();
+        for (String hint : MetadataHints.find(data, offset, length)) {
+            findings.add(new Finding("Location", "Detected, not parsed", hint));
+        }
+        ScanResult result = ILS.filter(ILS.render(findings), settings.getDisabledCategories());
+        metrics.recordFindings(result.getFindings());
+        return result;
+    }
+
+    /** Tells the tester how much of the image was looked at, when it was not all of it. */
+    private static String tierNote(OverloadController.Tier tier) {
+        switch (tier) {
+            case FULL:
+                return "";
+            case HEADER_ONLY:
+                return "<p>Scanned header-only while the extension was under load; metadata stored "
+                        + "after the image data was not read.</p>";
+            default:
+                return "<p>Checked " + tier + " while the extension was under load: location data "
+                        + "structures are present but were not parsed.  Rescan to confirm.</p>";
+        }
+    }
+
+    private static String confidence(OverloadController.Tier tier) {
+        return (tier == OverloadController.Tier.FULL || tier == OverloadController.Tier.HEADER_ONLY) ? "Certain" : "Tentative";
+    }
+
+    /** Moves a large plain image body to a temp file, to be scanned by position from
+     * there.  Retro-scans spill before queueing, so their queue holds file names instead
+     * of response arrays.
+     *
+     * @return the spilled body, or null when the body is small, encoded or could not be written
+     */
+    SpilledBody spillIfLarge(byte[] resp, int bodyOffset) {
+        int threshold = settings.getSpillThresholdBytes();
+        if (threshold <= 0 || resp.length - bodyOffset <= threshold
+                || ImageFormat.detect(resp, bodyOffset, resp.length - bodyOffset) == ImageFormat.UNKNOWN) {
+            return null;
+        }
+        try {
+            return SpilledBody.spill(tempFiles, resp, bodyOffset);
+        } catch (IOException e) {
+            ScanLog.warn("spill", "could not spill a body", ScanLog.SIZE, resp.length - bodyOffset, "error", e);
+            return null;
+        }
+    }
+
+    /** scanResponse() for a spilled body.  The file is read with positional reads of a
+     * few KB, never as a whole; the evidence is trimmed to the headers and metadata.
+     * The caller deletes the file afterwards.
+     */
+    CustomScanIssue scanSpilled(IHttpService service, byte[] request, SpilledBody body) {
+        long cpu = HostBudget.threadCpuNanos();
+        FileChannel ch = null;
+        try {
+            URL target = HttpMessages.getUrl(service, request);
+            if (hostBudget.isOverBudget(service.getHost()) && ! overload.sample(target)) {
+                metrics.sampledOut.increment();
+                return null;
+            }
+            if (skipLearner.shouldSkip(target)) {
+                metrics.learnedSkips.increment();
+                return null;
+            }
+            ch = body.open();
+            int length = body.getLength();
+            byte[] magic = new byte[ImageFormat.MAGIC_LENGTH];
+            int n = new FileChannelInputStream(ch, 0, length).read(magic, 0, magic.length);
+            ImageFormat format = ImageFormat.detect(magic, 0, Math.max(0, n));
+            if (! accept(format, length)) {
+                return null;
+            }
+            ContentHash key = ContentHash.of(new FileChannelInputStream(ch, 0, length), length);
+            ScanResult result = scanStream(format, key, length, new FileChannelInputStream(ch, 0, length),
+                    body.getFile(), target);
+            if (result.isEmpty()) {
+                return null;
+            }
+
+            // Evidence: the headers plus the image up to its pixel data, marked as usual.
+            byte[] headers = body.getHeaders();
+            byte[] prefix = (format == ImageFormat.TIFF) ? null
+                    : ContentDecoder.readUntilPayload(new FileChannelInputStream(ch, 0, length), MAX_EVIDENCE_BYTES);
+            if (prefix == null) {
+                prefix = new byte[0];
+            }
+            byte[] response = Arrays.copyOf(headers, headers.length + prefix.length);
+            System.arraycopy(prefix, 0, response, headers.length, prefix.length);
+            ImageSegments segments = ImageSegments.locate(response, headers.length, prefix.length);
+            IHttpRequestResponse[] x = new IHttpRequestResponse[1];
+            x[0] = IssueEvidence.trimmed(callbacks, service, request, response, headers.length, segments);
+
+            return new CustomScanIssue(
+                    service,
+                    helpers.analyzeRequest(service, request).getUrl(),
+                    x,
+                    alertTitle,
+                    issueDetailPrefix + "<p>The " + length + " byte body is shown trimmed to its metadata.</p>"
+                            + result.getHtml(),
+                    "Information",
+                    "Certain",
+                    issueBackground, remediationBackground, remediationDetail, result.getFindings()
                 );
-            	return alert; 
- 
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeQuietly(ch);
+            hostBudget.charge(service.getHost(), HostBudget.threadCpuNanos() - cpu, body.getLength());
+        }
+    }
+
+    /** Whether the request's URL is in Burp's target scope, for the scan queue order and
+     * the in-scope-only setting.  A hash lookup after the first request to a directory. */
+    boolean isInScope(IHttpService service, byte[] request) {
+        URL url = HttpMessages.getUrl(service, request);
+        return url != null && scope.isInScope(url);
+    }
+
+    /** Rough cost of scanning a body, in bytes read, for shortest-job-first ordering.
+     * JPEG and WebP readers stop early; PNG walks every chunk; TIFF may touch it all. */
+    static long estimateCost(ImageFormat format, long bytes) {
+        switch (format) {
+            case JPEG:
+            case WEBP:
+                return bytes;
+            case TIFF:
+                return bytes * 4;
+            default:
+                return bytes * 2;  // PNG, or an encoded body that has to be inflated
+        }
+    }
+
+    /** Returns the Content-Encoding of a response whose body is an encoded image we can
+     * inflate, or null when the body is plain (or not worth inflating). */
+    static String contentEncoding(byte[] resp, int bodyOffset) {
+        if (ImageFormat.detect(resp, bodyOffset, resp.length - bodyOffset) != ImageFormat.UNKNOWN) {
+            return null;
+        }
+        String encoding = HttpMessages.getHeader(resp, bodyOffset, "Content-Encoding");
+        return ContentDecoder.isSupported(encoding) ? encoding.trim().toLowerCase() : null;
+    }
+
+    /** Scans a gzip / deflate encoded image, inflating only up to its image data.  The
+     * cache key is the encoded body, so repeats cost no inflation at all. */
+    private ScanResult scanEncoded(byte[] data, int offset, int length, String encoding, URL learn) {
+        ImageFormat format = ContentDecoder.peekFormat(data, offset, length, encoding);
+        if (format == ImageFormat.UNKNOWN || ! accept(format, length)) {
+            return ScanResult.EMPTY;
+        }
+        return scanStream(format, ContentHash.of(data, offset, length), length,
+                ContentDecoder.untilPayload(data, offset, length, encoding, settings.getMaxBodyBytes()), null, learn);
+    }
+
+    /** Findings for the message editor tab: served from the result cache when the image
+     * was scanned before, otherwise scanned and cached like any other scan.  Neither
+     * counted in the metrics nor filtered by the settings; viewing is not scanning.
+     *
+     * @param encoding the Content-Encoding of the body, or null when it is plain
+     */
+    ScanResult inspect(byte[] data, int offset, int length, String encoding) {
+        ContentHash key = ContentHash.of(data, offset, length);
+        ScanResult result = cache.get(key);
+        if (result == null) {
+            InputStream source = (encoding == null) ? new ByteArrayInputStream(data, offset, length)
+                    : ContentDecoder.untilPayload(data, offset, length, encoding, settings.getMaxBodyBytes());
+            DeadlineInputStream in = new DeadlineInputStream(source, settings.getScanBudgetMillis() * 1000000L);
+            result = ILS.scan(new BufferedInputStream(in));
+            if (! in.isExpired()) {
+                cache.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    /** Applies the format and size settings before any hashing or parsing is done. */
+    private boolean accept(ImageFormat format, int length) {
+        if (! settings.isFormatEnabled(format)) {
+            return false;
+        }
+        if (length > settings.getMaxBodyBytes()) {
+            metrics.rejected.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /** Scans an image of an accepted format unless key is already cached.  source is
+     * only read on a cache miss, and only as far as the metadata readers need. */
+    private ScanResult scanStream(ImageFormat format, ContentHash key, int length, InputStream source) {
+        return scanStream(format, key, length, source, null, null);
+    }
+
+    /** @param file the same image as a file; TIFFs are then read with random access instead
+     *  @param learn the URL to teach the skip learner with, or null.  It learns from the
+     *         whole result, before the category filter, and never from a cut-short scan. */
+    private ScanResult scanStream(ImageFormat format, ContentHash key, int length, InputStream source, File file,
+            URL learn) {
+        ScanResult result = cache.get(key);
+        boolean complete = true;
+        if (result == null) {
+            long start = System.nanoTime();
+            DeadlineInputStream in = new DeadlineInputStream(source, settings.getScanBudgetMillis() * 1000000L);
+            if (file != null && format == ImageFormat.TIFF) {
+                result = ILS.scanTiff(file);
             } else {
-            	; // no-op.  ignore it (or log it for debugging)
-            	//db(fileName + ": No GPS");
+                result = ILS.scan(new BufferedInputStream(in));
             }
+            long took = System.nanoTime() - start;
+            metrics.recordScan(format, took, length);
+            if (in.isExpired()) {
+                complete = false;
+                metrics.truncated.increment();
+                ScanLog.warn("scan.truncated", "scan cut short by the time budget", ScanLog.FORMAT, format,
+                        ScanLog.SIZE, length, ScanLog.DURATION_MS, took / 1000000L);
+            } else {
+                // an expired scan is empty, not clean: it is never cached (nor saved with
+                // the cache), so the next sighting, or a larger budget, scans it again
+                cache.put(key, result);
+            }
+            ScanLog.debug("scan", "scanned", ScanLog.FORMAT, format, ScanLog.SIZE, length,
+                    ScanLog.DURATION_MS, took / 1000000L, ScanLog.FINDINGS, result.getFindings().size());
         }
-        
-        return null;
+        if (learn != null && complete) {
+            skipLearner.observe(learn, ! result.isEmpty());
+        }
+        result = ILS.filter(result, settings.getDisabledCategories());
+        metrics.recordFindings(result.getFindings());
+        return result;
+    }
+
+    /** Hands an issue found outside of a scanner check to Burp.  Without a scanner
+     * (Burp Free) addScanIssue is unavailable, so the finding goes to the Alerts tab. */
+    void report(IScanIssue issue) {
+        if (settings.isAggregateIssues() && issue instanceof CustomScanIssue) {
+            for (IScanIssue due : aggregator.add((CustomScanIssue) issue)) {
+                deliver(due);
+            }
+        } else {
+            deliver(issue);
+        }
+    }
+
+    private void deliver(IScanIssue issue) {
+        if (scannerAvailable) {
+            try {
+                callbacks.addScanIssue(issue);
+                return;
+            } catch (RuntimeException e) {
+                scannerAvailable = false;
+            }
+        }
+        callbacks.issueAlert(issue.getIssueName() + ": " + issue.getUrl());
+    }
+
+    /** Starts a retro-scan job and shows its progress on the ILS tab. */
+    void startRetroScan(RetroScan job) {
+        tab.getRetroScanPanel().start(job);
+    }
+
+    /** Right-click entries to retro-scan the selected items or the site map below them. */
+    @Override
+    public List<JMenuItem> createMenuItems(IContextMenuInvocation invocation) {
+        final IHttpRequestResponse[] selected = invocation.getSelectedMessages();
+        if (selected == null || selected.length == 0) {
+            return null;
+        }
+        List<JMenuItem> items = new ArrayList<JMenuItem>();
+
+        JMenuItem scanSelected = new JMenuItem("Scan selected items for image metadata");
+        scanSelected.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                startRetroScan(RetroScan.forMessages(BurpExtender.this, selected));
+            }
+        });
+        items.add(scanSelected);
+
+        final URL url = helpers.analyzeRequest(selected[0]).getUrl();
+        String path = url.getPath();
+        final String prefix = url.getProtocol() + "://" + url.getHost()
+                + (url.getPort() == -1 ? "" : ":" + url.getPort())
+                + path.substring(0, path.lastIndexOf('/') + 1);
+        JMenuItem scanBranch = new JMenuItem("Scan site map images under " + prefix);
+        scanBranch.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                startRetroScan(RetroScan.forSiteMap(BurpExtender.this, prefix));
+            }
+        });
+        items.add(scanBranch);
+
+        final String host = selected[0].getHttpService().getHost();
+        final List<CustomScanIssue> individual = aggregator.getIssues(host);
+        if (! individual.isEmpty()) {
+            JMenuItem expand = new JMenuItem("Report the " + individual.size() + " individual image issues of " + host);
+            expand.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    Thread t = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (CustomScanIssue issue : individual) {
+                                deliver(issue);
+                            }
+                        }
+                    }, "ILS-report");
+                    t.setDaemon(true);
+                    t.start();
+                }
+            });
+            items.add(expand);
+        }
+
+        return items;
+    }
+
+    IBurpExtenderCallbacks getCallbacks() {
+        return callbacks;
+    }
+
+    ScanPool getPool() {
+        return pool;
+    }
+
+    ScanCache getCache() {
+        return cache;
+    }
+
+    OverloadController getOverload() {
+        return overload;
+    }
+
+    HostBudget getHostBudget() {
+        return hostBudget;
+    }
+
+    IssueAggregator getAggregator() {
+        return aggregator;
+    }
+
+    SkipLearner getSkipLearner() {
+        return skipLearner;
+    }
+
+    UploadIndex getUploads() {
+        return uploads;
+    }
+
+    CanaryIndex getCanaries() {
+        return canaries;
+    }
+
+    VariantIndex getVariants() {
+        return variants;
+    }
+
+    ScanMetrics getMetrics() {
+        return metrics;
+    }
+
+    ScanSettings getSettings() {
+        return settings;
     }
     
 
-    /** If the URL and Details match, then it is the same finding. */
+    /** If the URL and Details match, then it is the same finding, and so is the same
+     * picture with the same findings whatever the notes say.  Of two snapshots of the
+     * same roll-up the newer, larger one is kept. */
     @Override
     public int consolidateDuplicateIssues(IScanIssue existingIssue, IScanIssue newIssue) {
+        if (IssueAggregator.isSameRollUp(existingIssue, newIssue)) {
+            return 1;
+        }
+        if (existingIssue instanceof CustomScanIssue && newIssue instanceof CustomScanIssue) {
+            CustomScanIssue a = (CustomScanIssue) existingIssue;
+            CustomScanIssue b = (CustomScanIssue) newIssue;
+            if (a.getFingerprint() != null && a.getFingerprint().equals(b.getFingerprint())
+                    && VariantIndex.findingsKey(a.getFindings()) == VariantIndex.findingsKey(b.getFindings())) {
+                return -1;
+            }
+        }
         if (existingIssue.getIssueDetail().equals(newIssue.getIssueDetail()) 
         		&& existingIssue.getUrl().equals(newIssue.getUrl()) ) {
         	// Duplicate
@@ -140,7 +1161,7 @@ public class BurpExtender implements IBurpExtender, IScannerCheck
      * https://code.google.com/p/burp-suite-software-version-checks/source/browse/trunk/src/burp/BurpExtender.java
      * (or his many other plugins, check them out).  His plugins are licensed with the Apache License 2.0.
      * We can use the same name for issue class since the class isn't exposed. */
-    class CustomScanIssue implements IScanIssue {
+    static class CustomScanIssue implements IScanIssue {
 
         private IHttpService httpService;
         private URL url;
@@ -152,6 +1173,10 @@ public class BurpExtender implements IBurpExtender, IScannerCheck
         private String issueBackground;
         private String remediationBackground;
         private String remediationDetail;
+        /** What the issue was raised for, so issues can be rolled up by category. */
+        private List<Finding> findings;
+        /** ImageSegments.getPayloadFingerprint() of the image, when it was taken. */
+        private ContentHash fingerprint;
 
         public CustomScanIssue(
                 IHttpService httpService,
@@ -163,7 +1188,8 @@ public class BurpExtender implements IBurpExtender, IScannerCheck
                 String confidence,
                 String issueBackground,
                 String remediationBackground,
-                String remediationDetail    ) {
+                String remediationDetail,
+                List<Finding> findings    ) {
             this.httpService = httpService;
             this.url = url;
             this.httpMessages = httpMessages;
@@ -174,6 +1200,19 @@ public class BurpExtender implements IBurpExtender, IScannerCheck
             this.issueBackground = issueBackground;
             this.remediationBackground = remediationBackground;
             this.remediationDetail = remediationDetail;
+            this.findings = findings;
+        }
+
+        List<Finding> getFindings() {
+            return findings;
+        }
+
+        ContentHash getFingerprint() {
+            return fingerprint;
+        }
+
+        void setFingerprint(ContentHash fingerprint) {
+            this.fingerprint = fingerprint;
         }
 
         @Override
@@ -232,14 +1271,4 @@ public class BurpExtender implements IBurpExtender, IScannerCheck
         }
     }
 
-    
-    /** Poor man's println to Burp's stdout, db means debug. */
-    private void db(String d) {
-    	d = modName.concat(": ").concat(d).concat("\n");
-    	try { 
-    		stdout.write(d.getBytes());
-    	} catch(Exception e) {
-    		// no op.
-    	}
-    }
 }
@@ -0,0 +1,333 @@
+package burp;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.veggiespam.imagelocationscanner.BytePattern;
+import com.veggiespam.imagelocationscanner.ILS;
+import com.veggiespam.imagelocationscanner.ImageFormat;
+import com.veggiespam.imagelocationscanner.ImageSegments;
+import com.veggiespam.imagelocationscanner.MultiPattern;
+import com.veggiespam.imagelocationscanner.SyntheticImages;
+
+
+/**
+ * Canary images for the active upload check, and the index that recognizes them when
+ * a server serves one back, on any URL and at any later time.
+ * <p>
+ * Every canary is the same small JPEG with a unique 48-bit id patched into it: as the
+ * token "ilsc" + 12 hex digits in the IPTC City and the Exif BodySerialNumber, and
+ * spread over the seconds of the GPS latitude and longitude.  The template is encoded
+ * once; a canary is a copy of it with 40 bytes overwritten, so the picture and the
+ * layout of every canary are identical and no encoder runs per upload.
+ * <p>
+ * Recognizing is one Aho-Corasick pass (MultiPattern) for all known tokens over the
+ * metadata segments of a response, never the pixels.  The automaton is rebuilt on the
+ * next lookup after a canary is added.  The GPS seconds alone are too common to count
+ * as a sighting, so they are only checked for a canary whose token was found, to tell
+ * whether the position survived too; they are matched as written, little-endian.
+ * <p>
+ * At most MAX_CANARIES are kept, the oldest go first.  The index is saved with the
+ * other state, since an upload may well be served days later.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class CanaryIndex {
+
+	static final int MAX_CANARIES = 2000;
+	/** Served URLs reported per canary. */
+	static final int MAX_SERVED = 16;
+	static final String TOKEN_PREFIX = "ilsc";
+	/** Seconds numerators a canary can use: [0, 60 s) in 1/SECONDS_DENOMINATOR. */
+	static final int SECONDS_RANGE = 60 * SyntheticImages.SECONDS_DENOMINATOR;
+
+	/** "ILSY", the start of a saved index; "ILSC" is the result cache's. */
+	private static final int FILE_MAGIC = 0x494C5359;
+	private static final int FILE_VERSION = 1;
+	private static final int ID_DIGITS = 12;
+	private static final long ID_MASK = (1L << (4 * ID_DIGITS)) - 1;
+
+	/** One uploaded canary. */
+	static final class Canary {
+		final long id;
+		final String token;
+		final String uploadUrl;
+		final String insertionPoint;
+		final long time;
+		/** Served URLs already reported; guarded by the index lock. */
+		final Set<String> served = new LinkedHashSet<String>();
+
+		Canary(long id, String uploadUrl, String insertionPoint, long time) {
+			this.id = id;
+			this.token = token(id);
+			this.uploadUrl = uploadUrl;
+			this.insertionPoint = insertionPoint;
+			this.time = time;
+		}
+
+		int latitudeSeconds() {
+			return (int) (id % SECONDS_RANGE);
+		}
+
+		int longitudeSeconds() {
+			return (int) ((id / SECONDS_RANGE) % SECONDS_RANGE);
+		}
+	}
+
+	/** A canary found in a served image. */
+	static final class Sighting {
+		final Canary canary;
+		/** Where its values were found, e.g. "IPTC (APP13)" or "Exif GPS position". */
+		final List<String> fields;
+
+		Sighting(Canary canary, List<String> fields) {
+			this.canary = canary;
+			this.fields = fields;
+		}
+	}
+
+	/** The automaton for the canaries known when it was built; pattern i is canaries[i]. */
+	private static final class Matcher {
+		final MultiPattern tokens;
+		final Canary[] canaries;
+
+		Matcher(MultiPattern tokens, Canary[] canaries) {
+			this.tokens = tokens;
+			this.canaries = canaries;
+		}
+	}
+
+	/** Built on first use, so loading the extension never runs an image encoder. */
+	private static final class Template {
+		static final String PLACEHOLDER = token(0);
+		static final int LATITUDE_SECONDS = 123456;
+		static final int LONGITUDE_SECONDS = 234567;
+		static final byte[] IMAGE = SyntheticImages.jpeg(
+				SyntheticImages.exif(40 + 18 / 60.0 + LATITUDE_SECONDS / (3600.0 * SyntheticImages.SECONDS_DENOMINATOR),
+						-(74 + 39 / 60.0 + LONGITUDE_SECONDS / (3600.0 * SyntheticImages.SECONDS_DENOMINATOR)),
+						"Image Location Scanner upload canary, see " + ILS.referenceURL, PLACEHOLDER),
+				SyntheticImages.iptc(PLACEHOLDER));
+		static final int[] TOKEN_AT = occurrences(BytePattern.ascii(PLACEHOLDER), 2);
+		static final int LATITUDE_AT = occurrences(new BytePattern(seconds(LATITUDE_SECONDS)), 1)[0];
+		static final int LONGITUDE_AT = occurrences(new BytePattern(seconds(LONGITUDE_SECONDS)), 1)[0];
+
+		private static int[] occurrences(BytePattern p, int expected) {
+			int[] at = new int[expected];
+			int from = 0;
+			for (int i = 0; i < expected; i++) {
+				at[i] = p.indexOf(IMAGE, from, IMAGE.length);
+				if (at[i] < 0) {
+					throw new IllegalStateException("canary template lacks a placeholder");
+				}
+				from = at[i] + p.length();
+			}
+			return at;
+		}
+	}
+
+	private final SecureRandom random = new SecureRandom();
+	/** Insertion order is age order, so eviction works from the head. */
+	private final LinkedHashMap<String, Canary> canaries = new LinkedHashMap<String, Canary>();
+	private volatile int size = 0;
+	/** Null after a change, until the next lookup rebuilds it. */
+	private volatile Matcher matcher;
+
+
+	/** A new canary for an upload through insertionPoint of url. */
+	synchronized Canary create(URL url, String insertionPoint) {
+		Canary c;
+		do {
+			c = new Canary(random.nextLong() & ID_MASK, String.valueOf(url), insertionPoint, System.currentTimeMillis());
+		} while (canaries.containsKey(c.token));
+		add(c);
+		return c;
+	}
+
+	/** The JPEG to upload for the canary. */
+	static byte[] image(Canary c) {
+		byte[] image = Template.IMAGE.clone();
+		byte[] token = ascii(c.token);
+		for (int at : Template.TOKEN_AT) {
+			System.arraycopy(token, 0, image, at, token.length);
+		}
+		System.arraycopy(seconds(c.latitudeSeconds()), 0, image, Template.LATITUDE_AT, 8);
+		System.arraycopy(seconds(c.longitudeSeconds()), 0, image, Template.LONGITUDE_AT, 8);
+		return image;
+	}
+
+	/** Looks for known canaries in the metadata segments of an image.  Nothing but the
+	 * token automaton runs unless a token is found.
+	 *
+	 * @return the canaries found; never null
+	 */
+	List<Sighting> find(byte[] data, ImageSegments segments) {
+		List<Sighting> sightings = new ArrayList<Sighting>(1);
+		if (size == 0 || segments.isEmpty()) {
+			return sightings;
+		}
+		Matcher m = matcher;
+		if (m == null) {
+			m = rebuild();
+		}
+		Map<Canary, Set<String>> found = null;
+		for (int i = 0; i < segments.size(); i++) {
+			int off = segments.getOffset(i);
+			for (Integer p : m.tokens.findAll(data, off, off + segments.getLength(i))) {
+				if (found == null) {
+					found = new LinkedHashMap<Canary, Set<String>>();
+				}
+				Canary c = m.canaries[p.intValue()];
+				if (! found.containsKey(c)) {
+					found.put(c, new LinkedHashSet<String>());
+				}
+				found.get(c).add(segmentName(segments.getFormat(), segments.getType(i)));
+			}
+		}
+		if (found == null) {
+			return sightings;
+		}
+		for (Map.Entry<Canary, Set<String>> e : found.entrySet()) {
+			Canary c = e.getKey();
+			List<String> fields = new ArrayList<String>(e.getValue());
+			if (contains(data, segments, seconds(c.latitudeSeconds()))
+					&& contains(data, segments, seconds(c.longitudeSeconds()))) {
+				fields.add("Exif GPS position");
+			}
+			sightings.add(new Sighting(c, fields));
+		}
+		return sightings;
+	}
+
+	/** Notes that the canary was served at url.
+	 *
+	 * @return false when that was reported before, or the canary has MAX_SERVED URLs already
+	 */
+	synchronized boolean markServed(Canary c, URL url) {
+		return c.served.size() < MAX_SERVED && c.served.add(String.valueOf(url));
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	synchronized void clear() {
+		canaries.clear();
+		size = 0;
+		matcher = null;
+	}
+
+	synchronized void save(DataOutputStream out) throws IOException {
+		out.writeInt(FILE_MAGIC);
+		out.writeInt(FILE_VERSION);
+		out.writeInt(canaries.size());
+		for (Canary c : canaries.values()) {
+			out.writeLong(c.id);
+			out.writeLong(c.time);
+			out.writeUTF(c.uploadUrl);
+			out.writeUTF(c.insertionPoint);
+		}
+	}
+
+	/** Adds the canaries of a saved index to this one. */
+	synchronized int load(DataInputStream in) throws IOException {
+		if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+			return 0;
+		}
+		int n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			long id = in.readLong();
+			long time = in.readLong();
+			Canary c = new Canary(id & ID_MASK, in.readUTF(), in.readUTF(), time);
+			if (! canaries.containsKey(c.token)) {
+				add(c);
+			}
+		}
+		return n;
+	}
+
+	/** Called with the lock held. */
+	private void add(Canary c) {
+		canaries.put(c.token, c);
+		if (canaries.size() > MAX_CANARIES) {
+			Iterator<String> eldest = canaries.keySet().iterator();
+			eldest.next();
+			eldest.remove();
+		}
+		size = canaries.size();
+		matcher = null;
+	}
+
+	private synchronized Matcher rebuild() {
+		if (matcher == null) {
+			List<String> tokens = new ArrayList<String>(canaries.size());
+			for (String t : canaries.keySet()) {
+				tokens.add(t);
+			}
+			matcher = new Matcher(MultiPattern.ascii(tokens), canaries.values().toArray(new Canary[0]));
+		}
+		return matcher;
+	}
+
+	static String token(long id) {
+		return TOKEN_PREFIX + String.format("%0" + ID_DIGITS + "x", id);
+	}
+
+	/** A GPS seconds RATIONAL as the canary writes it. */
+	private static byte[] seconds(int numerator) {
+		int d = SyntheticImages.SECONDS_DENOMINATOR;
+		return new byte[] {
+			(byte) numerator, (byte) (numerator >> 8), (byte) (numerator >> 16), (byte) (numerator >> 24),
+			(byte) d, (byte) (d >> 8), (byte) (d >> 16), (byte) (d >> 24)
+		};
+	}
+
+	private static boolean contains(byte[] data, ImageSegments segments, byte[] pattern) {
+		BytePattern p = new BytePattern(pattern);
+		for (int i = 0; i < segments.size(); i++) {
+			int off = segments.getOffset(i);
+			if (p.indexOf(data, off, off + segments.getLength(i)) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String segmentName(ImageFormat format, int type) {
+		switch (format) {
+			case JPEG:
+				return type == ImageSegments.JPEG_APP13 ? "IPTC (APP13)"
+						: type == ImageSegments.JPEG_APP1 ? "Exif / XMP (APP1)"
+						: String.format("JPEG segment 0x%02X", type);
+			case TIFF:
+				return "TIFF tags";
+			default:
+				return format + " " + new String(new char[] {
+					(char) (type >>> 24), (char) ((type >> 16) & 0xFF), (char) ((type >> 8) & 0xFF), (char) (type & 0xFF)
+				}).trim() + " chunk";
+		}
+	}
+
+	private static byte[] ascii(String s) {
+		byte[] b = new byte[s.length()];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte) s.charAt(i);
+		}
+		return b;
+	}
+}
@@ -0,0 +1,145 @@
+package burp;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * CPU time and bytes spent scanning, per host, and a CPU budget per host per minute.
+ * Time is the scanning thread's own CPU time from ThreadMXBean, so waiting in the
+ * queue or behind other threads is not charged.  A host over its budget has its
+ * queued images pushed back and the rest of its images sampled (see ScanPool and
+ * BurpExtender.scanResponse) until the next minute starts.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class HostBudget {
+
+	/** Length of a budget window. */
+	static final long WINDOW_NANOS = 60L * 1000 * 1000000L;
+
+	/** Counters of one host. */
+	static final class Usage {
+		final String host;
+		final StripedCounter scans = new StripedCounter();
+		final StripedCounter cpuNanos = new StripedCounter();
+		final StripedCounter bytes = new StripedCounter();
+		/** Images that got less than a full scan because the host was over budget. */
+		final StripedCounter limited = new StripedCounter();
+		final StripedCounter windowCpuNanos = new StripedCounter();
+		private volatile long windowStart = System.nanoTime();
+
+		Usage(String host) {
+			this.host = host;
+		}
+
+		/** CPU time charged in the current window; rolls the window over when it has ended. */
+		long getWindowCpuNanos() {
+			long now = System.nanoTime();
+			if (now - windowStart > WINDOW_NANOS) {
+				windowStart = now;
+				windowCpuNanos.reset();  // racing charges may land in either window, close enough
+			}
+			return windowCpuNanos.get();
+		}
+	}
+
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final boolean CPU_TIME = cpuTimeAvailable();
+
+	private final ScanSettings settings;
+	private final ConcurrentMap<String, Usage> hosts = new ConcurrentHashMap<String, Usage>();
+
+	HostBudget(ScanSettings settings) {
+		this.settings = settings;
+	}
+
+	/** CPU time of the calling thread in nanoseconds, or wall time if the JVM cannot tell. */
+	static long threadCpuNanos() {
+		return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+	private static boolean cpuTimeAvailable() {
+		try {
+			if (THREADS.isCurrentThreadCpuTimeSupported()) {
+				if (! THREADS.isThreadCpuTimeEnabled()) {
+					THREADS.setThreadCpuTimeEnabled(true);
+				}
+				return true;
+			}
+		} catch (UnsupportedOperationException e) {
+			// fall through
+		} catch (SecurityException e) {
+			// fall through
+		}
+		return false;
+	}
+
+	/** Records one scan of bytes that took cpuNanos of the scanning thread. */
+	void charge(String host, long cpuNanos, long bytes) {
+		Usage u = usage(host);
+		u.scans.increment();
+		u.cpuNanos.add(cpuNanos);
+		u.windowCpuNanos.add(cpuNanos);
+		u.bytes.add(bytes);
+	}
+
+	/** True when the host has used up this minute's budget; counts the image as limited. */
+	boolean isOverBudget(String host) {
+		long budget = settings.getHostCpuBudgetMillis() * 1000000L;
+		if (budget <= 0) {
+			return false;
+		}
+		Usage u = hosts.get(host);
+		if (u == null || u.getWindowCpuNanos() < budget) {
+			return false;
+		}
+		u.limited.increment();
+		return true;
+	}
+
+	/** Same as isOverBudget() without counting, for ordering the queue. */
+	boolean peekOverBudget(String host) {
+		long budget = settings.getHostCpuBudgetMillis() * 1000000L;
+		Usage u = hosts.get(host);
+		return budget > 0 && u != null && u.getWindowCpuNanos() >= budget;
+	}
+
+	/** All hosts, the most CPU first. */
+	List<Usage> getUsage() {
+		List<Usage> all = new ArrayList<Usage>(hosts.values());
+		Collections.sort(all, new Comparator<Usage>() {
+			@Override
+			public int compare(Usage a, Usage b) {
+				long x = a.cpuNanos.get();
+				long y = b.cpuNanos.get();
+				return x > y ? -1 : (x == y ? 0 : 1);
+			}
+		});
+		return all;
+	}
+
+	void reset() {
+		hosts.clear();
+	}
+
+	private Usage usage(String host) {
+		Usage u = hosts.get(host);
+		if (u == null) {
+			Usage fresh = new Usage(host);
+			u = hosts.putIfAbsent(host, fresh);
+			if (u == null) {
+				u = fresh;
+			}
+		}
+		return u;
+	}
+}
@@ -0,0 +1,159 @@
+package burp;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+
+/**
+ * Byte-level peeks into raw HTTP messages.  analyzeRequest() / analyzeResponse() parse
+ * everything, including parameters and cookies, which is too costly for deciding
+ * whether one of many thousands of messages is worth a scan.  These helpers only
+ * look at the header block.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class HttpMessages {
+
+	/** Headers larger than this are not worth looking for a body behind. */
+	static final int MAX_HEADER_BYTES = 64 * 1024;
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private HttpMessages() {
+		// static helpers only
+	}
+
+	/** Finds the end of the HTTP headers.
+	 *
+	 * @return offset of the body, or -1 when no blank line is found in the first MAX_HEADER_BYTES
+	 */
+	static int findBodyOffset(byte[] message) {
+		int end = Math.min(message.length, MAX_HEADER_BYTES) - 3;
+		for (int i = 0; i < end; i++) {
+			if (message[i] == '\r' && message[i + 1] == '\n' && message[i + 2] == '\r' && message[i + 3] == '\n') {
+				return i + 4;
+			}
+		}
+		return -1;
+	}
+
+	/** Returns the value of the first header called name (case-insensitive), or null.
+	 *
+	 * @param bodyOffset as returned by findBodyOffset(); the search stops there
+	 */
+	static String getHeader(byte[] message, int bodyOffset, String name) {
+		int lineStart = 0;
+		int n = name.length();
+		while (lineStart < bodyOffset) {
+			int lineEnd = lineStart;
+			while (lineEnd < bodyOffset && message[lineEnd] != '\r' && message[lineEnd] != '\n') {
+				lineEnd++;
+			}
+			if (lineEnd - lineStart > n && message[lineStart + n] == ':' && regionMatches(message, lineStart, name)) {
+				int v = lineStart + n + 1;
+				while (v < lineEnd && (message[v] == ' ' || message[v] == '\t')) {
+					v++;
+				}
+				return new String(message, v, lineEnd - v, ISO_8859_1);
+			}
+			lineStart = lineEnd + 1;
+		}
+		return null;
+	}
+
+	/** The headers of message with Content-Length set to length, as a new array; a plain
+	 * copy of the headers when there is no Content-Length header. */
+	static byte[] withContentLength(byte[] message, int bodyOffset, int length) {
+		String name = "Content-Length";
+		int n = name.length();
+		int lineStart = 0;
+		while (lineStart < bodyOffset) {
+			int lineEnd = lineStart;
+			while (lineEnd < bodyOffset && message[lineEnd] != '\r' && message[lineEnd] != '\n') {
+				lineEnd++;
+			}
+			if (lineEnd - lineStart > n && message[lineStart + n] == ':' && regionMatches(message, lineStart, name)) {
+				byte[] value = (": " + length).getBytes(ISO_8859_1);
+				int tail = bodyOffset - lineEnd;
+				int valueStart = lineStart + n;
+				byte[] head = new byte[valueStart + value.length + tail];
+				System.arraycopy(message, 0, head, 0, valueStart);
+				System.arraycopy(value, 0, head, valueStart, value.length);
+				System.arraycopy(message, lineEnd, head, valueStart + value.length, tail);
+				return head;
+			}
+			lineStart = lineEnd + 1;
+		}
+		return java.util.Arrays.copyOf(message, bodyOffset);
+	}
+
+	/** Builds the URL of a request from its request line, without parsing the rest the way
+	 * analyzeRequest() does.
+	 *
+	 * @return the URL, or null when the request line cannot be read
+	 */
+	static URL getUrl(IHttpService service, byte[] request) {
+		if (request == null) {
+			return null;
+		}
+		int end = Math.min(request.length, MAX_HEADER_BYTES);
+		int first = -1;
+		int second = -1;
+		for (int i = 0; i < end && request[i] != '\r' && request[i] != '\n'; i++) {
+			if (request[i] == ' ') {
+				if (first < 0) {
+					first = i;
+				} else if (second < 0) {
+					second = i;
+				}
+			}
+		}
+		if (first < 0) {
+			return null;
+		}
+		if (second < 0) {
+			second = end;  // HTTP/0.9 style, no version
+		}
+		String target = new String(request, first + 1, second - first - 1, ISO_8859_1);
+		try {
+			if (target.startsWith("http://") || target.startsWith("https://")) {
+				return new URL(target);  // absolute form, as sent to a proxy
+			}
+			int port = service.getPort();
+			String protocol = service.getProtocol();
+			if ((port == 80 && protocol.equals("http")) || (port == 443 && protocol.equals("https"))) {
+				port = -1;
+			}
+			return new URL(protocol, service.getHost(), port, target);
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+
+	/** True for POST / PUT / PATCH requests with a body, the ones that can upload a file. */
+	static boolean mayCarryUpload(byte[] request) {
+		if (request == null || request.length < 8) {
+			return false;
+		}
+		if (! (startsWith(request, "POST ") || startsWith(request, "PUT ") || startsWith(request, "PATCH "))) {
+			return false;
+		}
+		int body = findBodyOffset(request);
+		return body > 0 && body < request.length;
+	}
+
+	private static boolean startsWith(byte[] message, String prefix) {
+		return message.length >= prefix.length() && regionMatches(message, 0, prefix);
+	}
+
+	private static boolean regionMatches(byte[] message, int pos, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (Character.toLowerCase((char) (message[pos + i] & 0xFF)) != Character.toLowerCase(s.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
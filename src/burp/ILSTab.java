@@ -0,0 +1,54 @@
+package burp;
+
+import java.awt.Component;
+import javax.swing.JTabbedPane;
+import javax.swing.SpinnerNumberModel;
+
+
+/**
+ * The "ILS" suite tab.  Each feature that needs a UI gets its own sub-tab here, so
+ * the extension adds a single entry to Burp's tab bar.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+class ILSTab implements ITab {
+
+	private final JTabbedPane tabs = new JTabbedPane();
+	private final RetroScanPanel retroScanPanel;
+	private final MetricsPanel metricsPanel;
+	private final SettingsPanel settingsPanel;
+
+	/** Must be called on the Swing event thread. */
+	ILSTab(BurpExtender extender) {
+		SpinnerNumberModel workersModel = new SpinnerNumberModel(
+				extender.getPool().getWorkers(), 1, ScanPool.MAX_WORKERS, 1);
+		retroScanPanel = new RetroScanPanel(extender, workersModel);
+		tabs.addTab("Retro-scan", retroScanPanel);
+		metricsPanel = new MetricsPanel(extender);
+		tabs.addTab("Performance", metricsPanel);
+		settingsPanel = new SettingsPanel(extender, workersModel);
+		tabs.addTab("Settings", settingsPanel);
+	}
+
+	/** Stops the timers and any running retro-scan. */
+	void dispose() {
+		retroScanPanel.dispose();
+		metricsPanel.stop();
+	}
+
+	RetroScanPanel getRetroScanPanel() {
+		return retroScanPanel;
+	}
+
+	@Override
+	public String getTabCaption() {
+		return "ILS";
+	}
+
+	@Override
+	public Component getUiComponent() {
+		return tabs;
+	}
+}
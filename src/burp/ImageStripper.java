@@ -0,0 +1,81 @@
+package burp;
+
+import com.veggiespam.imagelocationscanner.ImageFormat;
+import com.veggiespam.imagelocationscanner.ImageSegments;
+import com.veggiespam.imagelocationscanner.MetadataStripper;
+import com.veggiespam.imagelocationscanner.ScanLog;
+
+
+/**
+ * Optional proxy mode that strips the metadata of image responses on their way to the
+ * browser, to show a client what their site gives away and to find out whether the
+ * app relies on Exif (orientation, say).  See MetadataStripper for the two modes.
+ * <p>
+ * Runs on Burp's proxy thread, so it does no more than a magic-byte check, the segment
+ * walk and one splice, microseconds per image.  Only plain bodies with a
+ * Content-Length or none at all are touched; encoded and chunked ones pass unchanged.
+ * Registered after TrafficScanner, which has already taken the original response and
+ * scans and files its evidence from that copy, so with live scanning on the findings
+ * are still reported with the metadata they were found in.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class ImageStripper implements IHttpListener {
+
+	private final BurpExtender extender;
+
+	ImageStripper(BurpExtender extender) {
+		this.extender = extender;
+	}
+
+	@Override
+	public void processHttpMessage(int toolFlag, boolean messageIsRequest, IHttpRequestResponse messageInfo) {
+		ScanSettings settings = extender.getSettings();
+		MetadataStripper.Mode mode = settings.getStripMode();
+		if (messageIsRequest || mode == MetadataStripper.Mode.OFF || toolFlag != IBurpExtenderCallbacks.TOOL_PROXY) {
+			return;
+		}
+		byte[] resp = messageInfo.getResponse();
+		int offset = (resp == null) ? -1 : HttpMessages.findBodyOffset(resp);
+		if (offset < 0 || ImageFormat.detect(resp, offset, resp.length - offset) == ImageFormat.UNKNOWN) {
+			return;
+		}
+		String transfer = HttpMessages.getHeader(resp, offset, "Transfer-Encoding");
+		if (transfer != null && ! transfer.trim().equalsIgnoreCase("identity")) {
+			return;
+		}
+		if (settings.isInScopeOnly() && ! extender.isInScope(messageInfo.getHttpService(), messageInfo.getRequest())) {
+			return;
+		}
+
+		long start = System.nanoTime();
+		int length = resp.length - offset;
+		ImageSegments segments = ImageSegments.locate(resp, offset, length);
+		if (segments.isEmpty() && segments.getFormat() != ImageFormat.TIFF) {
+			return;
+		}
+		byte[] stripped;
+		int removed = 0;
+		int dropped = MetadataStripper.droppedLength(segments);
+		if (mode == MetadataStripper.Mode.DROP_SEGMENTS && dropped > 0) {
+			byte[] head = HttpMessages.withContentLength(resp, offset, length - dropped);
+			stripped = MetadataStripper.drop(resp, offset, length, segments, head);
+			removed = dropped;
+		} else {
+			// the original stays as it was for anyone else holding it; the copy keeps its offsets
+			stripped = resp.clone();
+			if (MetadataStripper.zeroTags(stripped, segments) == 0) {
+				return;
+			}
+		}
+		messageInfo.setResponse(stripped);
+		extender.getMetrics().strippedImages.increment();
+		extender.getMetrics().strippedBytes.add(removed);
+		if (ScanLog.isDebugEnabled()) {
+			ScanLog.debug("strip", "stripped", ScanLog.URL, HttpMessages.getUrl(messageInfo.getHttpService(), messageInfo.getRequest()),
+					"mode", mode.name(), "removed_bytes", removed, "us", (System.nanoTime() - start) / 1000L);
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package burp;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.veggiespam.imagelocationscanner.Finding;
+import com.veggiespam.imagelocationscanner.ImageSegments;
+
+
+/**
+ * Rolls image issues up into one issue per host and finding category, for sites with
+ * thousands of geotagged photos where one issue per URL would flood Burp's issue list,
+ * its memory and its reports.  Each roll-up counts distinct URLs, so rescans of an
+ * image do not inflate it, and keeps the first few URLs and the evidence of the first
+ * MAX_EVIDENCE images only, trimmed to the headers and metadata segments.
+ * <p>
+ * Burp cannot change an issue once it has it, so the roll-up is reported again each
+ * time its count reaches a power of two: 1, 2, 4, 8 and so on, a handful of snapshots
+ * even for 20,000 images.  Scanner-check snapshots of the same roll-up are
+ * consolidated to the newest one (see BurpExtender.consolidateDuplicateIssues).
+ * <p>
+ * The per-URL issues are kept in an index by host, so they can still be reported on
+ * request from the right-click menu.  Their evidence already lives in Burp's temp
+ * files, so an entry costs little more than its detail text.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class IssueAggregator {
+
+	/** Evidence messages kept per roll-up. */
+	static final int MAX_EVIDENCE = 5;
+	/** Example URLs listed per roll-up. */
+	static final int MAX_URLS = 10;
+	/** Per-URL issues kept for later reporting, over all hosts. */
+	static final int MAX_INDEXED = 100000;
+
+	/** Start of the detail of every roll-up, to tell them from per-URL issues. */
+	static final String DETAIL_PREFIX = "<p><b>Aggregated issue.</b> ";
+	/** Right in front of the category in the detail of a roll-up. */
+	private static final String CATEGORY_START = " expose <b>";
+	private static final String CATEGORY_END = "</b>";
+
+	private final ConcurrentMap<String, Aggregate> aggregates = new ConcurrentHashMap<String, Aggregate>();
+	private final ConcurrentMap<String, List<BurpExtender.CustomScanIssue>> index =
+			new ConcurrentHashMap<String, List<BurpExtender.CustomScanIssue>>();
+	private final AtomicInteger indexed = new AtomicInteger();
+	private final IBurpExtenderCallbacks callbacks;
+
+	IssueAggregator(IBurpExtenderCallbacks callbacks) {
+		this.callbacks = callbacks;
+	}
+
+
+	/** One host + category roll-up. */
+	private static final class Aggregate {
+		final String category;
+		final BurpExtender.CustomScanIssue first;
+		int count = 0;
+		/** Every URL counted so far. */
+		final Set<String> seen = new HashSet<String>();
+		final Set<String> urls = new LinkedHashSet<String>();
+		final List<IHttpRequestResponse> evidence = new ArrayList<IHttpRequestResponse>(MAX_EVIDENCE);
+
+		Aggregate(String category, BurpExtender.CustomScanIssue first) {
+			this.category = category;
+			this.first = first;
+		}
+	}
+
+	/** Counts the issue in the roll-ups of its categories, unless its URL was counted
+	 * there before.
+	 *
+	 * @return the roll-ups to report now, usually none
+	 */
+	List<IScanIssue> add(BurpExtender.CustomScanIssue issue) {
+		String host = issue.getHttpService().getHost();
+		String url = String.valueOf(issue.getUrl());
+		boolean fresh = false;
+		IHttpRequestResponse evidence = null;
+
+		Set<String> categories = new LinkedHashSet<String>();
+		for (Finding f : issue.getFindings()) {
+			categories.add(f.getCategory());
+		}
+		List<IScanIssue> due = new ArrayList<IScanIssue>(1);
+		for (String category : categories) {
+			String key = host + '\n' + issue.getIssueName() + '\n' + category;
+			Aggregate a = aggregates.get(key);
+			if (a == null) {
+				Aggregate created = new Aggregate(category, issue);
+				a = aggregates.putIfAbsent(key, created);
+				if (a == null) {
+					a = created;
+				}
+			}
+			synchronized (a) {
+				if (! a.seen.add(url)) {
+					continue;  // a rescan of an image already counted
+				}
+				fresh = true;
+				a.count++;
+				if (a.urls.size() < MAX_URLS) {
+					a.urls.add(url);
+				}
+				IHttpRequestResponse[] msgs = issue.getHttpMessages();
+				if (a.evidence.size() < MAX_EVIDENCE && msgs != null && msgs.length > 0) {
+					if (evidence == null) {
+						evidence = trimmed(msgs[0]);
+					}
+					a.evidence.add(evidence);
+				}
+				if ((a.count & (a.count - 1)) == 0) {
+					due.add(snapshot(a));
+				}
+			}
+		}
+		if (fresh) {
+			addToIndex(host, issue);
+		}
+		return due;
+	}
+
+	/** The evidence of an image response cut down to its headers and metadata segments;
+	 * other evidence (an upload in the request, base64 text) as it is.  Read back from
+	 * Burp's temp files, at most MAX_EVIDENCE times per roll-up. */
+	private IHttpRequestResponse trimmed(IHttpRequestResponse msg) {
+		byte[] resp = msg.getResponse();
+		int offset = (resp == null) ? -1 : HttpMessages.findBodyOffset(resp);
+		if (offset < 0) {
+			return msg;
+		}
+		ImageSegments segments = ImageSegments.locate(resp, offset, resp.length - offset);
+		if (segments.isEmpty()) {
+			return msg;
+		}
+		return IssueEvidence.trimmed(callbacks, msg, offset, segments);
+	}
+
+	/** The per-URL issues of a host, in the order they were found. */
+	List<BurpExtender.CustomScanIssue> getIssues(String host) {
+		List<BurpExtender.CustomScanIssue> list = index.get(host);
+		if (list == null) {
+			return Collections.emptyList();
+		}
+		synchronized (list) {
+			return new ArrayList<BurpExtender.CustomScanIssue>(list);
+		}
+	}
+
+	int getAggregateCount() {
+		return aggregates.size();
+	}
+
+	int getIndexedCount() {
+		return indexed.get();
+	}
+
+	private void addToIndex(String host, BurpExtender.CustomScanIssue issue) {
+		if (indexed.get() >= MAX_INDEXED) {
+			return;  // the roll-ups still count it
+		}
+		List<BurpExtender.CustomScanIssue> list = index.get(host);
+		if (list == null) {
+			List<BurpExtender.CustomScanIssue> fresh = new ArrayList<BurpExtender.CustomScanIssue>();
+			list = index.putIfAbsent(host, fresh);
+			if (list == null) {
+				list = fresh;
+			}
+		}
+		synchronized (list) {
+			list.add(issue);
+		}
+		indexed.incrementAndGet();
+	}
+
+	/** Called with the roll-up locked. */
+	private static IScanIssue snapshot(Aggregate a) {
+		IHttpService service = a.first.getHttpService();
+		URL root;
+		try {
+			int port = service.getPort();
+			if ((port == 443 && "https".equalsIgnoreCase(service.getProtocol()))
+					|| (port == 80 && "http".equalsIgnoreCase(service.getProtocol()))) {
+				port = -1;  // leave the default port out, as Burp shows URLs
+			}
+			root = new URL(service.getProtocol(), service.getHost(), port, "/");
+		} catch (MalformedURLException e) {
+			root = a.first.getUrl();
+		}
+		StringBuilder detail = new StringBuilder(DETAIL_PREFIX);
+		detail.append(a.count).append(a.count == 1 ? " image" : " images").append(" on this host").append(CATEGORY_START)
+				.append(escape(a.category)).append(CATEGORY_END).append(" data so far.  This issue is reported again as the count ")
+				.append("doubles; the individual issues can be reported from the ILS entry of the right-click menu.</p>");
+		detail.append("<p>Examples:</p><ul>");
+		for (String url : a.urls) {
+			detail.append("<li>").append(escape(url)).append("</li>");
+		}
+		detail.append("</ul>");
+		if (a.count > a.urls.size()) {
+			detail.append("<p>and ").append(a.count - a.urls.size()).append(" more.</p>");
+		}
+		detail.append("<p>The first image:</p>").append(a.first.getIssueDetail());
+		List<Finding> findings = new ArrayList<Finding>();
+		for (Finding f : a.first.getFindings()) {
+			if (f.getCategory().equals(a.category)) {
+				findings.add(f);
+			}
+		}
+
+		return new BurpExtender.CustomScanIssue(service, root,
+				a.evidence.toArray(new IHttpRequestResponse[a.evidence.size()]),
+				a.first.getIssueName(), detail.toString(), a.first.getSeverity(), a.first.getConfidence(),
+				a.first.getIssueBackground(), a.first.getRemediationBackground(), a.first.getRemediationDetail(),
+				findings);
+	}
+
+	/** True when both issues are snapshots of one roll-up: every roll-up of a host sits
+	 * on its root URL, so the issue name and the category have to match too.  Burp may
+	 * hand back its own copy of an issue, so the category is read from the detail. */
+	static boolean isSameRollUp(IScanIssue a, IScanIssue b) {
+		String category = categoryOf(a.getIssueDetail());
+		return category != null && category.equals(categoryOf(b.getIssueDetail()))
+				&& a.getIssueName().equals(b.getIssueName()) && a.getUrl().equals(b.getUrl());
+	}
+
+	/** The escaped category of a roll-up detail, or null for any other detail. */
+	private static String categoryOf(String detail) {
+		if (detail == null || ! detail.startsWith(DETAIL_PREFIX)) {
+			return null;
+		}
+		int start = detail.indexOf(CATEGORY_START, DETAIL_PREFIX.length());
+		int end = (start < 0) ? -1 : detail.indexOf(CATEGORY_END, start + CATEGORY_START.length());
+		return (end < 0) ? null : detail.substring(start + CATEGORY_START.length(), end);
+	}
+
+	static String escape(String s) {
+		return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+}
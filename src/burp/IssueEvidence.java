@@ -0,0 +1,150 @@
+package burp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.veggiespam.imagelocationscanner.ImageSegments;
+
+
+/**
+ * Builds the HTTP messages attached to ILS issues.  Issues live as long as the Burp
+ * project, so the messages are moved into Burp's temp files instead of holding the
+ * image bytes on the extension heap, and the metadata segments are highlighted with
+ * response markers so the tester can jump straight to the Exif / IPTC / XMP data.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class IssueEvidence {
+
+	private IssueEvidence() {
+		// static helpers only
+	}
+
+	/** Full request and response, persisted to disk, metadata segments marked.
+	 *
+	 * @param segments segments located in msg.getResponse(), or null for no markers
+	 */
+	static IHttpRequestResponse persist(IBurpExtenderCallbacks callbacks, IHttpRequestResponse msg, ImageSegments segments) {
+		IHttpRequestResponsePersisted saved = callbacks.saveBuffersToTempFiles(msg);
+		if (segments == null || segments.isEmpty()) {
+			return saved;
+		}
+		return callbacks.applyMarkers(saved, null, segments.toMarkers(0));
+	}
+
+	/** Full request and response, persisted to disk, with the given regions marked,
+	 * e.g. an uploaded image in the request or base64 image text in the response.
+	 *
+	 * @param requestMarkers [start, end) offsets in msg.getRequest(), or null
+	 * @param responseMarkers [start, end) offsets in msg.getResponse(), or null
+	 */
+	static IHttpRequestResponse persistMarked(IBurpExtenderCallbacks callbacks, IHttpRequestResponse msg,
+			List<int[]> requestMarkers, List<int[]> responseMarkers) {
+		IHttpRequestResponsePersisted saved = callbacks.saveBuffersToTempFiles(msg);
+		return callbacks.applyMarkers(saved, requestMarkers, responseMarkers);
+	}
+
+	/** Trimmed evidence for issues that collect many messages: the request, the response
+	 * headers and only the metadata segments of the body, persisted to disk and marked.
+	 * A multi-megabyte photo shrinks to a few KB of evidence this way.
+	 *
+	 * @param bodyOffset offset of the body inside msg.getResponse()
+	 * @param segments segments located in msg.getResponse()
+	 */
+	static IHttpRequestResponse trimmed(IBurpExtenderCallbacks callbacks, IHttpRequestResponse msg,
+			int bodyOffset, ImageSegments segments) {
+		return trimmed(callbacks, msg.getHttpService(), msg.getRequest(), msg.getResponse(), bodyOffset, segments);
+	}
+
+	/** Same as above for a message that is not at hand as a whole, e.g. a spilled body
+	 * where response holds only the headers and the start of the image. */
+	static IHttpRequestResponse trimmed(IBurpExtenderCallbacks callbacks, IHttpService service, byte[] request,
+			byte[] response, int bodyOffset, ImageSegments segments) {
+		byte[] cut = new byte[bodyOffset + segments.getMetadataLength()];
+		System.arraycopy(response, 0, cut, 0, bodyOffset);
+
+		List<int[]> markers = new ArrayList<int[]>(segments.size());
+		int pos = bodyOffset;
+		for (int i = 0; i < segments.size(); i++) {
+			int len = segments.getLength(i);
+			System.arraycopy(response, segments.getOffset(i), cut, pos, len);
+			markers.add(new int[] { pos, pos + len });
+			pos += len;
+		}
+
+		IHttpRequestResponsePersisted saved = callbacks.saveBuffersToTempFiles(
+				new EvidenceMessage(service, request, cut));
+		if (markers.isEmpty()) {
+			return saved;
+		}
+		return callbacks.applyMarkers(saved, null, markers);
+	}
+
+
+	/** Minimal message holder, only alive until Burp copies it into its temp files. */
+	static class EvidenceMessage implements IHttpRequestResponse {
+		private IHttpService httpService;
+		private byte[] request;
+		private byte[] response;
+		private String comment;
+		private String highlight;
+
+		EvidenceMessage(IHttpService httpService, byte[] request, byte[] response) {
+			this.httpService = httpService;
+			this.request = request;
+			this.response = response;
+		}
+
+		@Override
+		public byte[] getRequest() {
+			return request;
+		}
+
+		@Override
+		public void setRequest(byte[] message) {
+			request = message;
+		}
+
+		@Override
+		public byte[] getResponse() {
+			return response;
+		}
+
+		@Override
+		public void setResponse(byte[] message) {
+			response = message;
+		}
+
+		@Override
+		public String getComment() {
+			return comment;
+		}
+
+		@Override
+		public void setComment(String comment) {
+			this.comment = comment;
+		}
+
+		@Override
+		public String getHighlight() {
+			return highlight;
+		}
+
+		@Override
+		public void setHighlight(String color) {
+			highlight = color;
+		}
+
+		@Override
+		public IHttpService getHttpService() {
+			return httpService;
+		}
+
+		@Override
+		public void setHttpService(IHttpService httpService) {
+			this.httpService = httpService;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package burp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Fixed-bucket latency histogram.  Buckets are powers of two in microseconds, each
+ * split in four, so percentiles are accurate to about 20% from 1 us up to over an
+ * hour, in a fixed 1 KB per histogram and one atomic add per sample.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class LatencyHistogram {
+
+	private static final int SUB_BUCKETS = 4;
+	private static final int POWERS = 32;
+	private static final int BUCKETS = POWERS * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	void record(long nanos) {
+		counts.incrementAndGet(bucketOf(Math.max(1, nanos / 1000)));
+	}
+
+	long getCount() {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	/** Upper bound, in microseconds, of the bucket holding the given percentile (0-100).
+	 * Returns 0 when nothing was recorded. */
+	long percentileMicros(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return upperBound(i);
+			}
+		}
+		return upperBound(BUCKETS - 1);
+	}
+
+	void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+	}
+
+	private static int bucketOf(long micros) {
+		int power = 63 - Long.numberOfLeadingZeros(micros);  // floor(log2)
+		if (power >= POWERS) {
+			return BUCKETS - 1;
+		}
+		// the two bits below the leading one pick the quarter inside the power
+		int sub = (power >= 2) ? (int) (micros >>> (power - 2)) & 3 : (int) (micros << (2 - power)) & 3;
+		return power * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBound(int bucket) {
+		int power = bucket / SUB_BUCKETS;
+		int sub = bucket % SUB_BUCKETS;
+		return (1L << power) + (((1L << power) * (sub + 1)) / SUB_BUCKETS);
+	}
+}
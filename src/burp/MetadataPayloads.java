@@ -0,0 +1,72 @@
+package burp;
+
+import java.util.List;
+
+import com.veggiespam.imagelocationscanner.ImageVariants;
+import com.veggiespam.imagelocationscanner.ScanLog;
+
+
+/**
+ * Intruder payloads for fuzzing upload endpoints: images of every format with text in
+ * every metadata spot ILS reads (see ImageVariants).  The text pattern and the number
+ * of rounds come from the settings tab; one round is every variant once, and each
+ * payload gets its own counter value, so a served copy tells which payload it was.
+ * <p>
+ * The variants are built once per attack; a payload is a copy of the variant's
+ * template with the counter patched in, so payload generation never holds up an
+ * attack.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class MetadataPayloads implements IIntruderPayloadGeneratorFactory {
+
+	private final ScanSettings settings;
+
+	MetadataPayloads(ScanSettings settings) {
+		this.settings = settings;
+	}
+
+	@Override
+	public String getGeneratorName() {
+		return "Images with metadata (ILS)";
+	}
+
+	@Override
+	public IIntruderPayloadGenerator createNewInstance(IIntruderAttack attack) {
+		String pattern = settings.getIntruderPattern();
+		List<ImageVariants.Variant> variants = ImageVariants.all(pattern);
+		long total = (long) variants.size() * settings.getIntruderRounds();
+		ScanLog.info("intruder", "payloads ready", "variants", variants.size(), "payloads", total, "pattern", pattern);
+		return new Generator(variants, total);
+	}
+
+
+	private static final class Generator implements IIntruderPayloadGenerator {
+		private final ImageVariants.Variant[] variants;
+		private final long total;
+		private long next = 0;
+
+		Generator(List<ImageVariants.Variant> variants, long total) {
+			this.variants = variants.toArray(new ImageVariants.Variant[0]);
+			this.total = total;
+		}
+
+		@Override
+		public synchronized boolean hasMorePayloads() {
+			return next < total;
+		}
+
+		@Override
+		public synchronized byte[] getNextPayload(byte[] baseValue) {
+			long n = next++;
+			return variants[(int) (n % variants.length)].build(n);
+		}
+
+		@Override
+		public synchronized void reset() {
+			next = 0;
+		}
+	}
+}
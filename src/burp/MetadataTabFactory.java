@@ -0,0 +1,260 @@
+package burp;
+
+import java.awt.Component;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import javax.swing.SwingUtilities;
+
+import com.veggiespam.imagelocationscanner.ContentDecoder;
+import com.veggiespam.imagelocationscanner.Finding;
+import com.veggiespam.imagelocationscanner.ILS;
+import com.veggiespam.imagelocationscanner.ImageFormat;
+import com.veggiespam.imagelocationscanner.MultipartParser;
+import com.veggiespam.imagelocationscanner.ScanResult;
+
+
+/**
+ * The "Image metadata" tab of Burp's message editors: ILS's findings and the raw GPS
+ * and serial number tags of the images in a message, so a tester can see why an image
+ * was flagged without re-running anything.  isEnabled() only looks at magic bytes and
+ * the Content-Type, which keeps clicking through the history instant; the parts of an
+ * upload are listed and the image is parsed when the tab is actually shown, on a scan
+ * worker, and the findings come from the result cache whenever the scanner has
+ * already seen the image.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class MetadataTabFactory implements IMessageEditorTabFactory {
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private final BurpExtender extender;
+
+	MetadataTabFactory(BurpExtender extender) {
+		this.extender = extender;
+	}
+
+	@Override
+	public IMessageEditorTab createNewInstance(IMessageEditorController controller, boolean editable) {
+		return new Tab();
+	}
+
+
+	/** One image inside a message. */
+	private static class Image {
+		final String label;
+		final ImageFormat format;
+		final int offset;
+		final int length;
+		/** Content-Encoding of the body, null when plain. */
+		final String encoding;
+
+		Image(String label, ImageFormat format, int offset, int length, String encoding) {
+			this.label = label;
+			this.format = format;
+			this.offset = offset;
+			this.length = length;
+			this.encoding = encoding;
+		}
+	}
+
+	/** For isEnabled(), on the EDT: the body's magic bytes, or for a multipart upload the
+	 * Content-Type and the magic bytes of the first file.  The parts are only listed by
+	 * findImages(), when the tab is shown. */
+	private static boolean hasImage(byte[] content, boolean isRequest) {
+		if (content == null) {
+			return false;
+		}
+		int bodyOffset = HttpMessages.findBodyOffset(content);
+		if (bodyOffset < 0 || bodyOffset == content.length) {
+			return false;
+		}
+		int length = content.length - bodyOffset;
+		if (ImageFormat.detect(content, bodyOffset, length) != ImageFormat.UNKNOWN) {
+			return true;
+		}
+		if (! isRequest) {
+			return BurpExtender.isEncodedImage(content, bodyOffset);
+		}
+		String boundary = MultipartParser.boundaryOf(HttpMessages.getHeader(content, bodyOffset, "Content-Type"));
+		return boundary != null
+				&& MultipartParser.firstFileFormat(content, bodyOffset, content.length, boundary) != ImageFormat.UNKNOWN;
+	}
+
+	/** Finds the images by magic bytes only: the response body, or the uploaded files of a request. */
+	private static List<Image> findImages(byte[] content, boolean isRequest) {
+		List<Image> images = new ArrayList<Image>(1);
+		if (content == null) {
+			return images;
+		}
+		int bodyOffset = HttpMessages.findBodyOffset(content);
+		if (bodyOffset < 0) {
+			return images;
+		}
+		int length = content.length - bodyOffset;
+		if (! isRequest) {
+			ImageFormat format = ImageFormat.detect(content, bodyOffset, length);
+			if (format != ImageFormat.UNKNOWN) {
+				images.add(new Image("Response body", format, bodyOffset, length, null));
+			} else if (BurpExtender.isEncodedImage(content, bodyOffset)) {
+				String encoding = BurpExtender.contentEncoding(content, bodyOffset);
+				format = ContentDecoder.peekFormat(content, bodyOffset, length, encoding);
+				images.add(new Image("Response body, " + encoding + "-encoded", format, bodyOffset, length, encoding));
+			}
+			return images;
+		}
+		String boundary = MultipartParser.boundaryOf(HttpMessages.getHeader(content, bodyOffset, "Content-Type"));
+		List<MultipartParser.Part> parts;
+		if (boundary != null) {
+			parts = MultipartParser.findImageParts(content, bodyOffset, content.length, boundary);
+		} else {
+			parts = new ArrayList<MultipartParser.Part>(1);
+			MultipartParser.Part whole = MultipartParser.wholeBody(content, bodyOffset, content.length);
+			if (whole != null) {
+				parts.add(whole);
+			}
+		}
+		for (MultipartParser.Part p : parts) {
+			String label = (boundary == null) ? "Request body"
+					: "Upload field \"" + p.getName() + "\", file \"" + p.getFilename() + "\"";
+			images.add(new Image(label, p.getFormat(), p.getOffset(), p.getLength(), null));
+		}
+		return images;
+	}
+
+
+	private class Tab implements IMessageEditorTab {
+		private final ITextEditor view;
+		private byte[] message;
+		private boolean isRequest;
+		/** Bumped by every setMessage(), so a slow parse of an old message is not shown. */
+		private volatile int generation = 0;
+		private boolean pending = false;
+
+		Tab() {
+			view = extender.getCallbacks().createTextEditor();
+			view.setEditable(false);
+			view.getComponent().addHierarchyListener(new HierarchyListener() {
+				@Override
+				public void hierarchyChanged(HierarchyEvent e) {
+					if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && view.getComponent().isShowing()) {
+						refresh();
+					}
+				}
+			});
+		}
+
+		@Override
+		public String getTabCaption() {
+			return "Image metadata";
+		}
+
+		@Override
+		public Component getUiComponent() {
+			return view.getComponent();
+		}
+
+		@Override
+		public boolean isEnabled(byte[] content, boolean isRequest) {
+			return hasImage(content, isRequest);
+		}
+
+		@Override
+		public void setMessage(byte[] content, boolean isRequest) {
+			this.message = content;
+			this.isRequest = isRequest;
+			generation++;
+			pending = true;
+			view.setText(new byte[0]);
+			if (view.getComponent().isShowing()) {
+				refresh();
+			}
+		}
+
+		/** Starts the parse of the current message, once, on a scan worker. */
+		private void refresh() {
+			if (! pending || message == null) {
+				return;
+			}
+			pending = false;
+			final int gen = generation;
+			final byte[] content = message;
+			final boolean request = isRequest;
+			view.setText("Reading image metadata...".getBytes(ISO_8859_1));
+			ScanTask task = new ScanTask("", true, 0) {
+				@Override
+				void scan() {
+					final String text = describe(content, request);
+					SwingUtilities.invokeLater(new Runnable() {
+						@Override
+						public void run() {
+							if (gen == generation) {
+								view.setText(text.getBytes(ISO_8859_1));
+							}
+						}
+					});
+				}
+			};
+			try {
+				extender.getPool().execute(task);
+			} catch (RejectedExecutionException e) {
+				// unloading
+			}
+		}
+
+		@Override
+		public byte[] getMessage() {
+			return message;
+		}
+
+		@Override
+		public boolean isModified() {
+			return false;
+		}
+
+		@Override
+		public byte[] getSelectedData() {
+			return view.getSelectedText();
+		}
+	}
+
+	/** The findings and raw tags of every image in content, as plain text. */
+	private String describe(byte[] content, boolean isRequest) {
+		StringBuilder sb = new StringBuilder();
+		for (Image image : findImages(content, isRequest)) {
+			sb.append("== ").append(image.label).append(": ").append(image.format).append(", ")
+					.append(image.length).append(" bytes ==\n\n");
+
+			ScanResult result = extender.inspect(content, image.offset, image.length, image.encoding);
+			sb.append("Findings:\n");
+			if (result.getFindings().isEmpty()) {
+				sb.append("  none\n");
+			}
+			for (Finding f : result.getFindings()) {
+				sb.append("  ").append(f).append('\n');
+			}
+
+			InputStream raw = (image.encoding == null) ? new ByteArrayInputStream(content, image.offset, image.length)
+					: ContentDecoder.untilPayload(content, image.offset, image.length, image.encoding,
+							extender.getSettings().getMaxBodyBytes());
+			List<String> tags = ILS.rawTags(raw);
+			sb.append("\nRaw GPS and serial number tags:\n");
+			if (tags.isEmpty()) {
+				sb.append("  none\n");
+			}
+			for (String t : tags) {
+				sb.append("  ").append(t).append('\n');
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,178 @@
+package burp;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Map;
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.table.DefaultTableModel;
+
+import com.veggiespam.imagelocationscanner.ImageFormat;
+import com.veggiespam.imagelocationscanner.ScanCache;
+
+
+/**
+ * Live view of the {@link ScanMetrics}: throughput, backlog, latency percentiles per
+ * image format and findings per category, and the {@link HostBudget} totals per host.  Refreshed once a second from the Swing
+ * timer, and only while the tab is showing.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+class MetricsPanel extends JPanel {
+
+	private static final long serialVersionUID = 1L;
+	private static final int REFRESH_MILLIS = 1000;
+
+	private final BurpExtender extender;
+	private final DefaultTableModel summary = readOnlyModel(new String[] { "Metric", "Value" });
+	private final DefaultTableModel formats = readOnlyModel(new String[] { "Format", "Scans", "p50 ms", "p95 ms", "p99 ms" });
+	private final DefaultTableModel categories = readOnlyModel(new String[] { "Category", "Findings" });
+	private final DefaultTableModel hosts = readOnlyModel(new String[] { "Host", "Scans", "CPU s", "MB parsed",
+			"CPU this minute s", "Limited" });
+	private final Timer refresh;
+
+	private long lastScans = 0;
+	private long lastNanos = System.nanoTime();
+
+	MetricsPanel(BurpExtender extender) {
+		this.extender = extender;
+		setLayout(new BorderLayout());
+		setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+		JPanel tables = new JPanel(new GridLayout(1, 3, 10, 0));
+		tables.add(new JScrollPane(new JTable(summary)));
+		tables.add(new JScrollPane(new JTable(formats)));
+		tables.add(new JScrollPane(new JTable(categories)));
+		JPanel center = new JPanel(new GridLayout(2, 1, 0, 10));
+		center.add(tables);
+		center.add(new JScrollPane(new JTable(hosts)));
+		add(center, BorderLayout.CENTER);
+
+		JButton reset = new JButton("Reset counters");
+		reset.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				MetricsPanel.this.extender.getMetrics().reset();
+				MetricsPanel.this.extender.getHostBudget().reset();
+				lastScans = 0;
+				update();
+			}
+		});
+		JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		buttons.add(reset);
+		add(buttons, BorderLayout.SOUTH);
+
+		refresh = new Timer(REFRESH_MILLIS, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (isShowing()) {
+					update();
+				}
+			}
+		});
+		refresh.start();
+	}
+
+	void stop() {
+		refresh.stop();
+	}
+
+	private void update() {
+		ScanMetrics m = extender.getMetrics();
+		ScanPool pool = extender.getPool();
+		ScanCache cache = extender.getCache();
+
+		long now = System.nanoTime();
+		long scans = m.scans.get();
+		double rate = (scans - lastScans) / Math.max((now - lastNanos) / 1e9, 0.001);
+		lastScans = scans;
+		lastNanos = now;
+
+		long hits = cache.getHits();
+		long lookups = hits + cache.getMisses();
+
+		summary.setRowCount(0);
+		summary.addRow(new Object[] { "Scans/sec", String.format("%.1f", rate) });
+		summary.addRow(new Object[] { "Scans total", scans });
+		summary.addRow(new Object[] { "Queue depth", pool.getQueueDepth() });
+		summary.addRow(new Object[] { "Busy workers", pool.getActiveCount() + " / " + pool.getWorkers() });
+		summary.addRow(new Object[] { "Queue wait p50 / p95 (ms)", millis(m.queueWait.percentileMicros(50))
+				+ " / " + millis(m.queueWait.percentileMicros(95)) });
+		summary.addRow(new Object[] { "Scan tier now", extender.getOverload().current() });
+		StringBuilder tiers = new StringBuilder();
+		for (OverloadController.Tier t : OverloadController.Tier.values()) {
+			tiers.append(tiers.length() == 0 ? "" : " / ").append(t).append(' ').append(m.getTierCount(t));
+		}
+		summary.addRow(new Object[] { "Scans by tier", tiers.toString() });
+		summary.addRow(new Object[] { "Sampled out", m.sampledOut.get() });
+		summary.addRow(new Object[] { "Skipped, stripped pattern", m.learnedSkips.get() });
+		summary.addRow(new Object[] { "Skipped, out of scope", m.outOfScope.get() });
+		summary.addRow(new Object[] { "Stripped patterns learned", extender.getSkipLearner().getLearned().size() });
+		summary.addRow(new Object[] { "MB parsed", String.format("%.1f", m.bytesParsed.get() / (1024.0 * 1024.0)) });
+		summary.addRow(new Object[] { "Cache hit ratio", lookups == 0 ? "-" : String.format("%.1f%%", 100.0 * hits / lookups) });
+		summary.addRow(new Object[] { "Cache entries", cache.size() });
+		summary.addRow(new Object[] { "Rejected", m.rejected.get() });
+		summary.addRow(new Object[] { "Truncated", m.truncated.get() });
+		summary.addRow(new Object[] { "Dropped (queue full)", m.dropped.get() });
+		summary.addRow(new Object[] { "Images with findings", m.imagesWithFindings.get() });
+		summary.addRow(new Object[] { "Not reported, copy of a reported picture / pictures known", m.copies.get()
+				+ " / " + extender.getVariants().size() });
+		summary.addRow(new Object[] { "Uploads waiting for their served copy", extender.getUploads().size() });
+		summary.addRow(new Object[] { "Proxied images stripped / bytes removed", m.strippedImages.get()
+				+ " / " + m.strippedBytes.get() });
+		summary.addRow(new Object[] { "Canary images uploaded / seen served", extender.getCanaries().size()
+				+ " / " + m.canariesFound.get() });
+		IssueAggregator aggregator = extender.getAggregator();
+		summary.addRow(new Object[] { "Aggregated issues / per-URL kept", aggregator.getAggregateCount()
+				+ " / " + aggregator.getIndexedCount() });
+
+		formats.setRowCount(0);
+		for (ImageFormat f : ImageFormat.values()) {
+			LatencyHistogram h = m.getLatency(f);
+			long count = h.getCount();
+			if (count > 0) {
+				formats.addRow(new Object[] { f, count, millis(h.percentileMicros(50)),
+						millis(h.percentileMicros(95)), millis(h.percentileMicros(99)) });
+			}
+		}
+
+		categories.setRowCount(0);
+		for (Map.Entry<String, Long> e : m.getCategoryCounts().entrySet()) {
+			categories.addRow(new Object[] { e.getKey(), e.getValue() });
+		}
+
+		hosts.setRowCount(0);
+		for (HostBudget.Usage u : extender.getHostBudget().getUsage()) {
+			hosts.addRow(new Object[] { u.host, u.scans.get(), seconds(u.cpuNanos.get()),
+					String.format("%.1f", u.bytes.get() / (1024.0 * 1024.0)), seconds(u.getWindowCpuNanos()), u.limited.get() });
+		}
+	}
+
+	private static String millis(long micros) {
+		return String.format("%.2f", micros / 1000.0);
+	}
+
+	private static String seconds(long nanos) {
+		return String.format("%.2f", nanos / 1e9);
+	}
+
+	private static DefaultTableModel readOnlyModel(String[] columns) {
+		return new DefaultTableModel(columns, 0) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public boolean isCellEditable(int row, int column) {
+				return false;
+			}
+		};
+	}
+}
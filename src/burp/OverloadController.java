@@ -0,0 +1,147 @@
+package burp;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Picks how thorough image scans are, from the scan backlog.  When Burp is spidering
+ * at full speed the queue can outgrow what the workers parse, so scans step down to
+ * cheaper tiers as the queue depth or the recent queue wait rises, and step back up
+ * once they fall.  Stepping down takes one bad reading; stepping up needs the load
+ * to fall half a tier below the threshold, so the tier does not flap.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class OverloadController {
+
+	/** How much of each image is looked at, cheapest last. */
+	enum Tier {
+		/** All metadata readers over the whole body. */
+		FULL("full"),
+		/** Readers over the bytes before the image data only; the cache key skips the pixels too. */
+		HEADER_ONLY("header-only"),
+		/** No parsing, only a check for location-carrying structures; reported as tentative. */
+		DETECT_ONLY("detect-only"),
+		/** Detect-only, and URLs that look like ones already seen are mostly skipped. */
+		SAMPLE("sampled");
+
+		private final String label;
+
+		Tier(String label) {
+			this.label = label;
+		}
+
+		@Override
+		public String toString() {
+			return label;
+		}
+	}
+
+	/** Queued tasks per worker that make one tier step. */
+	static final int DEPTH_PER_TIER = 50;
+	/** Recent queue wait that makes one tier step. */
+	static final long WAIT_PER_TIER_NANOS = 2000L * 1000000L;
+	/** In the SAMPLE tier one in this many duplicate-looking URLs is still checked. */
+	static final int SAMPLE_EVERY = 10;
+	/** The tier is re-evaluated at most this often. */
+	private static final long CHECK_INTERVAL_NANOS = 100L * 1000000L;
+	/** URL templates remembered for sampling before the memory is cleared. */
+	private static final int MAX_TEMPLATES = 10000;
+
+	private final ScanPool pool;
+	private volatile Tier tier = Tier.FULL;
+	private volatile long lastCheck = 0;
+	private final ConcurrentMap<String, AtomicInteger> templates = new ConcurrentHashMap<String, AtomicInteger>();
+
+	OverloadController(ScanPool pool) {
+		this.pool = pool;
+	}
+
+	/** The tier for a scan starting now. */
+	Tier current() {
+		long now = System.nanoTime();
+		if (now - lastCheck > CHECK_INTERVAL_NANOS) {
+			lastCheck = now;
+			tier = evaluate(tier);
+		}
+		return tier;
+	}
+
+	private Tier evaluate(Tier from) {
+		double byDepth = pool.getQueueDepth() / (double) (DEPTH_PER_TIER * pool.getWorkers());
+		double byWait = pool.getRecentQueueWaitNanos() / (double) WAIT_PER_TIER_NANOS;
+		double load = Math.max(byDepth, byWait);
+		int level = Math.min(Tier.values().length - 1, (int) load);
+		if (level < from.ordinal() && load > from.ordinal() - 0.5) {
+			level = from.ordinal();  // not far enough below the threshold yet
+		}
+		return Tier.values()[level];
+	}
+
+	/** In the SAMPLE tier: whether this URL is still worth a look.  The first image of
+	 * each URL template always is, then one in SAMPLE_EVERY. */
+	boolean sample(URL url) {
+		if (url == null) {
+			return true;
+		}
+		if (templates.size() > MAX_TEMPLATES) {
+			templates.clear();
+		}
+		String key = template(url);
+		AtomicInteger seen = templates.get(key);
+		if (seen == null) {
+			AtomicInteger fresh = new AtomicInteger();
+			seen = templates.putIfAbsent(key, fresh);
+			if (seen == null) {
+				seen = fresh;
+			}
+		}
+		return seen.getAndIncrement() % SAMPLE_EVERY == 0;
+	}
+
+	/** host + path with ids blanked: /img/user/1234/a9f3e1.jpg becomes /img/user/#/#.jpg.
+	 * Runs of digits and path segments of mostly hex or base64 characters count as ids. */
+	static String template(URL url) {
+		String path = url.getPath();
+		StringBuilder sb = new StringBuilder(url.getHost().length() + path.length());
+		sb.append(url.getHost());
+		int i = 0;
+		while (i < path.length()) {
+			int end = path.indexOf('/', i + 1);
+			if (end < 0) {
+				end = path.length();
+			}
+			String segment = path.substring(i, end);  // includes the leading '/'
+			int dot = segment.lastIndexOf('.');
+			String stem = (dot > 0) ? segment.substring(1, dot) : segment.substring(1);
+			if (looksLikeId(stem)) {
+				sb.append("/#").append(dot > 0 ? segment.substring(dot) : "");
+			} else {
+				sb.append(segment.replaceAll("[0-9]+", "#"));
+			}
+			i = end;
+		}
+		return sb.toString();
+	}
+
+	private static boolean looksLikeId(String s) {
+		if (s.length() < 8) {
+			return false;
+		}
+		int digits = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (Character.isDigit(c)) {
+				digits++;
+			} else if (! Character.isLetter(c) && c != '-' && c != '_') {
+				return false;
+			}
+		}
+		return digits * 4 >= s.length();  // uuids, hashes and numeric ids, not words
+	}
+}
@@ -0,0 +1,269 @@
+package burp;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.veggiespam.imagelocationscanner.ImageFormat;
+import com.veggiespam.imagelocationscanner.ScanLog;
+
+
+/**
+ * One bulk scan over items Burp already has: the proxy history, a site map branch
+ * or a selection.  Items are streamed into the {@link ScanPool} with a bounded number
+ * in flight, so only a few responses are on the heap at any time no matter how large
+ * the project is.  Non-images are dropped after a look at the magic bytes, before
+ * any header parsing.  Requests that upload a file are scanned as well.  History and
+ * site map scans honour the in-scope-only setting; an explicit selection does not.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class RetroScan implements Runnable {
+
+	/** Responses handed to the workers but not yet scanned, per worker. */
+	private static final int IN_FLIGHT_PER_WORKER = 4;
+
+	private final BurpExtender extender;
+	private final String name;
+	private final String siteMapPrefix;
+	private IHttpRequestResponse[] items;
+	/** Selected items are scanned even when out of scope. */
+	private final boolean selected;
+
+	private volatile Thread runner;
+	private volatile boolean cancelled = false;
+	private volatile boolean done = false;
+	private volatile int total = -1;
+	private volatile long started = 0;
+	private volatile long finished = 0;
+	private final AtomicInteger processed = new AtomicInteger();
+	private final AtomicInteger images = new AtomicInteger();
+	private final AtomicInteger findings = new AtomicInteger();
+	private final AtomicLong bytes = new AtomicLong();
+
+	private RetroScan(BurpExtender extender, String name, IHttpRequestResponse[] items, String siteMapPrefix) {
+		this.extender = extender;
+		this.name = name;
+		this.items = items;
+		this.siteMapPrefix = siteMapPrefix;
+		this.selected = (items != null);
+	}
+
+	static RetroScan forProxyHistory(BurpExtender extender) {
+		return new RetroScan(extender, "proxy history", null, null);
+	}
+
+	/** @param prefix URL prefix as accepted by getSiteMap(); empty for the whole site map */
+	static RetroScan forSiteMap(BurpExtender extender, String prefix) {
+		return new RetroScan(extender, prefix.length() == 0 ? "site map" : prefix, null, prefix);
+	}
+
+	static RetroScan forMessages(BurpExtender extender, IHttpRequestResponse[] items) {
+		return new RetroScan(extender, items.length + " selected items", items, null);
+	}
+
+	/** Runs on its own thread; returns once every dispatched item has been scanned. */
+	@Override
+	public void run() {
+		started = System.nanoTime();
+		runner = Thread.currentThread();
+		IBurpExtenderCallbacks callbacks = extender.getCallbacks();
+		try {
+			if (items == null) {
+				items = (siteMapPrefix == null) ? callbacks.getProxyHistory() : callbacks.getSiteMap(siteMapPrefix);
+			}
+			total = items.length;
+
+			ScanPool pool = extender.getPool();
+			int permits = pool.getWorkers() * IN_FLIGHT_PER_WORKER;
+			Semaphore inFlight = new Semaphore(permits);
+
+			for (int i = 0; i < items.length && !cancelled; i++) {
+				IHttpRequestResponse item = items[i];
+				items[i] = null;  // let finished items be collected while the job runs
+				if (item != null && ! selected && extender.getSettings().isInScopeOnly()
+						&& ! extender.isInScope(item.getHttpService(), item.getRequest())) {
+					extender.getMetrics().outOfScope.increment();
+					processed.incrementAndGet();
+					continue;
+				}
+				byte[] req = (item == null) ? null : item.getRequest();
+				if (! HttpMessages.mayCarryUpload(req)) {
+					req = null;
+				}
+				byte[] resp = (item == null) ? null : item.getResponse();
+				int offset = (resp == null) ? -1 : HttpMessages.findBodyOffset(resp);
+				if (offset >= 0 && ImageFormat.detect(resp, offset, resp.length - offset) == ImageFormat.UNKNOWN
+						&& ! BurpExtender.isEncodedImage(resp, offset)) {
+					offset = -1;
+				}
+				if (req == null && offset < 0) {
+					processed.incrementAndGet();
+					continue;
+				}
+				IHttpService service = item.getHttpService();
+				long cost = (req == null) ? 0 : req.length;
+				if (offset >= 0) {
+					cost += BurpExtender.estimateCost(ImageFormat.detect(resp, offset, resp.length - offset), resp.length - offset);
+				}
+				boolean inScope = extender.isInScope(service, item.getRequest());
+
+				SpilledBody spilled = null;
+				if (offset >= 0) {
+					images.incrementAndGet();
+					spilled = extender.spillIfLarge(resp, offset);
+					if (spilled != null) {
+						bytes.addAndGet(spilled.getLength());
+						resp = null;
+						offset = -1;
+					}
+				}
+				inFlight.acquire();
+				Task task = new Task(service.getHost(), inScope, cost, item, req, resp, offset, spilled, inFlight);
+				try {
+					pool.execute(task);
+				} catch (RejectedExecutionException e) {
+					// pool shut down under us, the extension is unloading
+					extender.getMetrics().rejected.increment();
+					task.discard();
+					cancelled = true;
+				}
+			}
+			inFlight.acquire(permits);  // wait for the stragglers
+			inFlight.release(permits);
+		} catch (InterruptedException e) {
+			cancelled = true;
+			Thread.currentThread().interrupt();
+		} finally {
+			runner = null;
+			items = null;
+			finished = System.nanoTime();
+			done = true;
+		}
+	}
+
+	/** Stops dispatching; scans already handed to a worker are skipped when they start. */
+	void cancel() {
+		cancelled = true;
+		Thread t = runner;
+		if (t != null) {
+			t.interrupt();  // in case it waits for a permit the pool will never release
+		}
+	}
+
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	boolean isDone() {
+		return done;
+	}
+
+	String getName() {
+		return name;
+	}
+
+	/** Number of items in the job, or -1 while Burp is still producing them. */
+	int getTotal() {
+		return total;
+	}
+
+	int getProcessed() {
+		return processed.get();
+	}
+
+	int getImages() {
+		return images.get();
+	}
+
+	int getFindings() {
+		return findings.get();
+	}
+
+	long getBytes() {
+		return bytes.get();
+	}
+
+	/** Seconds since the job started, frozen once it is done. */
+	double getElapsedSeconds() {
+		if (started == 0) {
+			return 0;
+		}
+		long end = done ? finished : System.nanoTime();
+		return (end - started) / 1e9;
+	}
+
+
+	private class Task extends ScanTask {
+		private final IHttpRequestResponse item;
+		private final byte[] req;
+		private final byte[] resp;
+		private final int offset;
+		private final SpilledBody spilled;
+		private final Semaphore inFlight;
+
+		/** @param req the request when it may upload a file, else null
+		 *  @param offset body offset of an image response, else -1
+		 *  @param spilled the image response body when it was spilled, else null */
+		Task(String host, boolean inScope, long cost, IHttpRequestResponse item, byte[] req, byte[] resp, int offset,
+				SpilledBody spilled, Semaphore inFlight) {
+			super(host, inScope, cost);
+			this.item = item;
+			this.req = req;
+			this.resp = resp;
+			this.offset = offset;
+			this.spilled = spilled;
+			this.inFlight = inFlight;
+		}
+
+		/** Dropped by the pool instead of run: release what run() would have. */
+		@Override
+		void discard() {
+			if (spilled != null) {
+				spilled.delete(extender.getTempFiles());
+			}
+			processed.incrementAndGet();
+			inFlight.release();
+		}
+
+		@Override
+		void scan() {
+			try {
+				if (!cancelled && req != null) {
+					for (IScanIssue issue : extender.scanRequest(item, req)) {
+						extender.report(issue);
+						findings.incrementAndGet();
+					}
+				}
+				if (!cancelled && offset >= 0) {
+					bytes.addAndGet(resp.length - offset);
+					IScanIssue issue = extender.scanResponse(item, resp, offset);
+					if (issue != null) {
+						extender.report(issue);
+						findings.incrementAndGet();
+					}
+				}
+				if (!cancelled && spilled != null) {
+					IScanIssue issue = extender.scanSpilled(item.getHttpService(), item.getRequest(), spilled);
+					if (issue != null) {
+						extender.report(issue);
+						findings.incrementAndGet();
+					}
+				}
+			} catch (RuntimeException e) {
+				// one bad item must not stall the whole job, but it is logged
+				ScanLog.warn("scan", "retro-scan item failed", ScanLog.URL,
+						HttpMessages.getUrl(item.getHttpService(), item.getRequest()), "error", e);
+			} finally {
+				if (spilled != null) {
+					spilled.delete(extender.getTempFiles());
+				}
+				processed.incrementAndGet();
+				inFlight.release();
+			}
+		}
+	}
+}
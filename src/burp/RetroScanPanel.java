@@ -0,0 +1,164 @@
+package burp;
+
+import java.awt.FlowLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.BorderFactory;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JSpinner;
+import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+
+/**
+ * Starts retro-scans of the proxy history or site map and shows their progress.
+ * Progress is polled from the job's counters twice a second, so the workers never
+ * touch Swing.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+class RetroScanPanel extends JPanel {
+
+	private static final long serialVersionUID = 1L;
+	private static final int REFRESH_MILLIS = 500;
+
+	private final BurpExtender extender;
+	private final JButton historyButton = new JButton("Scan proxy history");
+	private final JButton siteMapButton = new JButton("Scan site map");
+	private final JTextField prefixField = new JTextField(30);
+	private final JButton cancelButton = new JButton("Cancel");
+	private final JSpinner workersSpinner;
+	private final JProgressBar progress = new JProgressBar();
+	private final JLabel status = new JLabel("Idle");
+	private final Timer refresh;
+
+	/** Only touched on the Swing event thread. */
+	private RetroScan job;
+
+	/** @param workersModel the worker count setting, shared with the Settings tab */
+	RetroScanPanel(BurpExtender extender, SpinnerNumberModel workersModel) {
+		this.extender = extender;
+		workersSpinner = new JSpinner(workersModel);
+
+		setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+		setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+		JPanel sources = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		sources.add(historyButton);
+		sources.add(siteMapButton);
+		sources.add(new JLabel("URL prefix (empty for all):"));
+		sources.add(prefixField);
+		add(sources);
+
+		JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		controls.add(new JLabel("Worker threads:"));
+		controls.add(workersSpinner);
+		controls.add(cancelButton);
+		add(controls);
+
+		progress.setStringPainted(true);
+		JPanel state = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		state.add(progress);
+		state.add(status);
+		add(state);
+
+		cancelButton.setEnabled(false);
+
+		historyButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				start(RetroScan.forProxyHistory(RetroScanPanel.this.extender));
+			}
+		});
+		siteMapButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				start(RetroScan.forSiteMap(RetroScanPanel.this.extender, prefixField.getText().trim()));
+			}
+		});
+		cancelButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (job != null) {
+					job.cancel();
+				}
+			}
+		});
+
+		refresh = new Timer(REFRESH_MILLIS, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				update();
+			}
+		});
+	}
+
+	/** Starts the job unless another one is still running.  Safe to call from any thread. */
+	void start(final RetroScan newJob) {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					start(newJob);
+				}
+			});
+			return;
+		}
+		if (job != null && !job.isDone()) {
+			status.setText("Still scanning " + job.getName() + ", cancel it first");
+			return;
+		}
+		job = newJob;
+		Thread t = new Thread(job, "ILS-retro-scan");
+		t.setDaemon(true);
+		t.start();
+		historyButton.setEnabled(false);
+		siteMapButton.setEnabled(false);
+		cancelButton.setEnabled(true);
+		refresh.start();
+		update();
+	}
+
+	/** Cancels the running job and stops refreshing; the extension is going away. */
+	void dispose() {
+		refresh.stop();
+		if (job != null) {
+			job.cancel();
+		}
+	}
+
+	private void update() {
+		if (job == null) {
+			return;
+		}
+		int total = job.getTotal();
+		int processed = job.getProcessed();
+		double secs = Math.max(job.getElapsedSeconds(), 0.001);
+
+		progress.setIndeterminate(total < 0);
+		if (total >= 0) {
+			progress.setMaximum(Math.max(total, 1));
+			progress.setValue(processed);
+		}
+		String state = job.isDone() ? (job.isCancelled() ? "Cancelled" : "Finished") : "Scanning";
+		status.setText(String.format("%s %s: %d/%s items, %d images, %d findings, %.0f items/s, %.1f MB/s",
+				state, job.getName(), processed, total < 0 ? "?" : String.valueOf(total),
+				job.getImages(), job.getFindings(),
+				processed / secs, job.getBytes() / secs / (1024 * 1024)));
+
+		if (job.isDone()) {
+			refresh.stop();
+			historyButton.setEnabled(true);
+			siteMapButton.setEnabled(true);
+			cancelButton.setEnabled(false);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package burp;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.veggiespam.imagelocationscanner.Finding;
+import com.veggiespam.imagelocationscanner.ImageFormat;
+
+
+/**
+ * Counters behind the Performance tab.  Recording is a couple of uncontended atomic
+ * adds per scan, so it stays on in production; all the summing and percentile work
+ * happens when the dashboard reads the numbers.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class ScanMetrics {
+
+	final StripedCounter scans = new StripedCounter();
+	final StripedCounter bytesParsed = new StripedCounter();
+	final StripedCounter imagesWithFindings = new StripedCounter();
+	/** Bodies refused before parsing, e.g. the pool refused them or they were not an image after all. */
+	final StripedCounter rejected = new StripedCounter();
+	/** Scans that only looked at part of the body. */
+	final StripedCounter truncated = new StripedCounter();
+	/** Live scans not queued because the queue was full. */
+	final StripedCounter dropped = new StripedCounter();
+	/** Images skipped by the SAMPLE tier. */
+	final StripedCounter sampledOut = new StripedCounter();
+	/** Images skipped because their URL pattern was learned to be stripped. */
+	final StripedCounter learnedSkips = new StripedCounter();
+	/** Messages left out because they were out of scope and in-scope-only is set. */
+	final StripedCounter outOfScope = new StripedCounter();
+	/** Images not reported because a copy of the picture with the same findings already was. */
+	final StripedCounter copies = new StripedCounter();
+	/** Canary images of active scans seen served back. */
+	final StripedCounter canariesFound = new StripedCounter();
+	/** Proxied image responses rewritten by ImageStripper, and the bytes they lost. */
+	final StripedCounter strippedImages = new StripedCounter();
+	final StripedCounter strippedBytes = new StripedCounter();
+	/** Images scanned per OverloadController.Tier. */
+	private final StripedCounter[] byTier = new StripedCounter[OverloadController.Tier.values().length];
+	/** Time from queueing to a worker picking the task up. */
+	final LatencyHistogram queueWait = new LatencyHistogram();
+
+	private final LatencyHistogram[] latency = new LatencyHistogram[ImageFormat.values().length];
+	private final ConcurrentMap<String, StripedCounter> categories = new ConcurrentHashMap<String, StripedCounter>();
+
+	ScanMetrics() {
+		for (int i = 0; i < latency.length; i++) {
+			latency[i] = new LatencyHistogram();
+		}
+		for (int i = 0; i < byTier.length; i++) {
+			byTier[i] = new StripedCounter();
+		}
+	}
+
+	void recordTier(OverloadController.Tier tier) {
+		byTier[tier.ordinal()].increment();
+	}
+
+	long getTierCount(OverloadController.Tier tier) {
+		return byTier[tier.ordinal()].get();
+	}
+
+	/** Records one scan that actually ran the metadata readers (cache hits are not scans). */
+	void recordScan(ImageFormat format, long nanos, int bytes) {
+		scans.increment();
+		bytesParsed.add(bytes);
+		latency[format.ordinal()].record(nanos);
+	}
+
+	/** Records the findings reported for one image. */
+	void recordFindings(List<Finding> findings) {
+		if (findings.isEmpty()) {
+			return;
+		}
+		imagesWithFindings.increment();
+		for (Finding f : findings) {
+			String category = f.getCategory();
+			StripedCounter c = categories.get(category);
+			if (c == null) {
+				StripedCounter fresh = new StripedCounter();
+				c = categories.putIfAbsent(category, fresh);
+				if (c == null) {
+					c = fresh;
+				}
+			}
+			c.increment();
+		}
+	}
+
+	LatencyHistogram getLatency(ImageFormat format) {
+		return latency[format.ordinal()];
+	}
+
+	/** Findings per category, sorted by name. */
+	Map<String, Long> getCategoryCounts() {
+		Map<String, Long> counts = new TreeMap<String, Long>();
+		for (Map.Entry<String, StripedCounter> e : categories.entrySet()) {
+			counts.put(e.getKey(), e.getValue().get());
+		}
+		return counts;
+	}
+
+	void reset() {
+		scans.reset();
+		bytesParsed.reset();
+		imagesWithFindings.reset();
+		rejected.reset();
+		truncated.reset();
+		dropped.reset();
+		queueWait.reset();
+		sampledOut.reset();
+		learnedSkips.reset();
+		outOfScope.reset();
+		copies.reset();
+		canariesFound.reset();
+		strippedImages.reset();
+		strippedBytes.reset();
+		for (StripedCounter c : byTier) {
+			c.reset();
+		}
+		for (LatencyHistogram h : latency) {
+			h.reset();
+		}
+		categories.clear();
+	}
+}
@@ -0,0 +1,225 @@
+package burp;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * The worker threads that run image scans off Burp's own threads.  Workers are low
+ * priority daemons so a big scan backlog never makes the Burp UI sluggish, and they
+ * time out when idle so an unused extension holds no threads.
+ * <p>
+ * The queue is ordered by a virtual deadline: the time the task was queued plus a
+ * delay for being out of scope, for its cost (shortest job first) and for the number
+ * of tasks its host already has waiting (fairness between hosts).  Because the
+ * delays are capped and the queue time is part of the key, a task only waits for
+ * work that arrived at most MAX_DELAY later; that is the aging that keeps big,
+ * out-of-scope images from starving.  A host over its CPU budget (see HostBudget)
+ * has its new tasks pushed back by OVER_BUDGET_DELAY on top.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class ScanPool {
+
+	/** Default worker count: leave at least one core to Burp itself. */
+	static final int DEFAULT_WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	static final int MAX_WORKERS = 64;
+
+	private static final long MS = 1000000L;
+	/** Out-of-scope images wait behind everything in scope that arrives in this time. */
+	static final long OUT_OF_SCOPE_DELAY = 2000 * MS;
+	/** Cost delay: one millisecond per this many bytes, up to MAX_COST_DELAY. */
+	static final long BYTES_PER_MS = 64 * 1024;
+	static final long MAX_COST_DELAY = 2000 * MS;
+	/** Fairness delay per task the same host already has queued, up to MAX_HOST_DELAY. */
+	static final long HOST_DELAY = 20 * MS;
+	static final long MAX_HOST_DELAY = 2000 * MS;
+	/** Extra delay for a host that has used up its CPU budget for the minute. */
+	static final long OVER_BUDGET_DELAY = 10000 * MS;
+
+	private final ThreadPoolExecutor executor;
+	private final LatencyHistogram queueWait;
+	private final HostBudget budget;
+	private final ConcurrentMap<String, AtomicInteger> queuedPerHost = new ConcurrentHashMap<String, AtomicInteger>();
+	private final AtomicLong sequence = new AtomicLong();
+	/** Moving average of the queue wait, 1/16 weight per task; racy updates are fine. */
+	private volatile long recentWait = 0;
+
+	/**
+	 * @param queueWait where the time tasks spend queued is recorded
+	 * @param budget per-host CPU use, to push back hosts over budget
+	 */
+	ScanPool(int workers, LatencyHistogram queueWait, HostBudget budget) {
+		workers = clamp(workers);
+		this.queueWait = queueWait;
+		this.budget = budget;
+		executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(64, new DeadlineOrder()), new WorkerFactory());
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/** Queues the task.
+	 *
+	 * @throws RejectedExecutionException once the pool is shut down; the task is not discarded
+	 */
+	void execute(ScanTask task) {
+		schedule(task);
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			unqueued(task);
+			throw e;
+		}
+	}
+
+	/** Computes the task's place in the queue and counts it against its host. */
+	private void schedule(ScanTask task) {
+		long now = System.nanoTime();
+		long delay = task.isInScope() ? 0 : OUT_OF_SCOPE_DELAY;
+		delay += Math.min(MAX_COST_DELAY, task.getCost() / BYTES_PER_MS * MS);
+		delay += Math.min(MAX_HOST_DELAY, hostCounter(task.getHost()).getAndIncrement() * HOST_DELAY);
+		if (budget.peekOverBudget(task.getHost())) {
+			delay += OVER_BUDGET_DELAY;
+		}
+		task.queuedAt = now;
+		task.deadline = now + delay;
+		task.seq = sequence.incrementAndGet();
+		task.queued(this);
+	}
+
+	/** Called by the task when a worker picks it up. */
+	void started(ScanTask task) {
+		unqueued(task);
+		long wait = System.nanoTime() - task.queuedAt;
+		queueWait.record(wait);
+		recentWait += (wait - recentWait) / 16;
+	}
+
+	/** Recent queue wait, in nanoseconds; decays only as tasks are picked up. */
+	long getRecentQueueWaitNanos() {
+		return (getQueueDepth() == 0) ? 0 : recentWait;
+	}
+
+	private void unqueued(ScanTask task) {
+		hostCounter(task.getHost()).decrementAndGet();
+	}
+
+	private AtomicInteger hostCounter(String host) {
+		AtomicInteger c = queuedPerHost.get(host);
+		if (c == null) {
+			AtomicInteger fresh = new AtomicInteger();
+			c = queuedPerHost.putIfAbsent(host, fresh);
+			if (c == null) {
+				c = fresh;
+			}
+		}
+		return c;
+	}
+
+	/** Queues the task unless maxQueued tasks are already waiting.  Never blocks, so it
+	 * is safe to call from Burp's proxy threads; under overload work is dropped instead.
+	 * The bound is approximate when several threads offer at once.
+	 *
+	 * @return false when the task was dropped
+	 */
+	boolean offer(ScanTask task, int maxQueued) {
+		if (executor.getQueue().size() >= maxQueued) {
+			return false;
+		}
+		try {
+			execute(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			return false;  // shutting down
+		}
+	}
+
+	/** Resizes the pool in place; queued work is kept. */
+	synchronized void setWorkers(int workers) {
+		workers = clamp(workers);
+		// The core size may never exceed the maximum, so the order depends on the direction.
+		if (workers > executor.getMaximumPoolSize()) {
+			executor.setMaximumPoolSize(workers);
+			executor.setCorePoolSize(workers);
+		} else {
+			executor.setCorePoolSize(workers);
+			executor.setMaximumPoolSize(workers);
+		}
+	}
+
+	int getWorkers() {
+		return executor.getMaximumPoolSize();
+	}
+
+	int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/** Stops taking work and lets the queued scans finish until the deadline, then
+	 * interrupts whatever is left.  Dropped tasks are discarded.
+	 *
+	 * @return the number of queued scans that were dropped
+	 */
+	int shutdown(long deadlineMillis) {
+		executor.shutdown();
+		try {
+			if (executor.awaitTermination(deadlineMillis, TimeUnit.MILLISECONDS)) {
+				return 0;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		List<Runnable> dropped = executor.shutdownNow();
+		for (Runnable r : dropped) {
+			((ScanTask) r).discard();
+		}
+		return dropped.size();
+	}
+
+	private static int clamp(int workers) {
+		return Math.max(1, Math.min(MAX_WORKERS, workers));
+	}
+
+
+	/** Earliest virtual deadline first, then first come first served. */
+	private static class DeadlineOrder implements Comparator<Runnable> {
+		@Override
+		public int compare(Runnable a, Runnable b) {
+			ScanTask x = (ScanTask) a;
+			ScanTask y = (ScanTask) b;
+			long d = x.deadline - y.deadline;
+			if (d != 0) {
+				return d < 0 ? -1 : 1;
+			}
+			return x.seq < y.seq ? -1 : (x.seq == y.seq ? 0 : 1);
+		}
+	}
+
+
+	private static class WorkerFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "ILS-scan-" + count.incrementAndGet());
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY + 1);
+			return t;
+		}
+	}
+}
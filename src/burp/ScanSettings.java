@@ -0,0 +1,406 @@
+package burp;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.veggiespam.imagelocationscanner.ILS;
+import com.veggiespam.imagelocationscanner.ImageFormat;
+import com.veggiespam.imagelocationscanner.MetadataStripper;
+import com.veggiespam.imagelocationscanner.ScanLog;
+
+
+/**
+ * The extension's tunables, persisted with Burp's extension settings so they survive
+ * a restart.  Setters save immediately and notify the listeners, which apply the new
+ * value to the running pool and cache; nothing needs a reload.  Values are read on
+ * every scan, so they are volatile and the sets are replaced, never modified.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class ScanSettings {
+
+	/** Told about every change, on the thread that made it. */
+	interface Listener {
+		void settingsChanged(ScanSettings settings);
+	}
+
+	static final int DEFAULT_CACHE_CAPACITY = 10000;
+	static final int DEFAULT_MAX_BODY_BYTES = 64 * 1024 * 1024;
+	static final int DEFAULT_SCAN_BUDGET_MILLIS = 2000;
+	static final int DEFAULT_LIVE_QUEUE_CAPACITY = 1000;
+	static final int DEFAULT_SPILL_THRESHOLD_BYTES = 8 * 1024 * 1024;
+	static final int DEFAULT_HOST_CPU_BUDGET_MILLIS = 20000;
+	static final String DEFAULT_INTRUDER_PATTERN = "ILS-{f}-{p}-{n}";
+	static final int DEFAULT_INTRUDER_ROUNDS = 10;
+
+	private static final String PREFIX = "ils.";
+	private static final String WORKERS = "workers";
+	private static final String CACHE_CAPACITY = "cacheCapacity";
+	private static final String MAX_BODY_BYTES = "maxBodyBytes";
+	private static final String SCAN_BUDGET_MILLIS = "scanBudgetMillis";
+	private static final String ENABLED_FORMATS = "enabledFormats";
+	private static final String DISABLED_CATEGORIES = "disabledCategories";
+	private static final String LIVE_SCANNING = "liveScanning";
+	private static final String LIVE_QUEUE_CAPACITY = "liveQueueCapacity";
+	private static final String SPILL_THRESHOLD_BYTES = "spillThresholdBytes";
+	private static final String HOST_CPU_BUDGET_MILLIS = "hostCpuBudgetMillis";
+	private static final String LEARN_SKIPS = "learnSkips";
+	private static final String IN_SCOPE_ONLY = "inScopeOnly";
+	private static final String AGGREGATE_ISSUES = "aggregateIssues";
+	private static final String COLLAPSE_COPIES = "collapseCopies";
+	private static final String LOG_LEVEL = "logLevel";
+	private static final String INTRUDER_PATTERN = "intruderPattern";
+	private static final String INTRUDER_ROUNDS = "intruderRounds";
+	private static final String STRIP_MODE = "stripMode";
+	/** Between the entries of a saved set; category names may contain commas. */
+	private static final String SEP = "\n";
+	/** What older versions used; a saved value without SEP is split on it. */
+	private static final String LEGACY_SEP = ",";
+
+	private final IBurpExtenderCallbacks callbacks;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private volatile int workers = ScanPool.DEFAULT_WORKERS;
+	private volatile int cacheCapacity = DEFAULT_CACHE_CAPACITY;
+	private volatile int maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+	private volatile int scanBudgetMillis = DEFAULT_SCAN_BUDGET_MILLIS;
+	private volatile Set<ImageFormat> enabledFormats = Collections.unmodifiableSet(
+			EnumSet.complementOf(EnumSet.of(ImageFormat.UNKNOWN)));
+	private volatile Set<String> disabledCategories = Collections.emptySet();
+	private volatile boolean liveScanning = false;
+	private volatile int liveQueueCapacity = DEFAULT_LIVE_QUEUE_CAPACITY;
+	private volatile int spillThresholdBytes = DEFAULT_SPILL_THRESHOLD_BYTES;
+	private volatile int hostCpuBudgetMillis = DEFAULT_HOST_CPU_BUDGET_MILLIS;
+	private volatile boolean learnSkips = true;
+	private volatile boolean inScopeOnly = false;
+	private volatile boolean aggregateIssues = false;
+	private volatile boolean collapseCopies = true;
+	private volatile ScanLog.Level logLevel = ScanLog.Level.INFO;
+	private volatile String intruderPattern = DEFAULT_INTRUDER_PATTERN;
+	private volatile int intruderRounds = DEFAULT_INTRUDER_ROUNDS;
+	private volatile MetadataStripper.Mode stripMode = MetadataStripper.Mode.OFF;
+
+	ScanSettings(IBurpExtenderCallbacks callbacks) {
+		this.callbacks = callbacks;
+	}
+
+	/** Reads the saved values; anything missing or unparsable keeps its default. */
+	void load() {
+		workers = loadInt(WORKERS, workers);
+		cacheCapacity = loadInt(CACHE_CAPACITY, cacheCapacity);
+		maxBodyBytes = loadInt(MAX_BODY_BYTES, maxBodyBytes);
+		scanBudgetMillis = loadInt(SCAN_BUDGET_MILLIS, scanBudgetMillis);
+		liveScanning = loadBoolean(LIVE_SCANNING, liveScanning);
+		liveQueueCapacity = loadInt(LIVE_QUEUE_CAPACITY, liveQueueCapacity);
+		spillThresholdBytes = loadInt(SPILL_THRESHOLD_BYTES, spillThresholdBytes);
+		hostCpuBudgetMillis = loadInt(HOST_CPU_BUDGET_MILLIS, hostCpuBudgetMillis);
+		learnSkips = loadBoolean(LEARN_SKIPS, learnSkips);
+		inScopeOnly = loadBoolean(IN_SCOPE_ONLY, inScopeOnly);
+		aggregateIssues = loadBoolean(AGGREGATE_ISSUES, aggregateIssues);
+		collapseCopies = loadBoolean(COLLAPSE_COPIES, collapseCopies);
+		intruderRounds = loadInt(INTRUDER_ROUNDS, intruderRounds);
+		String pattern = callbacks.loadExtensionSetting(PREFIX + INTRUDER_PATTERN);
+		if (pattern != null) {
+			intruderPattern = pattern;
+		}
+		String strip = callbacks.loadExtensionSetting(PREFIX + STRIP_MODE);
+		if (strip != null) {
+			try {
+				stripMode = MetadataStripper.Mode.valueOf(strip.trim());
+			} catch (IllegalArgumentException e) {
+				// keep the default
+			}
+		}
+		String level = callbacks.loadExtensionSetting(PREFIX + LOG_LEVEL);
+		if (level != null) {
+			try {
+				logLevel = ScanLog.Level.valueOf(level.trim());
+			} catch (IllegalArgumentException e) {
+				// keep the default
+			}
+		}
+
+		String formats = callbacks.loadExtensionSetting(PREFIX + ENABLED_FORMATS);
+		if (formats != null) {
+			Set<ImageFormat> set = EnumSet.noneOf(ImageFormat.class);
+			for (String name : split(formats)) {
+				try {
+					set.add(ImageFormat.valueOf(name));
+				} catch (IllegalArgumentException e) {
+					// format from a newer or older version, ignore
+				}
+			}
+			enabledFormats = Collections.unmodifiableSet(set);
+		}
+
+		String categories = callbacks.loadExtensionSetting(PREFIX + DISABLED_CATEGORIES);
+		if (categories != null) {
+			Set<String> set = split(categories);
+			if (! categories.contains(SEP)) {
+				// a comma-separated value cut the categories with commas in them apart
+				for (String c : ILS.findingCategories) {
+					Set<String> pieces = split(c.replace(LEGACY_SEP, SEP));
+					if (pieces.size() > 1 && set.containsAll(pieces)) {
+						set.removeAll(pieces);
+						set.add(c);
+					}
+				}
+			}
+			disabledCategories = Collections.unmodifiableSet(set);
+		}
+	}
+
+	void addListener(Listener l) {
+		listeners.add(l);
+	}
+
+	int getWorkers() {
+		return workers;
+	}
+
+	void setWorkers(int workers) {
+		this.workers = workers;
+		saveInt(WORKERS, workers);
+	}
+
+	int getCacheCapacity() {
+		return cacheCapacity;
+	}
+
+	void setCacheCapacity(int capacity) {
+		cacheCapacity = capacity;
+		saveInt(CACHE_CAPACITY, capacity);
+	}
+
+	/** Bodies larger than this are not parsed. */
+	int getMaxBodyBytes() {
+		return maxBodyBytes;
+	}
+
+	void setMaxBodyBytes(int bytes) {
+		maxBodyBytes = bytes;
+		saveInt(MAX_BODY_BYTES, bytes);
+	}
+
+	/** Time one scan may take before it is cut short; 0 for no limit. */
+	int getScanBudgetMillis() {
+		return scanBudgetMillis;
+	}
+
+	void setScanBudgetMillis(int millis) {
+		scanBudgetMillis = millis;
+		saveInt(SCAN_BUDGET_MILLIS, millis);
+	}
+
+	boolean isFormatEnabled(ImageFormat format) {
+		return enabledFormats.contains(format);
+	}
+
+	void setFormatEnabled(ImageFormat format, boolean enabled) {
+		Set<ImageFormat> set = EnumSet.noneOf(ImageFormat.class);
+		set.addAll(enabledFormats);
+		if (enabled) {
+			set.add(format);
+		} else {
+			set.remove(format);
+		}
+		enabledFormats = Collections.unmodifiableSet(set);
+		save(ENABLED_FORMATS, join(set));
+	}
+
+	/** Categories, as in ILS.findingCategories, that are left out of issues. */
+	Set<String> getDisabledCategories() {
+		return disabledCategories;
+	}
+
+	void setCategoryEnabled(String category, boolean enabled) {
+		Set<String> set = new HashSet<String>(disabledCategories);
+		if (enabled) {
+			set.remove(category);
+		} else {
+			set.add(category);
+		}
+		disabledCategories = Collections.unmodifiableSet(set);
+		save(DISABLED_CATEGORIES, join(set));
+	}
+
+	/** Scan responses as they pass through Burp, not only when the scanner asks. */
+	boolean isLiveScanning() {
+		return liveScanning;
+	}
+
+	void setLiveScanning(boolean enabled) {
+		liveScanning = enabled;
+		saveBoolean(LIVE_SCANNING, enabled);
+	}
+
+	/** Live scans waiting beyond this are dropped instead of queued. */
+	int getLiveQueueCapacity() {
+		return liveQueueCapacity;
+	}
+
+	void setLiveQueueCapacity(int capacity) {
+		liveQueueCapacity = capacity;
+		saveInt(LIVE_QUEUE_CAPACITY, capacity);
+	}
+
+	/** Bodies larger than this wait for their scan in a temp file, not on the heap; 0 for never. */
+	int getSpillThresholdBytes() {
+		return spillThresholdBytes;
+	}
+
+	void setSpillThresholdBytes(int bytes) {
+		spillThresholdBytes = bytes;
+		saveInt(SPILL_THRESHOLD_BYTES, bytes);
+	}
+
+	/** Scan CPU time one host may use per minute before its images are deferred and sampled; 0 for no limit. */
+	int getHostCpuBudgetMillis() {
+		return hostCpuBudgetMillis;
+	}
+
+	void setHostCpuBudgetMillis(int millis) {
+		hostCpuBudgetMillis = millis;
+		saveInt(HOST_CPU_BUDGET_MILLIS, millis);
+	}
+
+	/** Learn URL patterns whose images are always stripped and mostly skip them (SkipLearner). */
+	boolean isLearnSkips() {
+		return learnSkips;
+	}
+
+	void setLearnSkips(boolean enabled) {
+		learnSkips = enabled;
+		saveBoolean(LEARN_SKIPS, enabled);
+	}
+
+	/** Leave out traffic outside Burp's target scope in the passive check, live scanning and history scans. */
+	boolean isInScopeOnly() {
+		return inScopeOnly;
+	}
+
+	void setInScopeOnly(boolean enabled) {
+		inScopeOnly = enabled;
+		saveBoolean(IN_SCOPE_ONLY, enabled);
+	}
+
+	/** Report one issue per host and finding category instead of one per image (IssueAggregator). */
+	boolean isAggregateIssues() {
+		return aggregateIssues;
+	}
+
+	void setAggregateIssues(boolean enabled) {
+		aggregateIssues = enabled;
+		saveBoolean(AGGREGATE_ISSUES, enabled);
+	}
+
+	/** Report a picture once when copies with the same metadata are served under other URLs (VariantIndex). */
+	boolean isCollapseCopies() {
+		return collapseCopies;
+	}
+
+	void setCollapseCopies(boolean enabled) {
+		collapseCopies = enabled;
+		saveBoolean(COLLAPSE_COPIES, enabled);
+	}
+
+	/** Text of the Intruder image payloads; {f}, {p} and {n} are expanded (ImageVariants). */
+	String getIntruderPattern() {
+		return intruderPattern;
+	}
+
+	void setIntruderPattern(String pattern) {
+		intruderPattern = pattern;
+		save(INTRUDER_PATTERN, pattern);
+	}
+
+	/** Times the Intruder payload generator goes through all image variants. */
+	int getIntruderRounds() {
+		return intruderRounds;
+	}
+
+	void setIntruderRounds(int rounds) {
+		intruderRounds = rounds;
+		saveInt(INTRUDER_ROUNDS, rounds);
+	}
+
+	/** How image responses passing through the proxy are stripped (ImageStripper). */
+	MetadataStripper.Mode getStripMode() {
+		return stripMode;
+	}
+
+	void setStripMode(MetadataStripper.Mode mode) {
+		stripMode = mode;
+		save(STRIP_MODE, mode.name());
+	}
+
+	/** Entries below this level are not logged to the extension's output. */
+	ScanLog.Level getLogLevel() {
+		return logLevel;
+	}
+
+	void setLogLevel(ScanLog.Level level) {
+		logLevel = level;
+		save(LOG_LEVEL, level.name());
+	}
+
+
+	private boolean loadBoolean(String name, boolean fallback) {
+		String v = callbacks.loadExtensionSetting(PREFIX + name);
+		return (v == null) ? fallback : Boolean.parseBoolean(v.trim());
+	}
+
+	private void saveBoolean(String name, boolean value) {
+		save(name, String.valueOf(value));
+	}
+
+	private int loadInt(String name, int fallback) {
+		String v = callbacks.loadExtensionSetting(PREFIX + name);
+		if (v == null) {
+			return fallback;
+		}
+		try {
+			return Integer.parseInt(v.trim());
+		} catch (NumberFormatException e) {
+			return fallback;
+		}
+	}
+
+	private void saveInt(String name, int value) {
+		save(name, String.valueOf(value));
+	}
+
+	private void save(String name, String value) {
+		callbacks.saveExtensionSetting(PREFIX + name, value);
+		for (Listener l : listeners) {
+			l.settingsChanged(this);
+		}
+	}
+
+	private static Set<String> split(String s) {
+		Set<String> set = new HashSet<String>();
+		for (String part : s.split(s.contains(SEP) ? SEP : LEGACY_SEP)) {
+			if (part.trim().length() > 0) {
+				set.add(part.trim());
+			}
+		}
+		return set;
+	}
+
+	private static String join(Set<?> set) {
+		StringBuilder sb = new StringBuilder();
+		for (Object o : set) {
+			if (sb.length() > 0) {
+				sb.append(SEP);
+			}
+			sb.append(o);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,67 @@
+package burp;
+
+
+/**
+ * A unit of work for the {@link ScanPool}, carrying what the pool needs to order it:
+ * the host it belongs to, whether it is in scope and a rough cost.  The pool turns
+ * these into a virtual deadline when the task is queued; see ScanPool.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+abstract class ScanTask implements Runnable {
+
+	private final String host;
+	private final boolean inScope;
+	private final long cost;
+
+	/** Set by the pool when the task is queued. */
+	private ScanPool pool;
+	long queuedAt;
+	long deadline;
+	long seq;
+
+	/**
+	 * @param host the host the image came from, for fairness between hosts
+	 * @param inScope whether the URL is in Burp's target scope
+	 * @param cost estimated work, roughly the number of bytes that will be read
+	 */
+	ScanTask(String host, boolean inScope, long cost) {
+		this.host = host;
+		this.inScope = inScope;
+		this.cost = cost;
+	}
+
+	String getHost() {
+		return host;
+	}
+
+	boolean isInScope() {
+		return inScope;
+	}
+
+	long getCost() {
+		return cost;
+	}
+
+	void queued(ScanPool pool) {
+		this.pool = pool;
+	}
+
+	@Override
+	public final void run() {
+		if (pool != null) {
+			pool.started(this);
+		}
+		scan();
+	}
+
+	/** Does the actual work on a pool thread. */
+	abstract void scan();
+
+	/** Called instead of scan() when the pool drops the task, e.g. to delete a spill file. */
+	void discard() {
+		// nothing to clean up by default
+	}
+}
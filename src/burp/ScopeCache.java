@@ -0,0 +1,80 @@
+package burp;
+
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Burp's scope decisions, remembered per origin and directory.  callbacks.isInScope()
+ * runs the whole include / exclude rule list each time, which adds up when every
+ * response through the proxy is checked; here the answer for
+ * https://host:443/img/a/ is looked up once and then served from a hash map.  The map
+ * is emptied whenever the scope changes, and a scope change also bumps a generation
+ * counter, so a decision made under the old scope is never kept after the clear.
+ * <p>
+ * Scope rules that treat two files of the same directory differently are honoured
+ * only for whichever file was seen first; Burp's own rules are by host and path prefix
+ * in practice, so that trade is made for speed.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class ScopeCache implements IScopeChangeListener {
+
+	/** Directories remembered before the map is cleared. */
+	static final int MAX_ENTRIES = 20000;
+
+	private final IBurpExtenderCallbacks callbacks;
+	private final ConcurrentMap<String, Boolean> decisions = new ConcurrentHashMap<String, Boolean>();
+	/** Bumped by every scope change. */
+	private final AtomicInteger generation = new AtomicInteger();
+
+	ScopeCache(IBurpExtenderCallbacks callbacks) {
+		this.callbacks = callbacks;
+	}
+
+	/** Same answer as callbacks.isInScope(url), from the map when this directory was asked about before. */
+	boolean isInScope(URL url) {
+		String key = key(url);
+		Boolean inScope = decisions.get(key);
+		if (inScope == null) {
+			int gen = generation.get();
+			inScope = Boolean.valueOf(callbacks.isInScope(url));
+			if (generation.get() != gen) {
+				return inScope.booleanValue();  // the scope changed meanwhile; the answer may be stale
+			}
+			if (decisions.size() >= MAX_ENTRIES) {
+				decisions.clear();
+			}
+			decisions.put(key, inScope);
+			if (generation.get() != gen) {
+				decisions.remove(key, inScope);  // changed between the check and the put
+			}
+		}
+		return inScope.booleanValue();
+	}
+
+	@Override
+	public void scopeChanged() {
+		generation.incrementAndGet();
+		decisions.clear();
+	}
+
+	int size() {
+		return decisions.size();
+	}
+
+	/** protocol://host:port/path/up/to/the/last/slash/, with the default port filled in. */
+	static String key(URL url) {
+		String path = url.getPath();
+		int slash = path.lastIndexOf('/');
+		int port = (url.getPort() < 0) ? url.getDefaultPort() : url.getPort();
+		StringBuilder sb = new StringBuilder(64);
+		sb.append(url.getProtocol().toLowerCase()).append("://").append(url.getHost().toLowerCase()).append(':').append(port);
+		sb.append(slash < 0 ? "/" : path.substring(0, slash + 1));
+		return sb.toString();
+	}
+}
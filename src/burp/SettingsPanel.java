@@ -0,0 +1,272 @@
+package burp;
+
+import java.awt.FlowLayout;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.awt.GridLayout;
+import java.awt.Insets;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.ItemEvent;
+import java.awt.event.ItemListener;
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.JTextField;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+import com.veggiespam.imagelocationscanner.ILS;
+import com.veggiespam.imagelocationscanner.ImageFormat;
+import com.veggiespam.imagelocationscanner.MetadataStripper;
+import com.veggiespam.imagelocationscanner.ScanLog;
+
+
+/**
+ * Editor for the {@link ScanSettings}.  Every control writes through on change, so
+ * there is no Apply button and the running scans pick the value up right away.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+class SettingsPanel extends JPanel {
+
+	private static final long serialVersionUID = 1L;
+	private static final int MB = 1024 * 1024;
+
+	private final ScanSettings settings;
+	private final JPanel form = new JPanel(new GridBagLayout());
+	private int row = 0;
+
+	/** @param workersModel shared with the Retro-scan tab so both show the same value */
+	SettingsPanel(final BurpExtender extender, final SpinnerNumberModel workersModel) {
+		this.settings = extender.getSettings();
+		setLayout(new FlowLayout(FlowLayout.LEFT));
+		setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+		add(form);
+
+		workersModel.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				settings.setWorkers(workersModel.getNumber().intValue());
+			}
+		});
+		addRow("Worker threads:", new JSpinner(workersModel));
+
+		final SpinnerNumberModel cacheModel = new SpinnerNumberModel(settings.getCacheCapacity(), 1, 10000000, 1000);
+		cacheModel.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				settings.setCacheCapacity(cacheModel.getNumber().intValue());
+			}
+		});
+		addRow("Result cache entries:", new JSpinner(cacheModel));
+
+		final SpinnerNumberModel bodyModel = new SpinnerNumberModel(Math.max(1, settings.getMaxBodyBytes() / MB), 1, 2047, 1);
+		bodyModel.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				settings.setMaxBodyBytes(bodyModel.getNumber().intValue() * MB);
+			}
+		});
+		addRow("Max body size (MB):", new JSpinner(bodyModel));
+
+		final SpinnerNumberModel budgetModel = new SpinnerNumberModel(settings.getScanBudgetMillis(), 0, 600000, 100);
+		budgetModel.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				settings.setScanBudgetMillis(budgetModel.getNumber().intValue());
+			}
+		});
+		addRow("Time budget per scan (ms, 0 = none):", new JSpinner(budgetModel));
+
+		final SpinnerNumberModel hostBudgetModel = new SpinnerNumberModel(settings.getHostCpuBudgetMillis(), 0, 60000, 1000);
+		hostBudgetModel.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				settings.setHostCpuBudgetMillis(hostBudgetModel.getNumber().intValue());
+			}
+		});
+		addRow("CPU budget per host (ms per minute, 0 = none):", new JSpinner(hostBudgetModel));
+
+		final SpinnerNumberModel spillModel = new SpinnerNumberModel(settings.getSpillThresholdBytes() / MB, 0, 2047, 1);
+		spillModel.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				settings.setSpillThresholdBytes(spillModel.getNumber().intValue() * MB);
+			}
+		});
+		addRow("Spill retro-scan bodies to disk above (MB, 0 = never):", new JSpinner(spillModel));
+
+		final JCheckBox live = new JCheckBox("Scan responses as they pass through Burp", settings.isLiveScanning());
+		live.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				settings.setLiveScanning(live.isSelected());
+			}
+		});
+		addRow("Live scanning:", live);
+
+		final SpinnerNumberModel queueModel = new SpinnerNumberModel(settings.getLiveQueueCapacity(), 1, 1000000, 100);
+		queueModel.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				settings.setLiveQueueCapacity(queueModel.getNumber().intValue());
+			}
+		});
+		addRow("Live queue limit (drop beyond):", new JSpinner(queueModel));
+
+		final JCheckBox scopeOnly = new JCheckBox("Only scan URLs in Burp's target scope", settings.isInScopeOnly());
+		scopeOnly.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				settings.setInScopeOnly(scopeOnly.isSelected());
+			}
+		});
+		addRow("Scope:", scopeOnly);
+
+		final JCheckBox aggregate = new JCheckBox("One issue per host and category, individual issues on request",
+				settings.isAggregateIssues());
+		aggregate.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				settings.setAggregateIssues(aggregate.isSelected());
+			}
+		});
+		addRow("Issues:", aggregate);
+
+		final JCheckBox copies = new JCheckBox("Report copies of a picture with the same metadata once, under its first URL",
+				settings.isCollapseCopies());
+		copies.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				settings.setCollapseCopies(copies.isSelected());
+			}
+		});
+		addRow("Copies:", copies);
+
+		JPanel learning = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+		final JCheckBox learn = new JCheckBox("Mostly skip URL patterns whose images never have findings", settings.isLearnSkips());
+		learn.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				settings.setLearnSkips(learn.isSelected());
+			}
+		});
+		JButton forget = new JButton("Forget learned patterns");
+		forget.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				extender.getSkipLearner().clear();
+			}
+		});
+		learning.add(learn);
+		learning.add(forget);
+		addRow("Stripped paths:", learning);
+
+		final JComboBox<MetadataStripper.Mode> strip = new JComboBox<MetadataStripper.Mode>(MetadataStripper.Mode.values());
+		strip.setSelectedItem(settings.getStripMode());
+		strip.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				if (e.getStateChange() == ItemEvent.SELECTED) {
+					settings.setStripMode((MetadataStripper.Mode) strip.getSelectedItem());
+				}
+			}
+		});
+		addRow("Strip images passing through the proxy:", strip);
+
+		JPanel intruder = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+		final JTextField pattern = new JTextField(settings.getIntruderPattern(), 20);
+		pattern.getDocument().addDocumentListener(new DocumentListener() {
+			@Override
+			public void insertUpdate(DocumentEvent e) {
+				settings.setIntruderPattern(pattern.getText());
+			}
+
+			@Override
+			public void removeUpdate(DocumentEvent e) {
+				settings.setIntruderPattern(pattern.getText());
+			}
+
+			@Override
+			public void changedUpdate(DocumentEvent e) {
+				settings.setIntruderPattern(pattern.getText());
+			}
+		});
+		final SpinnerNumberModel roundsModel = new SpinnerNumberModel(settings.getIntruderRounds(), 1, 1000000, 10);
+		roundsModel.addChangeListener(new ChangeListener() {
+			@Override
+			public void stateChanged(ChangeEvent e) {
+				settings.setIntruderRounds(roundsModel.getNumber().intValue());
+			}
+		});
+		intruder.add(new JLabel("Text ({f} format, {p} placement, {n} counter):"));
+		intruder.add(pattern);
+		intruder.add(new JLabel("Rounds:"));
+		intruder.add(new JSpinner(roundsModel));
+		addRow("Intruder image payloads:", intruder);
+
+		final JComboBox<ScanLog.Level> logLevel = new JComboBox<ScanLog.Level>(ScanLog.Level.values());
+		logLevel.setSelectedItem(settings.getLogLevel());
+		logLevel.addItemListener(new ItemListener() {
+			@Override
+			public void itemStateChanged(ItemEvent e) {
+				if (e.getStateChange() == ItemEvent.SELECTED) {
+					settings.setLogLevel((ScanLog.Level) logLevel.getSelectedItem());
+				}
+			}
+		});
+		addRow("Log level (Extender output):", logLevel);
+
+		JPanel formats = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+		for (final ImageFormat f : ImageFormat.values()) {
+			if (f == ImageFormat.UNKNOWN) {
+				continue;
+			}
+			final JCheckBox box = new JCheckBox(f.name(), settings.isFormatEnabled(f));
+			box.addItemListener(new ItemListener() {
+				@Override
+				public void itemStateChanged(ItemEvent e) {
+					settings.setFormatEnabled(f, box.isSelected());
+				}
+			});
+			formats.add(box);
+		}
+		addRow("Scan formats:", formats);
+
+		JPanel categories = new JPanel(new GridLayout(0, 3));
+		for (final String c : ILS.findingCategories) {
+			final JCheckBox box = new JCheckBox(c, ! settings.getDisabledCategories().contains(c));
+			box.addItemListener(new ItemListener() {
+				@Override
+				public void itemStateChanged(ItemEvent e) {
+					settings.setCategoryEnabled(c, box.isSelected());
+				}
+			});
+			categories.add(box);
+		}
+		addRow("Report categories:", categories);
+	}
+
+	/** Adds a label / control line to the form; later features add their own rows. */
+	void addRow(String label, JComponent control) {
+		GridBagConstraints c = new GridBagConstraints();
+		c.gridy = row++;
+		c.insets = new Insets(3, 3, 3, 10);
+		c.anchor = GridBagConstraints.NORTHWEST;
+		c.gridx = 0;
+		form.add(new JLabel(label), c);
+		c.gridx = 1;
+		form.add(control, c);
+	}
+}
@@ -0,0 +1,224 @@
+package burp;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Learns which URL patterns only ever serve stripped images.  Many sites push every
+ * image through a resizer under paths like /thumbs/ or /cdn-cgi/image/, and scanning
+ * those is wasted work.  Images are counted per bucket, the host and path with ids
+ * blanked (OverloadController.template) plus the names of the query parameters; once
+ * a bucket has MIN_OBSERVATIONS images and not one finding, only one image in
+ * PROBE_EVERY is still scanned.  A finding in a probe puts the bucket back to full
+ * scanning for good.  Only complete parses count: a detect-only or sampled check, or a
+ * scan cut short by the time budget, says nothing about what a bucket serves, and the
+ * findings are counted before the category filter of the settings.
+ * <p>
+ * Each bucket is a single AtomicLong holding three saturating counters, updated
+ * without locks.  The table is saved with the result cache and reloaded next session.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class SkipLearner {
+
+	/** Clean images a bucket needs before it is skipped. */
+	static final int MIN_OBSERVATIONS = 50;
+	/** In a learned bucket one image in this many is scanned anyway. */
+	static final int PROBE_EVERY = 20;
+	/** Buckets kept; beyond this the ones still learning are dropped. */
+	static final int MAX_BUCKETS = 50000;
+
+	/** "ILSK", the start of a saved table. */
+	private static final int FILE_MAGIC = 0x494C534B;
+	private static final int FILE_VERSION = 1;
+
+	// Layout of a bucket: observations in bits 0-23, findings in 24-39, skips in 40-63.
+	private static final long OBS_MAX = (1L << 24) - 1;
+	private static final int FINDINGS_SHIFT = 24;
+	private static final long FINDINGS_MAX = (1L << 16) - 1;
+	private static final int SKIPS_SHIFT = 40;
+	private static final long SKIPS_MAX = (1L << 24) - 1;
+
+	private final ScanSettings settings;
+	private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<String, AtomicLong>();
+
+	SkipLearner(ScanSettings settings) {
+		this.settings = settings;
+	}
+
+	/** True when the image at url can be left out: its bucket is learned and this is not a probe. */
+	boolean shouldSkip(URL url) {
+		if (url == null || ! settings.isLearnSkips()) {
+			return false;
+		}
+		AtomicLong b = buckets.get(bucket(url));
+		if (b == null) {
+			return false;
+		}
+		while (true) {
+			long v = b.get();
+			if (! isLearned(v)) {
+				return false;
+			}
+			long skips = (skips(v) + 1) % PROBE_EVERY;
+			if (b.compareAndSet(v, (v & ~(SKIPS_MAX << SKIPS_SHIFT)) | (skips << SKIPS_SHIFT))) {
+				return skips != 0;
+			}
+		}
+	}
+
+	/** Counts one scanned image of url and whether it had findings. */
+	void observe(URL url, boolean found) {
+		if (url == null || ! settings.isLearnSkips()) {
+			return;
+		}
+		AtomicLong b = bucketFor(bucket(url));
+		while (true) {
+			long v = b.get();
+			long obs = Math.min(OBS_MAX, observations(v) + 1);
+			long findings = Math.min(FINDINGS_MAX, findings(v) + (found ? 1 : 0));
+			if (b.compareAndSet(v, pack(obs, findings, skips(v)))) {
+				return;
+			}
+		}
+	}
+
+	/** Buckets currently skipped, for the dashboard. */
+	List<String> getLearned() {
+		List<String> learned = new ArrayList<String>();
+		for (Map.Entry<String, AtomicLong> e : buckets.entrySet()) {
+			if (isLearned(e.getValue().get())) {
+				learned.add(e.getKey());
+			}
+		}
+		Collections.sort(learned);
+		return learned;
+	}
+
+	void clear() {
+		buckets.clear();
+	}
+
+	/** Writes the observation and finding counts of every bucket. */
+	void save(DataOutputStream out) throws IOException {
+		List<Map.Entry<String, AtomicLong>> entries = new ArrayList<Map.Entry<String, AtomicLong>>(buckets.entrySet());
+		out.writeInt(FILE_MAGIC);
+		out.writeInt(FILE_VERSION);
+		out.writeInt(entries.size());
+		for (Map.Entry<String, AtomicLong> e : entries) {
+			long v = e.getValue().get();
+			out.writeUTF(e.getKey());
+			out.writeInt((int) observations(v));
+			out.writeInt((int) findings(v));
+		}
+	}
+
+	/** Merges a saved table into this one.
+	 *
+	 * @return the number of buckets read, 0 if the file is not a table of this version
+	 */
+	int load(DataInputStream in) throws IOException {
+		if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+			return 0;
+		}
+		int n = in.readInt();
+		for (int i = 0; i < n; i++) {
+			String key = in.readUTF();
+			long obs = in.readInt() & OBS_MAX;
+			long findings = in.readInt() & FINDINGS_MAX;
+			AtomicLong b = bucketFor(key);
+			while (true) {
+				long v = b.get();
+				long merged = pack(Math.min(OBS_MAX, observations(v) + obs),
+						Math.min(FINDINGS_MAX, findings(v) + findings), skips(v));
+				if (b.compareAndSet(v, merged)) {
+					break;
+				}
+			}
+		}
+		return n;
+	}
+
+	/** Host and templated path, then the sorted names of the query parameters:
+	 * /thumbs/1234.jpg?w=200 becomes host/thumbs/#.jpg?w. */
+	static String bucket(URL url) {
+		String template = OverloadController.template(url);
+		String query = url.getQuery();
+		if (query == null || query.length() == 0) {
+			return template;
+		}
+		List<String> names = new ArrayList<String>();
+		for (String param : query.split("&")) {
+			int eq = param.indexOf('=');
+			names.add(eq < 0 ? param : param.substring(0, eq));
+		}
+		Collections.sort(names);
+		StringBuilder sb = new StringBuilder(template).append('?');
+		for (int i = 0; i < names.size(); i++) {
+			sb.append(i == 0 ? "" : "&").append(names.get(i));
+		}
+		return sb.toString();
+	}
+
+	private AtomicLong bucketFor(String key) {
+		AtomicLong b = buckets.get(key);
+		if (b == null) {
+			if (buckets.size() >= MAX_BUCKETS) {
+				prune();
+			}
+			AtomicLong fresh = new AtomicLong();
+			b = buckets.putIfAbsent(key, fresh);
+			if (b == null) {
+				b = fresh;
+			}
+		}
+		return b;
+	}
+
+	/** Drops the buckets that are still learning, or everything if that is not enough. */
+	private void prune() {
+		Iterator<AtomicLong> it = buckets.values().iterator();
+		while (it.hasNext()) {
+			long v = it.next().get();
+			if (observations(v) < MIN_OBSERVATIONS && findings(v) == 0) {
+				it.remove();
+			}
+		}
+		if (buckets.size() >= MAX_BUCKETS) {
+			buckets.clear();
+		}
+	}
+
+	private static boolean isLearned(long v) {
+		return observations(v) >= MIN_OBSERVATIONS && findings(v) == 0;
+	}
+
+	private static long observations(long v) {
+		return v & OBS_MAX;
+	}
+
+	private static long findings(long v) {
+		return (v >>> FINDINGS_SHIFT) & FINDINGS_MAX;
+	}
+
+	private static long skips(long v) {
+		return (v >>> SKIPS_SHIFT) & SKIPS_MAX;
+	}
+
+	private static long pack(long obs, long findings, long skips) {
+		return obs | (findings << FINDINGS_SHIFT) | (skips << SKIPS_SHIFT);
+	}
+}
@@ -0,0 +1,84 @@
+package burp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+
+/**
+ * A response body too large to keep on the heap while it is scanned.  The body is
+ * written to a private temp file, so the scan holds a file name and the response
+ * headers instead of the byte array, and reads only the regions the metadata readers
+ * ask for.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class SpilledBody {
+
+	private final File file;
+	private final int length;
+	private final byte[] headers;
+
+	private SpilledBody(File file, int length, byte[] headers) {
+		this.file = file;
+		this.length = length;
+		this.headers = headers;
+	}
+
+	/** Writes resp[bodyOffset..] to a new file registered with tempFiles. */
+	static SpilledBody spill(TempFiles tempFiles, byte[] resp, int bodyOffset) throws IOException {
+		File f = tempFiles.create("ils-body-", ".bin");
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(f);
+			FileChannel ch = out.getChannel();
+			ByteBuffer src = ByteBuffer.wrap(resp, bodyOffset, resp.length - bodyOffset);
+			while (src.hasRemaining()) {
+				ch.write(src);
+			}
+			out.close();
+			out = null;
+		} catch (IOException e) {
+			tempFiles.delete(f);
+			throw e;
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					// no op.
+				}
+			}
+		}
+		return new SpilledBody(f, resp.length - bodyOffset, Arrays.copyOf(resp, bodyOffset));
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/** Size of the body in bytes. */
+	int getLength() {
+		return length;
+	}
+
+	/** The response headers including the blank line, i.e. the response up to the body. */
+	byte[] getHeaders() {
+		return headers;
+	}
+
+	/** Opens the body for positional reads; closing the channel closes the file. */
+	FileChannel open() throws IOException {
+		return new RandomAccessFile(file, "r").getChannel();
+	}
+
+	void delete(TempFiles tempFiles) {
+		tempFiles.delete(file);
+	}
+}
@@ -0,0 +1,56 @@
+package burp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * A counter that many scan threads can bump without fighting over one cache line.
+ * Each thread adds into the stripe picked by its id; the stripes are spaced a cache
+ * line apart and only summed when the dashboard reads the value.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class StripedCounter {
+
+	/** 8 longs = 64 bytes, one cache line on the usual hardware. */
+	private static final int PAD = 8;
+	private static final int STRIPES = stripeCount();
+
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+	void increment() {
+		add(1);
+	}
+
+	void add(long delta) {
+		int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+		cells.addAndGet(stripe * PAD, delta);
+	}
+
+	/** Sum of all stripes; not atomic with respect to concurrent adds, which is fine for display. */
+	long get() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.get(i * PAD);
+		}
+		return sum;
+	}
+
+	void reset() {
+		for (int i = 0; i < STRIPES; i++) {
+			cells.set(i * PAD, 0);
+		}
+	}
+
+	/** Power of two at least twice the core count, so the stripe is a mask away. */
+	private static int stripeCount() {
+		int n = 1;
+		int want = 2 * Runtime.getRuntime().availableProcessors();
+		while (n < want) {
+			n <<= 1;
+		}
+		return n;
+	}
+}
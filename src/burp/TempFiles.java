@@ -0,0 +1,60 @@
+package burp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+
+/**
+ * Files the extension writes outside of Burp's own temp storage.  Every file is
+ * registered here when it is created, so whatever is still around when the extension
+ * unloads gets removed instead of piling up across Burp sessions.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class TempFiles {
+
+	private final Set<File> files = Collections.synchronizedSet(new HashSet<File>());
+
+	/** Creates an empty file in the system temp directory. */
+	File create(String prefix, String suffix) throws IOException {
+		return register(File.createTempFile(prefix, suffix));
+	}
+
+	/** Tracks a file created elsewhere, e.g. next to the file it will replace. */
+	File register(File f) {
+		files.add(f);
+		return f;
+	}
+
+	/** Deletes the file now, e.g. once a scan is done with it. */
+	void delete(File f) {
+		files.remove(f);
+		f.delete();
+	}
+
+	/** Stops tracking a file that is meant to outlive the extension. */
+	void keep(File f) {
+		files.remove(f);
+	}
+
+	/** Deletes everything still registered; returns how many files were removed. */
+	int deleteAll() {
+		File[] all;
+		synchronized (files) {
+			all = files.toArray(new File[files.size()]);
+			files.clear();
+		}
+		int deleted = 0;
+		for (File f : all) {
+			if (f.delete()) {
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+}
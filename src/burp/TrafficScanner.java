@@ -0,0 +1,118 @@
+package burp;
+
+import com.veggiespam.imagelocationscanner.ImageFormat;
+import com.veggiespam.imagelocationscanner.ScanLog;
+
+
+/**
+ * Optional live mode: picks image responses off Burp's HTTP traffic as they arrive,
+ * so ILS works without the passive scanner (e.g. in Burp Free) and sees every image,
+ * not just what the scanner schedules.  Uploads are picked up from the request of the
+ * same message.  The listener only does a method / magic-byte check and a
+ * non-blocking offer to the scan pool, after the cached scope check when only
+ * in-scope traffic is wanted; when the queue is full the image is dropped
+ * and counted rather than slowing the proxy down.  The message holds the response
+ * anyway, so the worker scans the array as it is; unlike retro-scans, live scans never
+ * spill to disk, which would only add I/O without freeing any heap.
+ * <p>
+ * The response is taken here, before ImageStripper (registered after this listener)
+ * rewrites it, and the worker scans and files its evidence from that original copy:
+ * the message itself may hold the stripped image by then.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class TrafficScanner implements IHttpListener {
+
+	private final BurpExtender extender;
+
+	TrafficScanner(BurpExtender extender) {
+		this.extender = extender;
+	}
+
+	@Override
+	public void processHttpMessage(int toolFlag, boolean messageIsRequest, IHttpRequestResponse messageInfo) {
+		ScanSettings settings = extender.getSettings();
+		if (messageIsRequest || ! settings.isLiveScanning()) {
+			return;
+		}
+		// Scanner traffic is attack payloads, Extender traffic is our own or another extension's.
+		if (toolFlag == IBurpExtenderCallbacks.TOOL_SCANNER || toolFlag == IBurpExtenderCallbacks.TOOL_EXTENDER) {
+			return;
+		}
+		IHttpService service = messageInfo.getHttpService();
+		boolean inScope = extender.isInScope(service, messageInfo.getRequest());
+		if (! inScope && settings.isInScopeOnly()) {
+			extender.getMetrics().outOfScope.increment();
+			return;
+		}
+		byte[] req = messageInfo.getRequest();
+		if (! HttpMessages.mayCarryUpload(req)) {
+			req = null;
+		}
+		byte[] resp = messageInfo.getResponse();
+		int offset = (resp == null) ? -1 : HttpMessages.findBodyOffset(resp);
+		if (offset >= 0 && ImageFormat.detect(resp, offset, resp.length - offset) == ImageFormat.UNKNOWN
+				&& ! BurpExtender.isEncodedImage(resp, offset)) {
+			offset = -1;
+		}
+		if (req == null && offset < 0) {
+			return;
+		}
+		long cost = (req == null) ? 0 : req.length;
+		if (offset >= 0) {
+			cost += BurpExtender.estimateCost(ImageFormat.detect(resp, offset, resp.length - offset), resp.length - offset);
+		}
+
+		Task task = new Task(service.getHost(), inScope, cost, messageInfo, req, resp, offset);
+		if (! extender.getPool().offer(task, settings.getLiveQueueCapacity())) {
+			extender.getMetrics().dropped.increment();
+		}
+	}
+
+
+	private class Task extends ScanTask {
+		private final IHttpRequestResponse item;
+		private final byte[] req;
+		private final byte[] resp;
+		private final int offset;
+
+		/** @param req the request when it may upload a file, else null
+		 *  @param offset body offset of an image response, else -1 */
+		Task(String host, boolean inScope, long cost, IHttpRequestResponse item, byte[] req, byte[] resp, int offset) {
+			super(host, inScope, cost);
+			this.item = item;
+			this.req = req;
+			this.resp = resp;
+			this.offset = offset;
+		}
+
+		@Override
+		void scan() {
+			try {
+				if (req != null) {
+					for (IScanIssue issue : extender.scanRequest(item, req)) {
+						extender.report(issue);
+					}
+				}
+				if (offset >= 0) {
+					scanResponse();
+				}
+			} catch (RuntimeException e) {
+				// e.g. Burp refusing markers; the worker and the rest of the queue carry on
+				ScanLog.warn("live", "scan failed", ScanLog.URL,
+						HttpMessages.getUrl(item.getHttpService(), item.getRequest()), "error", e);
+			}
+		}
+
+		private void scanResponse() {
+			// the original response, not the message's current one, which may be stripped
+			IHttpRequestResponse original = new IssueEvidence.EvidenceMessage(item.getHttpService(), item.getRequest(), resp);
+			IScanIssue issue = extender.scanResponse(original, resp, offset);
+			if (issue != null) {
+				extender.report(issue);
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package burp;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.veggiespam.imagelocationscanner.ContentHash;
+import com.veggiespam.imagelocationscanner.Finding;
+
+
+/**
+ * Uploaded images with findings, by the fingerprint of their image data, so that when
+ * the server later serves the same picture we can tell whether it stripped the
+ * metadata in between.  Only the fingerprint, the upload URL and the finding texts are
+ * kept, never the body: a few hundred bytes per upload.
+ * <p>
+ * Entries expire after TTL_MILLIS and the oldest go first once MAX_ENTRIES are kept,
+ * so a long session with thousands of uploads stays bounded.  isEmpty() is a volatile
+ * read, which keeps the response path free of locking until something was uploaded.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class UploadIndex {
+
+	static final int MAX_ENTRIES = 20000;
+	static final long TTL_MILLIS = 24L * 60 * 60 * 1000;
+	/** Finding texts kept per upload. */
+	static final int MAX_FINDINGS = 32;
+	/** Served URLs reported per upload, so one picture on many pages is not reported forever. */
+	static final int MAX_SERVED = 16;
+
+	enum Verdict {
+		STRIPPED("stripped"),
+		PARTIALLY_STRIPPED("partially stripped"),
+		LEAKED_UNCHANGED("leaked unchanged");
+
+		private final String label;
+
+		Verdict(String label) {
+			this.label = label;
+		}
+
+		@Override
+		public String toString() {
+			return label;
+		}
+	}
+
+	/** One uploaded image. */
+	static final class Upload {
+		final String url;
+		final long time;
+		final Set<String> findings;
+		/** Served URLs already reported; guarded by the index lock. */
+		final Set<String> served = new LinkedHashSet<String>();
+
+		Upload(String url, long time, Set<String> findings) {
+			this.url = url;
+			this.time = time;
+			this.findings = findings;
+		}
+	}
+
+	/** What a served copy kept of an upload. */
+	static final class Correlation {
+		final Upload upload;
+		final Verdict verdict;
+		/** Findings of the upload still in the served copy. */
+		final List<String> survived;
+		/** Findings of the upload gone from the served copy. */
+		final List<String> removed;
+
+		Correlation(Upload upload, Verdict verdict, List<String> survived, List<String> removed) {
+			this.upload = upload;
+			this.verdict = verdict;
+			this.survived = survived;
+			this.removed = removed;
+		}
+	}
+
+	/** Insertion order is age order, so expiry and eviction both work from the head. */
+	private final LinkedHashMap<ContentHash, Upload> uploads = new LinkedHashMap<ContentHash, Upload>();
+	private volatile int size = 0;
+
+
+	/** Remembers an uploaded image that has findings. */
+	synchronized void record(ContentHash fingerprint, URL url, List<Finding> findings) {
+		long now = System.currentTimeMillis();
+		expire(now);
+		Set<String> texts = new LinkedHashSet<String>();
+		for (Finding f : findings) {
+			if (texts.size() >= MAX_FINDINGS) {
+				break;
+			}
+			texts.add(f.toString());
+		}
+		uploads.remove(fingerprint);  // re-uploads move to the young end
+		uploads.put(fingerprint, new Upload(String.valueOf(url), now, texts));
+		if (uploads.size() > MAX_ENTRIES) {
+			Iterator<ContentHash> eldest = uploads.keySet().iterator();
+			eldest.next();
+			eldest.remove();
+		}
+		size = uploads.size();
+	}
+
+	/** Compares a served image with its upload, if it was uploaded.
+	 *
+	 * @return the verdict, or null when the picture was not uploaded, has expired or
+	 *         this URL was already reported for it
+	 */
+	Correlation correlate(ContentHash fingerprint, URL servedUrl, List<Finding> servedFindings) {
+		if (size == 0) {
+			return null;
+		}
+		Upload upload;
+		synchronized (this) {
+			expire(System.currentTimeMillis());
+			upload = uploads.get(fingerprint);
+			if (upload == null || upload.served.size() >= MAX_SERVED || ! upload.served.add(String.valueOf(servedUrl))) {
+				return null;
+			}
+		}
+		Set<String> served = new LinkedHashSet<String>();
+		for (Finding f : servedFindings) {
+			served.add(f.toString());
+		}
+		List<String> survived = new ArrayList<String>();
+		List<String> removed = new ArrayList<String>();
+		for (String f : upload.findings) {
+			if (served.contains(f)) {
+				survived.add(f);
+			} else {
+				removed.add(f);
+			}
+		}
+		Verdict verdict = survived.isEmpty() ? Verdict.STRIPPED
+				: removed.isEmpty() ? Verdict.LEAKED_UNCHANGED : Verdict.PARTIALLY_STRIPPED;
+		return new Correlation(upload, verdict, survived, removed);
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	synchronized void clear() {
+		uploads.clear();
+		size = 0;
+	}
+
+	/** Called with the lock held. */
+	private void expire(long now) {
+		Iterator<Map.Entry<ContentHash, Upload>> it = uploads.entrySet().iterator();
+		while (it.hasNext() && now - it.next().getValue().time > TTL_MILLIS) {
+			it.remove();
+		}
+		size = uploads.size();
+	}
+}
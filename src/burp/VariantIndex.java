@@ -0,0 +1,118 @@
+package burp;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.veggiespam.imagelocationscanner.ContentHash;
+import com.veggiespam.imagelocationscanner.Finding;
+
+
+/**
+ * Remembers which pictures were reported, by the fingerprint of their image data
+ * (ImageSegments.getPayloadFingerprint), so the same photo is not reported again for
+ * every URL it is served under: thumbnails of a CDN, ?v= cache busters, the copy in
+ * the article and the copy in the gallery.  Copies count as the same when their
+ * findings are the same too; a copy with other metadata, e.g. re-tagged with a
+ * different position, is new information and gets reported with a pointer to the
+ * first copy.
+ * <p>
+ * Kept in memory only.  When MAX_ENTRIES pictures are known the index starts over,
+ * which at worst reports some copies again.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class VariantIndex {
+
+	/** Pictures remembered before the index is cleared. */
+	static final int MAX_ENTRIES = 100000;
+	/** Metadata variants kept per picture. */
+	static final int MAX_VARIANTS = 8;
+
+	private final ConcurrentMap<ContentHash, List<Variant>> pictures = new ConcurrentHashMap<ContentHash, List<Variant>>();
+
+
+	/** One reported copy of a picture. */
+	static final class Variant {
+		final URL url;
+		final int findingsKey;
+
+		Variant(URL url, int findingsKey) {
+			this.url = url;
+			this.findingsKey = findingsKey;
+		}
+	}
+
+	/** What record() found out about a reported image. */
+	static final class Match {
+		/** A copy with the same findings reported under another URL, or null. */
+		final Variant sameFindings;
+		/** The first reported copy when its findings differ, or null. */
+		final Variant otherFindings;
+
+		Match(Variant sameFindings, Variant otherFindings) {
+			this.sameFindings = sameFindings;
+			this.otherFindings = otherFindings;
+		}
+	}
+
+	private static final Match NEW = new Match(null, null);
+
+	/** Notes that the picture with this fingerprint was found at url with these findings.
+	 *
+	 * @return what was known of the picture before; never null
+	 */
+	Match record(ContentHash fingerprint, URL url, List<Finding> findings) {
+		int key = findingsKey(findings);
+		List<Variant> variants = pictures.get(fingerprint);
+		if (variants == null) {
+			if (pictures.size() >= MAX_ENTRIES) {
+				pictures.clear();
+			}
+			List<Variant> fresh = new ArrayList<Variant>(1);
+			variants = pictures.putIfAbsent(fingerprint, fresh);
+			if (variants == null) {
+				variants = fresh;
+			}
+		}
+		synchronized (variants) {
+			Variant other = null;
+			for (Variant v : variants) {
+				if (v.findingsKey == key) {
+					// the same URL is Burp's to consolidate, not a copy
+					return String.valueOf(v.url).equals(String.valueOf(url)) ? NEW : new Match(v, null);
+				}
+				if (other == null) {
+					other = v;
+				}
+			}
+			if (variants.size() < MAX_VARIANTS) {
+				variants.add(new Variant(url, key));
+			}
+			return other == null ? NEW : new Match(null, other);
+		}
+	}
+
+	int size() {
+		return pictures.size();
+	}
+
+	void clear() {
+		pictures.clear();
+	}
+
+	/** Same for the same set of finding values, in any order. */
+	static int findingsKey(List<Finding> findings) {
+		Set<String> values = new HashSet<String>();
+		for (Finding f : findings) {
+			values.add(f.toString());
+		}
+		return values.hashCode();
+	}
+}
@@ -0,0 +1,209 @@
+package burp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import com.veggiespam.imagelocationscanner.ContentDecoder;
+import com.veggiespam.imagelocationscanner.ContentHash;
+import com.veggiespam.imagelocationscanner.ILS;
+import com.veggiespam.imagelocationscanner.ImageFormat;
+import com.veggiespam.imagelocationscanner.ImageSegments;
+import com.veggiespam.imagelocationscanner.MetadataHints;
+import com.veggiespam.imagelocationscanner.ScanLog;
+import com.veggiespam.imagelocationscanner.SyntheticImages;
+
+
+/**
+ * Gets the first real scans to steady-state speed.  metadata-extractor loads its
+ * readers, directories and descriptors on first use and the scan path starts out
+ * interpreted, so right after loading the extension the first images took many times
+ * longer than later ones.  Run once on a low-priority thread at load: it loads the
+ * classes ILS uses, then feeds the SyntheticImages corpus (and a gzip-encoded copy)
+ * through the same steps as a scan until the time per round stops improving, which
+ * is when the JIT has compiled the hot paths.
+ * <p>
+ * The samples go straight to ILS, not through BurpExtender.scanStream(), so they do
+ * not end up in the result cache, the metrics or the log.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @see http://www.veggiespam.com/ils/
+ */
+final class WarmUp implements Runnable {
+
+	/** Rounds timed together; one round is the whole corpus once. */
+	static final int BATCH_ROUNDS = 50;
+	/** Batches in a row that must not beat the best by more than MIN_GAIN before stopping. */
+	static final int STABLE_BATCHES = 3;
+	static final double MIN_GAIN = 0.05;
+	/** Never warm up for longer than this. */
+	static final long MAX_MILLIS = 15000;
+
+	/** Loaded up front: the readers ILS.scan() ends up in and the directories and descriptors it reads. */
+	private static final String[] CLASSES = {
+		"com.drew.imaging.ImageMetadataReader",
+		"com.drew.imaging.FileTypeDetector",
+		"com.drew.imaging.jpeg.JpegMetadataReader",
+		"com.drew.imaging.jpeg.JpegSegmentReader",
+		"com.drew.imaging.png.PngMetadataReader",
+		"com.drew.imaging.png.PngChunkReader",
+		"com.drew.imaging.tiff.TiffMetadataReader",
+		"com.drew.imaging.tiff.TiffReader",
+		"com.drew.imaging.webp.WebpMetadataReader",
+		"com.drew.imaging.riff.RiffReader",
+		"com.drew.lang.GeoLocation",
+		"com.drew.metadata.exif.ExifReader",
+		"com.drew.metadata.exif.ExifTiffHandler",
+		"com.drew.metadata.exif.ExifIFD0Directory",
+		"com.drew.metadata.exif.ExifIFD0Descriptor",
+		"com.drew.metadata.exif.ExifSubIFDDirectory",
+		"com.drew.metadata.exif.ExifSubIFDDescriptor",
+		"com.drew.metadata.exif.ExifThumbnailDirectory",
+		"com.drew.metadata.exif.ExifInteropDirectory",
+		"com.drew.metadata.exif.GpsDirectory",
+		"com.drew.metadata.exif.GpsDescriptor",
+		"com.drew.metadata.exif.makernotes.CanonMakernoteDirectory",
+		"com.drew.metadata.exif.makernotes.CanonMakernoteDescriptor",
+		"com.drew.metadata.exif.makernotes.FujifilmMakernoteDirectory",
+		"com.drew.metadata.exif.makernotes.FujifilmMakernoteDescriptor",
+		"com.drew.metadata.exif.makernotes.NikonType2MakernoteDirectory",
+		"com.drew.metadata.exif.makernotes.NikonType2MakernoteDescriptor",
+		"com.drew.metadata.exif.makernotes.OlympusMakernoteDirectory",
+		"com.drew.metadata.exif.makernotes.OlympusMakernoteDescriptor",
+		"com.drew.metadata.exif.makernotes.OlympusEquipmentMakernoteDirectory",
+		"com.drew.metadata.exif.makernotes.OlympusEquipmentMakernoteDescriptor",
+		"com.drew.metadata.exif.makernotes.PanasonicMakernoteDirectory",
+		"com.drew.metadata.exif.makernotes.PanasonicMakernoteDescriptor",
+		"com.drew.metadata.exif.makernotes.SigmaMakernoteDirectory",
+		"com.drew.metadata.exif.makernotes.SigmaMakernoteDescriptor",
+		"com.drew.metadata.iptc.IptcReader",
+		"com.drew.metadata.iptc.IptcDirectory",
+		"com.drew.metadata.iptc.IptcDescriptor",
+		"com.drew.metadata.jfif.JfifReader",
+		"com.drew.metadata.photoshop.PhotoshopReader",
+		"com.drew.metadata.png.PngDirectory",
+		"com.drew.metadata.xmp.XmpReader",
+		"com.drew.metadata.xmp.XmpDirectory",
+		"com.drew.metadata.xmp.XmpDescriptor",
+		"com.adobe.xmp.XMPMetaFactory",
+	};
+
+	private volatile boolean stopped = false;
+	private Thread thread;
+
+
+	/** Starts the warm-up on its own low-priority daemon thread. */
+	synchronized void start() {
+		thread = new Thread(this, "ILS-warm-up");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	/** Ends the warm-up early, e.g. when the extension is unloaded. */
+	synchronized void stop() {
+		stopped = true;
+		if (thread != null) {
+			thread.interrupt();
+		}
+	}
+
+	@Override
+	public void run() {
+		long start = System.nanoTime();
+		int missing = preload();
+		long loadedNanos = System.nanoTime() - start;
+
+		List<byte[]> corpus;
+		byte[] gzipped;
+		try {
+			corpus = SyntheticImages.corpus();
+			gzipped = gzip(corpus.get(0));
+		} catch (RuntimeException e) {
+			// e.g. a headless JRE without ImageIO writers: the class loading is still done
+			ScanLog.warn("warmup", "no sample images, only classes were loaded", "error", e);
+			return;
+		}
+
+		long deadline = start + MAX_MILLIS * 1000000L;
+		long firstRoundNanos = -1;
+		long best = Long.MAX_VALUE;
+		long last = 0;
+		int stable = 0;
+		int rounds = 0;
+		int found = 0;
+		while (! stopped && stable < STABLE_BATCHES && System.nanoTime() < deadline) {
+			long t0 = System.nanoTime();
+			for (int i = 0; i < BATCH_ROUNDS && ! stopped; i++) {
+				found += round(corpus, gzipped);
+				rounds++;
+				if (firstRoundNanos < 0) {
+					firstRoundNanos = System.nanoTime() - t0;
+				}
+			}
+			last = (System.nanoTime() - t0) / BATCH_ROUNDS;
+			if (last < best * (1 - MIN_GAIN)) {
+				stable = 0;
+			} else {
+				stable++;
+			}
+			best = Math.min(best, last);
+		}
+
+		ScanLog.info("warmup", stopped ? "stopped" : "done", "classes_missing", missing,
+				"class_load_ms", loadedNanos / 1000000L, "rounds", rounds,
+				"first_round_us", firstRoundNanos / 1000L, "last_round_us", last / 1000L,
+				"findings", found);
+	}
+
+	/** @return how many of CLASSES could not be loaded */
+	private int preload() {
+		ClassLoader loader = WarmUp.class.getClassLoader();
+		int missing = 0;
+		for (String name : CLASSES) {
+			if (stopped) {
+				break;
+			}
+			try {
+				Class.forName(name, true, loader);
+			} catch (ClassNotFoundException e) {
+				missing++;
+			} catch (LinkageError e) {
+				missing++;
+			}
+		}
+		return missing;
+	}
+
+	/** The corpus once through the scan steps.  Returns the number of findings, so none of it is dead code. */
+	private static int round(List<byte[]> corpus, byte[] gzipped) {
+		int found = 0;
+		for (byte[] image : corpus) {
+			if (ImageFormat.detect(image, 0, image.length) == ImageFormat.UNKNOWN) {
+				continue;
+			}
+			found += MetadataHints.find(image, 0, image.length).size();
+			found += ImageSegments.locate(image, 0, image.length).size();
+			found += ContentHash.of(image, 0, image.length).hashCode() & 1;
+			found += ILS.scan(image, 0, image.length).getFindings().size();
+		}
+		InputStream in = ContentDecoder.untilPayload(gzipped, 0, gzipped.length, "gzip", Integer.MAX_VALUE);
+		found += ILS.scan(in).getFindings().size();
+		return found;
+	}
+
+	private static byte[] gzip(byte[] data) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length);
+		try {
+			GZIPOutputStream out = new GZIPOutputStream(bytes);
+			out.write(data);
+			out.close();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);  // cannot happen on a byte array
+		}
+		return bytes.toByteArray();
+	}
+}
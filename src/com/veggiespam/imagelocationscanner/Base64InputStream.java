@@ -0,0 +1,152 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes base64 text held in a byte array on demand, three bytes per four characters,
+ * so a scan that stops after the image header never decodes the rest.  skip() moves
+ * through the text without decoding it, which is how the metadata readers pass over
+ * PNG image data.  Both the standard and the URL-safe alphabet are accepted, and so is
+ * the "\/" escaping JSON encoders apply to slashes.  Decoding ends at the first '=' or
+ * at any other character outside the alphabet.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public class Base64InputStream extends InputStream {
+
+	private static final int[] VALUES = new int[128];
+	/** Marks characters that are skipped, i.e. the backslash of "\/". */
+	private static final int IGNORED = -2;
+	private static final int INVALID = -1;
+
+	static {
+		java.util.Arrays.fill(VALUES, INVALID);
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		for (int i = 0; i < alphabet.length(); i++) {
+			VALUES[alphabet.charAt(i)] = i;
+		}
+		VALUES['-'] = 62;
+		VALUES['_'] = 63;
+		VALUES['\\'] = IGNORED;
+	}
+
+	private final byte[] text;
+	private final boolean escaped;
+	private int pos;
+	private final int end;
+
+	/** Up to three decoded bytes waiting to be read. */
+	private final byte[] pending = new byte[3];
+	private int pendingPos = 0;
+	private int pendingLen = 0;
+	private boolean eof = false;
+
+	/**
+	 * @param escaped true when text[from..to) may contain backslashes; without them
+	 *        skip() is plain arithmetic
+	 */
+	public Base64InputStream(byte[] text, int from, int to, boolean escaped) {
+		this.text = text;
+		this.pos = from;
+		this.end = to;
+		this.escaped = escaped;
+	}
+
+	/** Value of the base64 character c, or -1 when it is not one. */
+	static int valueOf(byte c) {
+		return (c < 0) ? INVALID : VALUES[c];
+	}
+
+	/** True for characters a base64 run may contain, including '=' and the JSON escape. */
+	static boolean isRunChar(byte c) {
+		return c == '=' || valueOf(c) != INVALID;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (pendingPos == pendingLen && ! fill()) {
+			return -1;
+		}
+		return pending[pendingPos++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		int n = 0;
+		while (n < len) {
+			if (pendingPos == pendingLen && ! fill()) {
+				break;
+			}
+			int c = Math.min(len - n, pendingLen - pendingPos);
+			System.arraycopy(pending, pendingPos, b, off + n, c);
+			pendingPos += c;
+			n += c;
+		}
+		return (n == 0) ? -1 : n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n && pendingPos < pendingLen) {
+			pendingPos++;
+			skipped++;
+		}
+		if (! escaped && ! eof) {
+			// whole quads can be stepped over without looking at them
+			long quads = Math.min((n - skipped) / 3, (end - pos) / 4 - 1);
+			if (quads > 0) {
+				pos += (int) quads * 4;
+				skipped += quads * 3;
+			}
+		}
+		while (skipped < n && read() >= 0) {
+			skipped++;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return (pendingLen - pendingPos) + (eof ? 0 : (end - pos) / 4 * 3);
+	}
+
+	/** Decodes the next quad into pending; false at the end of the text. */
+	private boolean fill() {
+		if (eof) {
+			return false;
+		}
+		int bits = 0;
+		int chars = 0;
+		while (chars < 4 && pos < end) {
+			int v = valueOf(text[pos]);
+			if (v == IGNORED) {
+				pos++;
+				continue;
+			}
+			if (v == INVALID) {
+				break;  // padding or the end of the run
+			}
+			bits = (bits << 6) | v;
+			chars++;
+			pos++;
+		}
+		if (chars < 4) {
+			eof = true;
+			bits <<= 6 * (4 - chars);
+		}
+		pendingPos = 0;
+		pendingLen = (chars * 6) / 8;
+		pending[0] = (byte) (bits >> 16);
+		pending[1] = (byte) (bits >> 8);
+		pending[2] = (byte) bits;
+		return pendingLen > 0;
+	}
+}
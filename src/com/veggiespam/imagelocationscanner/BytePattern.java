@@ -0,0 +1,74 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.util.Arrays;
+
+/**
+ * Boyer-Moore-Horspool search for a fixed byte pattern.  The skip table is built once
+ * per pattern, after which a search touches roughly len / pattern.length bytes of the
+ * haystack, which matters when the haystack is a multi-megabyte upload and the
+ * pattern a 40 byte multipart boundary.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public final class BytePattern {
+
+	private final byte[] pattern;
+	private final int[] skip = new int[256];
+
+	public BytePattern(byte[] pattern) {
+		if (pattern.length == 0) {
+			throw new IllegalArgumentException("empty pattern");
+		}
+		this.pattern = pattern.clone();
+		Arrays.fill(skip, pattern.length);
+		for (int i = 0; i < pattern.length - 1; i++) {
+			skip[pattern[i] & 0xFF] = pattern.length - 1 - i;
+		}
+	}
+
+	/** Pattern from an ASCII string, e.g. "\r\n--" + boundary. */
+	public static BytePattern ascii(String s) {
+		byte[] b = new byte[s.length()];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte) s.charAt(i);
+		}
+		return new BytePattern(b);
+	}
+
+	public int length() {
+		return pattern.length;
+	}
+
+	/** Returns the first position in data[from..to) where the pattern starts, or -1. */
+	public int indexOf(byte[] data, int from, int to) {
+		int last = pattern.length - 1;
+		int pos = from;
+		while (pos + last < to) {
+			int i = last;
+			while (data[pos + i] == pattern[i]) {
+				if (i == 0) {
+					return pos;
+				}
+				i--;
+			}
+			pos += skip[data[pos + last] & 0xFF];
+		}
+		return -1;
+	}
+
+	/** True when data holds the pattern at exactly pos. */
+	public boolean matchesAt(byte[] data, int pos) {
+		if (pos < 0 || pos + pattern.length > data.length) {
+			return false;
+		}
+		for (int i = 0; i < pattern.length; i++) {
+			if (data[pos + i] != pattern[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
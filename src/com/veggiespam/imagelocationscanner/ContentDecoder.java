@@ -0,0 +1,213 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads images sent with Content-Encoding gzip or deflate.  The body is inflated as a
+ * stream and only up to the start of the image data (JPEG SOS, PNG IDAT, WebP VP8), so
+ * a 20 MB photo costs the inflation of its first few KB.  What was read is patched into
+ * a small, well-formed image that the metadata readers accept.  Stopping at the image
+ * data means PNG text chunks placed after IDAT are not seen, the same trade-off the
+ * JPEG reader makes by stopping at SOS.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public final class ContentDecoder {
+
+	/** Inflated bytes are pulled in steps of this size between looks at the structure. */
+	private static final int STEP = 4096;
+
+	/** The empty IEND chunk: length 0, type, CRC. */
+	private static final byte[] PNG_IEND_CHUNK = {
+		0, 0, 0, 0, 'I', 'E', 'N', 'D', (byte) 0xAE, 0x42, 0x60, (byte) 0x82
+	};
+
+	private ContentDecoder() {
+		// static helpers only
+	}
+
+	/** True for the Content-Encoding values this class can decode. */
+	public static boolean isSupported(String contentEncoding) {
+		if (contentEncoding == null) {
+			return false;
+		}
+		String e = contentEncoding.trim().toLowerCase();
+		return e.equals("gzip") || e.equals("x-gzip") || e.equals("deflate");
+	}
+
+	/** True when data[off..) starts with the gzip magic bytes, e.g. a photo.jpg.gz file. */
+	public static boolean isGzip(byte[] data, int off, int len) {
+		return len >= 2 && data[off] == (byte) 0x1F && data[off + 1] == (byte) 0x8B;
+	}
+
+	/** Opens an inflating stream over data[off..off+len).
+	 *
+	 * @param contentEncoding gzip, x-gzip or deflate (zlib-wrapped or raw, both occur)
+	 */
+	public static InputStream open(byte[] data, int off, int len, String contentEncoding) throws IOException {
+		InputStream raw = new ByteArrayInputStream(data, off, len);
+		String e = contentEncoding.trim().toLowerCase();
+		if (e.equals("gzip") || e.equals("x-gzip")) {
+			return new GZIPInputStream(raw, STEP);
+		}
+		// zlib header: CM 8 and a header checksum that is a multiple of 31
+		boolean zlib = len >= 2 && (data[off] & 0x0F) == 8 && (((data[off] & 0xFF) << 8) | (data[off + 1] & 0xFF)) % 31 == 0;
+		final Inflater inflater = new Inflater(! zlib);
+		return new InflaterInputStream(raw, inflater, STEP) {
+			@Override
+			public void close() throws IOException {
+				super.close();
+				inflater.end();  // a caller-supplied Inflater is not ended by close()
+			}
+		};
+	}
+
+	/** Inflates just enough of data[off..off+len) to identify the image format.
+	 *
+	 * @return the format, UNKNOWN for non-images and for bodies that do not inflate
+	 */
+	public static ImageFormat peekFormat(byte[] data, int off, int len, String contentEncoding) {
+		InputStream in = null;
+		try {
+			in = open(data, off, len, contentEncoding);
+			byte[] magic = new byte[ImageFormat.MAGIC_LENGTH];
+			return ImageFormat.detect(magic, 0, fill(in, magic, 0, magic.length));
+		} catch (IOException e) {
+			return ImageFormat.UNKNOWN;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	/** Returns the image at the start of in, cut off where its image data begins and
+	 * closed so that it parses.  Nothing beyond that point is read from in.
+	 *
+	 * @param limit most bytes to read; formats without a payload marker (TIFF) are read up to it
+	 * @return the image prefix, or null when in does not start with a known image format
+	 */
+	public static byte[] readUntilPayload(InputStream in, int limit) throws IOException {
+		byte[] buf = new byte[STEP];
+		int n = fill(in, buf, 0, ImageFormat.MAGIC_LENGTH);
+		ImageFormat format = ImageFormat.detect(buf, 0, n);
+		if (format == ImageFormat.UNKNOWN) {
+			return null;
+		}
+		while (n < limit) {
+			if (format != ImageFormat.TIFF) {
+				int payload = ImageSegments.locate(buf, 0, n).getPayloadOffset();
+				if (payload >= 0) {
+					return close(format, buf, payload);
+				}
+			}
+			if (n == buf.length) {
+				buf = Arrays.copyOf(buf, (int) Math.min((long) buf.length * 2, limit));
+			}
+			int r = fill(in, buf, n, Math.min(buf.length, limit) - n);
+			if (r == 0) {
+				break;  // end of the stream before the image data, keep what there is
+			}
+			n += r;
+		}
+		return close(format, buf, n);
+	}
+
+	/** Lazy version of readUntilPayload over an encoded body: nothing is inflated until the
+	 * first read, so a scan answered from the cache costs no inflation at all.  Non-images
+	 * read as empty. */
+	public static InputStream untilPayload(final byte[] data, final int off, final int len,
+			final String contentEncoding, final int limit) {
+		return new InputStream() {
+			private InputStream prefix;
+
+			private InputStream prefix() throws IOException {
+				if (prefix == null) {
+					InputStream in = open(data, off, len, contentEncoding);
+					try {
+						byte[] b = readUntilPayload(in, limit);
+						prefix = new ByteArrayInputStream(b == null ? new byte[0] : b);
+					} finally {
+						in.close();
+					}
+				}
+				return prefix;
+			}
+
+			@Override
+			public int read() throws IOException {
+				return prefix().read();
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				return prefix().read(b, off, len);
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				return prefix().skip(n);
+			}
+
+			@Override
+			public int available() throws IOException {
+				return prefix().available();
+			}
+		};
+	}
+
+	/** Ends the truncated image so the readers see a complete, if pixel-less, file. */
+	private static byte[] close(ImageFormat format, byte[] buf, int cut) {
+		switch (format) {
+			case JPEG:
+				// keep the SOS marker itself, that is where the JPEG reader stops
+				return Arrays.copyOf(buf, Math.min(cut + 2, buf.length));
+			case PNG: {
+				byte[] out = Arrays.copyOf(buf, cut + PNG_IEND_CHUNK.length);
+				System.arraycopy(PNG_IEND_CHUNK, 0, out, cut, PNG_IEND_CHUNK.length);
+				return out;
+			}
+			case WEBP: {
+				byte[] out = Arrays.copyOf(buf, cut);
+				int riffSize = cut - 8;  // the RIFF size now covers only what was kept
+				out[4] = (byte) riffSize;
+				out[5] = (byte) (riffSize >> 8);
+				out[6] = (byte) (riffSize >> 16);
+				out[7] = (byte) (riffSize >> 24);
+				return out;
+			}
+			default:
+				return Arrays.copyOf(buf, cut);
+		}
+	}
+
+	private static void closeQuietly(InputStream in) {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// no op.
+			}
+		}
+	}
+
+	/** Reads until len bytes are in or the stream ends; returns the count read. */
+	private static int fill(InputStream in, byte[] buf, int off, int len) throws IOException {
+		int n = 0;
+		while (n < len) {
+			int r = in.read(buf, off + n, len - n);
+			if (r < 0) {
+				break;
+			}
+			n += r;
+		}
+		return n;
+	}
+}
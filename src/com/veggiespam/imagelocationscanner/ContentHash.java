@@ -0,0 +1,90 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+/**
+ * Identity of an image body, used as the key of the {@link ScanCache}.  CRC32 and
+ * Adler32 are both intrinsified by the JVM, so hashing a multi-megabyte body costs
+ * far less than running the metadata readers over it; together with the length they
+ * make accidental collisions between different images negligible.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public final class ContentHash {
+
+	private final long hash;
+	private final int length;
+
+	public ContentHash(long hash, int length) {
+		this.hash = hash;
+		this.length = length;
+	}
+
+	/** Hashes data[off..off+len). */
+	public static ContentHash of(byte[] data, int off, int len) {
+		CRC32 crc = new CRC32();
+		Adler32 adler = new Adler32();
+		crc.update(data, off, len);
+		adler.update(data, off, len);
+		return new ContentHash((crc.getValue() << 32) | adler.getValue(), len);
+	}
+
+	public static ContentHash of(byte[] data) {
+		return of(data, 0, data.length);
+	}
+
+	/** Hashes the next len bytes of in, 8 KB at a time, e.g. a body spilled to disk.
+	 *
+	 * @throws IOException also when in ends before len bytes
+	 */
+	public static ContentHash of(InputStream in, int len) throws IOException {
+		CRC32 crc = new CRC32();
+		Adler32 adler = new Adler32();
+		byte[] buf = new byte[8192];
+		int left = len;
+		while (left > 0) {
+			int n = in.read(buf, 0, Math.min(buf.length, left));
+			if (n < 0) {
+				throw new EOFException("body shorter than " + len + " bytes");
+			}
+			crc.update(buf, 0, n);
+			adler.update(buf, 0, n);
+			left -= n;
+		}
+		return new ContentHash((crc.getValue() << 32) | adler.getValue(), len);
+	}
+
+	public long getHash() {
+		return hash;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof ContentHash)) {
+			return false;
+		}
+		ContentHash other = (ContentHash) o;
+		return hash == other.hash && length == other.length;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (hash ^ (hash >>> 32)) * 31 + length;
+	}
+
+	@Override
+	public String toString() {
+		return Long.toHexString(hash) + "/" + length;
+	}
+}
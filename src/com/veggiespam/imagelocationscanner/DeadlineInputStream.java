@@ -0,0 +1,59 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Enforces a time budget on a scan.  The metadata readers pull their input through
+ * this stream, so once the deadline has passed the next read fails and the scan ends,
+ * instead of a pathological image holding a scan thread for seconds.  The readers
+ * give up on the whole image when a read fails, so an expired scan has no findings
+ * at all; check isExpired() before keeping its result.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public class DeadlineInputStream extends FilterInputStream {
+
+	private final long deadline;
+	private boolean expired = false;
+
+	/** @param budgetNanos time allowed from now on; 0 or less means no limit */
+	public DeadlineInputStream(InputStream in, long budgetNanos) {
+		super(in);
+		this.deadline = (budgetNanos > 0) ? System.nanoTime() + budgetNanos : 0;
+	}
+
+	/** True once a read was refused because the budget ran out. */
+	public boolean isExpired() {
+		return expired;
+	}
+
+	private void check() throws IOException {
+		if (deadline != 0 && System.nanoTime() - deadline > 0) {
+			expired = true;
+			throw new IOException("ILS scan time budget exceeded");
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		check();
+		return super.read();
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		check();
+		return super.read(b, off, len);
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		check();
+		return super.skip(n);
+	}
+}
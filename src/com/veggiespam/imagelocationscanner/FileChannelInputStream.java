@@ -0,0 +1,65 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a region of a file with positional FileChannel reads.  skip() only moves the
+ * position, so the metadata readers jumping over image data cause no I/O at all, and
+ * the only heap involved is the caller's read buffer.  The channel is not closed by
+ * this stream; several streams may share one channel.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public class FileChannelInputStream extends InputStream {
+
+	private final FileChannel channel;
+	private long pos;
+	private final long end;
+	private final byte[] single = new byte[1];
+
+	/** Streams channel[offset..offset+length). */
+	public FileChannelInputStream(FileChannel channel, long offset, long length) {
+		this.channel = channel;
+		this.pos = offset;
+		this.end = offset + length;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return (read(single, 0, 1) < 0) ? -1 : single[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (pos >= end) {
+			return -1;
+		}
+		int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - pos)), pos);
+		if (n <= 0) {
+			return -1;  // file shorter than expected
+		}
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) {
+		long skipped = Math.max(0, Math.min(n, end - pos));
+		pos += skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(Integer.MAX_VALUE, end - pos);
+	}
+}
@@ -0,0 +1,48 @@
+package com.veggiespam.imagelocationscanner;
+
+/**
+ * One location or privacy exposure found in an image, e.g. bigtype "Location",
+ * subtype "IPTC", value "City = OLDENBURG".  These are the same entries that make
+ * up the lines of the Text output.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public final class Finding {
+
+	private final String bigtype;
+	private final String subtype;
+	private final String value;
+
+	public Finding(String bigtype, String subtype, String value) {
+		this.bigtype = bigtype;
+		this.subtype = subtype;
+		this.value = value;
+	}
+
+	/** "Location" or "Privacy". */
+	public String getBigtype() {
+		return bigtype;
+	}
+
+	/** Where the data came from: "Exif_GPS", "IPTC", "Panasonic", ... */
+	public String getSubtype() {
+		return subtype;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	/** bigtype / subtype, the heading used in the HTML output. */
+	public String getCategory() {
+		return bigtype + " / " + subtype;
+	}
+
+	@Override
+	public String toString() {
+		return getCategory() + ": " + value;
+	}
+}
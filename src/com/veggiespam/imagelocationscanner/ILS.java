@@ -4,14 +4,20 @@ import java.io.File;
 import java.io.FileInputStream;
 //import java.io.FileOutputStream;	// Only needed when debugging the code
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 
 import com.drew.imaging.ImageMetadataReader;
 import com.drew.imaging.ImageProcessingException;
+import com.drew.imaging.tiff.TiffMetadataReader;
 import com.drew.metadata.Metadata;
+import com.drew.metadata.Directory;
+import com.drew.metadata.Tag;
 import com.drew.lang.GeoLocation;
 import com.drew.metadata.exif.GpsDirectory;
 import com.drew.metadata.xmp.XmpDirectory;
@@ -61,9 +67,45 @@ public class ILS {
     	+ "embedded location information from image.  This could mean removing all Exif data or just the GPS "
     	+ "component.  Other data, like serial numbers, should also be removed.";
     public static final String remediationDetail = null;
+    public static final String uploadAlertTitle = "Uploaded Image Exposes Location or PII Data";
+    public static final String uploadAlertDetailPrefix = "An image uploaded in this request embeds a location or privacy-related data: ";
+    public static final String uploadAlertBackground 
+    	= "A user uploaded an image that contains embedded location information, such as GPS coordinates, "
+    	+ "or another privacy exposure, such as camera serial number.  If the server keeps the upload as is, "
+    	+ "everyone who can view the image can read this data.  Even when the served copy is stripped, the "
+    	+ "original may be stored, backed up or processed by other systems with the metadata intact.  ";
+    public static final String strippingAlertTitle = "Uploaded Image Served Back: Metadata Stripping Check";
+    public static final String strippingAlertBackground 
+    	= "An image with location or privacy-related metadata was uploaded earlier, and the same picture "
+    	+ "(identical image data) is served here.  Comparing the two shows whether the server strips the "
+    	+ "metadata of uploads before serving them: completely, only some of it, or not at all.  ";
+    public static final String canaryAlertTitle = "Canary Image Upload Served With Metadata";
+    public static final String canaryAlertBackground 
+    	= "The active scan uploaded a generated canary image through this file upload.  The canary carries "
+    	+ "unique values in its Exif GPS position, Exif serial number and IPTC City, and one of them was found "
+    	+ "in an image the server returned.  So the upload keeps the metadata of user pictures and serves it "
+    	+ "to others; real photos uploaded here would publish where they were taken and with which camera.  ";
     public static final String referenceURL = "https://www.veggiespam.com/ils/"; 
     public static final String pluginAuthor = "Jay Ball (veggiespam)"; 
 
+	/** Every bigtype / subtype the rules below can report, see Finding.getCategory().
+	 * Keep in sync when adding a new rule block. */
+    public static final String[] findingCategories = {
+		"Location / Exif_GPS",
+		"Location / IPTC",
+		"Location / Panasonic",
+		"Location / Detected, not parsed",  // hints of a DETECT_ONLY scan under load
+		"Privacy / XMP",
+		"Privacy / IPTC",
+		"Privacy / Panasonic",
+		"Privacy / Olympus",
+		"Privacy / OlympusEquipment",
+		"Privacy / Canon",
+		"Privacy / Sigma",
+		"Privacy / Nikon",
+		"Privacy / FujiFilm",
+	};
+
 	private static final String EmptyString = "";
 	private static final String Space = " ";
 	private static final String Seperator = " ||  ";  // one space at start, two at end
@@ -90,8 +132,32 @@ public class ILS {
 	 * @return String containing the Location data or an empty String indicating no GPS data found.
 	 */
     public static String[] scanForLocationInImageBoth(byte[] data)   {
-		String[] results = { EmptyString, EmptyString };
-    	
+		return scanForLocationInImageBoth(data, 0, data.length);
+	}
+
+	/** Same as scanForLocationInImageBoth(byte[]) but scans the image in place inside a larger
+	 * buffer, e.g. the body of an HTTP response, so callers need not copy it out first.
+	 *
+	 * @param data buffer containing the image
+	 * @param offset start of the image inside data
+	 * @param length number of bytes of the image
+	 * @see scanForLocationInImageBoth
+	 */
+    public static String[] scanForLocationInImageBoth(byte[] data, int offset, int length)   {
+		ScanResult r = scan(data, offset, length);
+		String[] results = { r.getText(), r.getHtml() };
+		return results;
+	}
+
+	/** Scans the image in place and returns the Text and HTML output together with the
+	 * individual findings, so callers can count, filter or correlate them without
+	 * parsing the formatted strings.  Never throws; unreadable images give ScanResult.EMPTY.
+	 *
+	 * @param data buffer containing the image
+	 * @param offset start of the image inside data
+	 * @param length number of bytes of the image
+	 */
+    public static ScanResult scan(byte[] data, int offset, int length)   {
     	/*  // Extreme debugging code for making sure data from Burp/ZAP/newproxy gets into 
 			// ILS.  This code is very slow and not to be compiled in, even with if(debug)
 			// types of contrusts.  This code this will save the image file to disk for binary
@@ -111,34 +177,159 @@ public class ILS {
     	// return t;   /*   --- if you use this line, remember to comment out rest of function.
 		*/	
  
+		return scan(new BufferedInputStream(new ByteArrayInputStream(data, offset, length)));
+	}
+
+	/** Stream version of scan(byte[], int, int).  The metadata readers only pull as much
+	 * of the stream as they need (for a jpeg, up to the start of the image data), which
+	 * lets callers feed decoded, inflated or file-backed data without materialising it.
+	 * An IOException from the stream ends the scan quietly, like a corrupt image does.
+	 *
+	 * @param is the image data; wrapped in a BufferedInputStream unless it already is one
+	 */
+    public static ScanResult scan(InputStream is)   {
+    	try {
+			return scan(ImageMetadataReader.readMetadata(is));
+    	} catch (ImageProcessingException e) {
+    		// bad image, just ignore processing exceptions
+    		ScanLog.debug("ils.parse", "unreadable image", "error", e);
+    	} catch (IOException e) {
+    		// bad file or something, just ignore 
+    		ScanLog.debug("ils.parse", "unreadable stream", "error", e);
+    	}
+		return ScanResult.EMPTY;
+	}
+
+	/** Scans a TIFF file with random access, so only its IFDs are read no matter where
+	 * the writer put them.  The stream readers would buffer everything up to the last
+	 * IFD, which for a large scan with its IFD at the end is the whole file.
+	 */
+    public static ScanResult scanTiff(File f)   {
+    	try {
+			return scan(TiffMetadataReader.readMetadata(f));
+    	} catch (ImageProcessingException e) {
+    		// bad image, just ignore processing exceptions
+    	} catch (IOException e) {
+    		// bad file or something, just ignore 
+    	}
+		return ScanResult.EMPTY;
+	}
+
+	/** Every tag of the GPS directories and every serial number tag, as the metadata
+	 * reader describes them, one "Directory / Tag = description" line each.  For showing
+	 * next to the findings; nothing is judged or left out.  Unreadable images give an
+	 * empty list.
+	 */
+    public static List<String> rawTags(InputStream is)   {
+		List<String> tags = new ArrayList<String>();
     	try {
-			BufferedInputStream is = new BufferedInputStream(new ByteArrayInputStream(data, 0, data.length));
 			Metadata md = ImageMetadataReader.readMetadata(is);
+			for (Directory d : md.getDirectories()) {
+				boolean gps = d instanceof GpsDirectory;
+				for (Tag t : d.getTags()) {
+					if (gps || t.getTagName().toLowerCase().contains("serial")) {
+						tags.add(d.getName() + " / " + t.getTagName() + " = " + t.getDescription());
+					}
+				}
+			}
+    	} catch (ImageProcessingException e) {
+    		// bad image, nothing to show
+    	} catch (IOException e) {
+    		// bad file or something, nothing to show
+    	}
+		return tags;
+	}
 
-			String[] tmp = { EmptyString, EmptyString };
+	/** Runs the location and privacy rules over metadata that was already read. */
+    private static ScanResult scan(Metadata md)   {
+		String[] results = { EmptyString, EmptyString };
+		ArrayList<Finding> findings = new ArrayList<Finding>();
 
-			tmp = scanForLocation(md);
-			results = scanForPrivacy(md);
+		String[] tmp = { EmptyString, EmptyString };
 
-			if (tmp[0].length() > 0) {
-				results[0] = tmp[0] + "\n\n" + results[0];
-				results[1] = "<ul>"  +  tmp[1] + results[1] + "</ul>";
+		tmp = scanForLocation(md, findings);
+		results = scanForPrivacy(md, findings);
+		results = combineResults(tmp, results);
 
-				// AGAIN: this is for extreme debugging
-				// results[0] = "DBG: " + t[0] + "\n\n" + results[0];
-				// results[1] = "DBG: " + t[1] + "\n\n" + results[1]; 
-			}
+		// AGAIN: this is for extreme debugging
+		// results[0] = "DBG: " + t[0] + "\n\n" + results[0];
+		// results[1] = "DBG: " + t[1] + "\n\n" + results[1]; 
 
+		if (findings.isEmpty() && results[0].length() == 0) {
+			return ScanResult.EMPTY;
+		}
+    	return new ScanResult(results[0], results[1], findings); 
+	}
 
-    	} catch (ImageProcessingException e) {
-    		// bad image, just ignore processing exceptions
-    		// DEBUG: return new String("ImageProcessingException " + e.toString());
-    	} catch (IOException e) {
-    		// bad file or something, just ignore 
-    		// DEBUG: return new String("IOException " + e.toString());
-    	}
+	/** Puts the Location and Privacy sections together the way all ILS output looks. */
+    private static String[] combineResults(String[] location, String[] privacy)   {
+		String[] results = privacy;
+		if (location[0].length() > 0) {
+			results[0] = location[0] + "\n\n" + privacy[0];
+			results[1] = "<ul>"  +  location[1] + privacy[1] + "</ul>";
+		}
+		return results;
+	}
 
-    	return results; 
+	/** Rebuilds the Text and HTML output from a list of findings, in the same layout
+	 * scan() produces.  Used after findings have been filtered.
+	 */
+    public static ScanResult render(List<Finding> findings)   {
+		if (findings.isEmpty()) {
+			return ScanResult.EMPTY;
+		}
+		String[] results = combineResults(renderBigtype("Location", findings), renderBigtype("Privacy", findings));
+		return new ScanResult(results[0], results[1], findings);
+	}
+
+    private static String[] renderBigtype(String bigtype, List<Finding> findings)   {
+		String[] results = { EmptyString, EmptyString };
+		ArrayList<String> exposure = new ArrayList<String>();
+		String subtype = null;
+
+		// findings of one subtype are adjacent, as each rule emits them in one go
+		for (Finding f : findings) {
+			if (! f.getBigtype().equals(bigtype)) {
+				continue;
+			}
+			if (! f.getSubtype().equals(subtype)) {
+				if (subtype != null) {
+					results = appendResults(results, bigtype, subtype, exposure, null);
+				}
+				exposure.clear();
+				subtype = f.getSubtype();
+			}
+			exposure.add(f.getValue());
+		}
+		if (subtype != null) {
+			results = appendResults(results, bigtype, subtype, exposure, null);
+		}
+
+		if (results[0].length() > 0) {
+			results[0] = bigtype + ":: " + results[0];
+		}
+		return results;
+	}
+
+	/** Drops the findings of disabled categories and re-renders the output.  Scanning
+	 * stays unfiltered so cached results remain valid when the categories change.
+	 *
+	 * @param disabledCategories entries of findingCategories to leave out
+	 */
+    public static ScanResult filter(ScanResult result, Set<String> disabledCategories)   {
+		if (result.isEmpty() || disabledCategories.isEmpty()) {
+			return result;
+		}
+		ArrayList<Finding> kept = new ArrayList<Finding>();
+		for (Finding f : result.getFindings()) {
+			if (! disabledCategories.contains(f.getCategory())) {
+				kept.add(f);
+			}
+		}
+		if (kept.size() == result.getFindings().size()) {
+			return result;
+		}
+		return render(kept);
 	}
 
 
@@ -182,9 +373,15 @@ public class ILS {
 	}
 
 
-    private static String[] appendResults(String current[], String bigtype, String subtype, ArrayList<String> exposure)   {
+    private static String[] appendResults(String current[], String bigtype, String subtype, ArrayList<String> exposure, List<Finding> findings)   {
 		String[] tmp = formatResults(bigtype, subtype, exposure);
 
+		if (findings != null) {
+			for (String finding : exposure) {
+				findings.add(new Finding(bigtype, subtype, finding));
+			}
+		}
+
 		if (tmp[0].length() > 0) {
 			current[0] = current[0] + tmp[0];
 			current[1] = current[1] + tmp[1];
@@ -216,6 +413,11 @@ public class ILS {
 
 
     public static String[] scanForLocation(Metadata md)   {
+		return scanForLocation(md, null);
+	}
+
+	/** As scanForLocation(Metadata), also adding each finding to findings when it is not null. */
+    public static String[] scanForLocation(Metadata md, List<Finding> findings)   {
     	ArrayList<String> retarr = new ArrayList<String>();
     	//ArrayList<String> retHTML = new ArrayList<String>();
 		ArrayList<String> exposure = new ArrayList<String>();
@@ -243,7 +445,7 @@ public class ILS {
 					exposure.add(finding);
 				}
 			}
-			results = appendResults(results, bigtype, subtype, exposure);
+			results = appendResults(results, bigtype, subtype, exposure, findings);
 		}
 
 
@@ -275,7 +477,7 @@ public class ILS {
 				}
 			}
 
-			results = appendResults(results, bigtype, subtype, exposure);
+			results = appendResults(results, bigtype, subtype, exposure, findings);
 		}
 
 		// ** Proprietary camera: Panasonic / Lumix
@@ -306,7 +508,7 @@ public class ILS {
 				}
 			}
 
-			results = appendResults(results, bigtype, subtype, exposure);
+			results = appendResults(results, bigtype, subtype, exposure, findings);
 		}
 
 		// For Text, add the big type in the final entry
@@ -319,6 +521,11 @@ public class ILS {
 
 
     public static String[] scanForPrivacy(Metadata md)   {
+		return scanForPrivacy(md, null);
+	}
+
+	/** As scanForPrivacy(Metadata), also adding each finding to findings when it is not null. */
+    public static String[] scanForPrivacy(Metadata md, List<Finding> findings)   {
     	ArrayList<String> retarr = new ArrayList<String>();
 		String bigtype = "Privacy";  // Overall category type.
 		String subtype = EmptyString;
@@ -347,7 +554,7 @@ public class ILS {
 						retarr.add(element);
 					}
 				}
-				results = appendResults(results, bigtype, subtype, exposure);
+				results = appendResults(results, bigtype, subtype, exposure, findings);
 			}
 		}
 
@@ -377,7 +584,7 @@ public class ILS {
 				}
 			}
 
-			results = appendResults(results, bigtype, subtype, exposure);
+			results = appendResults(results, bigtype, subtype, exposure, findings);
 		}
 
 		// ** Proprietary camera: Panasonic / Lumix
@@ -408,7 +615,7 @@ public class ILS {
 				}
 			}
 
-			results = appendResults(results, bigtype, subtype, exposure);
+			results = appendResults(results, bigtype, subtype, exposure, findings);
 		}
 
 
@@ -435,7 +642,7 @@ public class ILS {
 				}
 			}
 
-			results = appendResults(results, bigtype, subtype, exposure);
+			results = appendResults(results, bigtype, subtype, exposure, findings);
 		}
 
 		// ** Proprietary camera: OlympusEquipment
@@ -464,7 +671,7 @@ public class ILS {
 				}
 			}
 
-			results = appendResults(results, bigtype, subtype, exposure);
+			results = appendResults(results, bigtype, subtype, exposure, findings);
 		}
 
 
@@ -491,7 +698,7 @@ public class ILS {
 				}
 			}
 
-			results = appendResults(results, bigtype, subtype, exposure);
+			results = appendResults(results, bigtype, subtype, exposure, findings);
 		}
 
 
@@ -519,7 +726,7 @@ public class ILS {
 				}
 			}
 
-			results = appendResults(results, bigtype, subtype, exposure);
+			results = appendResults(results, bigtype, subtype, exposure, findings);
 		}
 
 
@@ -548,7 +755,7 @@ public class ILS {
 				}
 			}
 
-			results = appendResults(results, bigtype, subtype, exposure);
+			results = appendResults(results, bigtype, subtype, exposure, findings);
 		}
 
 
@@ -574,7 +781,7 @@ public class ILS {
 				}
 			}
 
-			results = appendResults(results, bigtype, subtype, exposure);
+			results = appendResults(results, bigtype, subtype, exposure, findings);
 		}
 		
 		if (results[0].length() > 0) {
@@ -585,6 +792,28 @@ public class ILS {
 
 
     
+	/** Scans the base64 images embedded in a text file, such as a saved HTML page or
+	 * JSON response, and lists the results of each one by its offset in the file.
+	 *
+	 * @return the results, or null when the file holds no inline image at all
+	 */
+    private static String scanInlineImages(byte[] data, boolean usehtml)   {
+		List<InlineImageFinder.InlineImage> images = InlineImageFinder.find(data, 0, data.length);
+		if (images.isEmpty()) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (InlineImageFinder.InlineImage image : images) {
+			ScanResult r = scan(new BufferedInputStream(image.open()));
+			if (r.isEmpty()) {
+				continue;
+			}
+			sb.append("\n  inline ").append(image.getFormat()).append(" at offset ").append(image.getOffset()).append(" : ");
+			sb.append(usehtml ? r.getHtml() : r.getText());
+		}
+		return sb.toString();
+	}
+
     public static void main(String[] args) throws Exception {
 		boolean html = false;
     	if (args.length == 0){
@@ -592,6 +821,7 @@ public class ILS {
     		System.out.println("Usage: java ILS.class [-h|-t] file1.jpg file2.png file3.txt [...]");
     		System.out.println("\t-h : optional specifer to output results in HTML format");
     		System.out.println("\t-t : optional specifer to output results in plain text format");
+    		System.out.println("\t-s : scan the built-in sample images, e.g. as a self-test or a training run");
     		return;
     	}
     	for (String s: args) {
@@ -603,6 +833,14 @@ public class ILS {
 				html=false;
 				continue;
 			}
+			if (s.equals("-s")) {
+				for (byte[] sample : SyntheticImages.corpus()) {
+					System.out.print("Processing sample " + ImageFormat.detect(sample) + " : ");
+					String res = scanForLocationInImage(sample, html);
+					System.out.println(res.length() == 0 ? "None" : res);
+				}
+				continue;
+			}
             try {
 				System.out.print("Processing " + s + " : ");
 
@@ -613,7 +851,24 @@ public class ILS {
 				fis.read(data);
 				fis.close();
 				
-				String res = scanForLocationInImage(data, html);
+				if (ContentDecoder.isGzip(data, 0, data.length)) {
+					// e.g. photo.jpg.gz; only inflated up to the image data
+					byte[] prefix = ContentDecoder.readUntilPayload(
+							ContentDecoder.open(data, 0, data.length, "gzip"), Integer.MAX_VALUE);
+					if (prefix != null) {
+						data = prefix;
+					}
+				}
+
+				// ImageFormat only knows the formats the proxy scans; PSD, GIF, BMP and the
+				// raw formats are still read whole when the file has no inline images
+				String res = null;
+				if (ImageFormat.detect(data) == ImageFormat.UNKNOWN) {
+					res = scanInlineImages(data, html);
+				}
+				if (res == null) {
+					res = scanForLocationInImage(data, html);
+				}
 				if (0 == res.length())  {
 					res = "None";
 				}
@@ -0,0 +1,56 @@
+package com.veggiespam.imagelocationscanner;
+
+/**
+ * The image container formats ILS knows how to walk.  Detection only looks at the
+ * magic bytes at the start of the data, so it is cheap enough to run on every
+ * response before deciding whether a full scan is worth it.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public enum ImageFormat {
+	JPEG, PNG, TIFF, WEBP, UNKNOWN;
+
+	/** Number of bytes needed by {@link #detect} to recognise any format. */
+	public static final int MAGIC_LENGTH = 12;
+
+	/** Identifies the format from the magic bytes at data[off].
+	 *
+	 * @param data buffer holding the image, possibly with other data around it
+	 * @param off start of the image inside data
+	 * @param len number of valid bytes starting at off
+	 * @return the format, or UNKNOWN when the magic bytes match nothing ILS scans
+	 */
+	public static ImageFormat detect(byte[] data, int off, int len) {
+		if (data == null || len < 4 || off < 0 || off + len > data.length) {
+			return UNKNOWN;
+		}
+		int b0 = data[off] & 0xFF;
+		int b1 = data[off + 1] & 0xFF;
+		int b2 = data[off + 2] & 0xFF;
+		int b3 = data[off + 3] & 0xFF;
+
+		if (b0 == 0xFF && b1 == 0xD8 && b2 == 0xFF) {
+			return JPEG;
+		}
+		if (b0 == 0x89 && b1 == 'P' && b2 == 'N' && b3 == 'G') {
+			return PNG;
+		}
+		if ((b0 == 'I' && b1 == 'I' && b2 == 42 && b3 == 0)
+				|| (b0 == 'M' && b1 == 'M' && b2 == 0 && b3 == 42)) {
+			return TIFF;
+		}
+		if (len >= MAGIC_LENGTH && b0 == 'R' && b1 == 'I' && b2 == 'F' && b3 == 'F'
+				&& data[off + 8] == 'W' && data[off + 9] == 'E' && data[off + 10] == 'B' && data[off + 11] == 'P') {
+			return WEBP;
+		}
+		return UNKNOWN;
+	}
+
+	/** Convenience for a whole buffer. */
+	public static ImageFormat detect(byte[] data) {
+		return data == null ? UNKNOWN : detect(data, 0, data.length);
+	}
+}
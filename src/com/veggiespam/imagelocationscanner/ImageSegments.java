@@ -0,0 +1,311 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+/**
+ * Locates the metadata-carrying segments of an image without parsing them.  Only the
+ * container structure is walked (JPEG marker segments, PNG chunks, RIFF chunks), so
+ * the cost is a handful of bounds checks per segment regardless of the image size.
+ * The offsets are absolute positions in the array that was passed to {@link #locate},
+ * which lets callers highlight or copy the regions without rebasing them.
+ *
+ * TIFF keeps its IFDs wherever the writer chose to put them, so the whole TIFF is
+ * reported as a single metadata region.
+ * <p>
+ * On request the walk also fingerprints the image data alone: the JPEG scans from the
+ * first SOS to EOI, the contents of the PNG IDAT chunks, the WebP VP8, VP8L, ALPH and
+ * ANMF chunks.  Copies of a photo that differ only in their metadata (the original, a
+ * stripped copy, a re-tagged copy) get the same fingerprint.  The walker is positioned
+ * on those bytes anyway, so this adds one CRC pass over the pixel data and nothing
+ * else.  TIFF has no fingerprint.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public final class ImageSegments {
+
+	/** JPEG markers that carry metadata.  APPn covers Exif, XMP (APP1) and IPTC (APP13). */
+	public static final int JPEG_APP0 = 0xE0;
+	public static final int JPEG_APP1 = 0xE1;
+	public static final int JPEG_APP13 = 0xED;
+	public static final int JPEG_APP15 = 0xEF;
+	public static final int JPEG_COM = 0xFE;
+	public static final int JPEG_SOS = 0xDA;
+	public static final int JPEG_EOI = 0xD9;
+
+	/** PNG and RIFF chunk types, packed big-endian like they appear in the file. */
+	public static final int PNG_IDAT = fourcc("IDAT");
+	public static final int PNG_IEND = fourcc("IEND");
+	public static final int PNG_TEXT = fourcc("tEXt");
+	public static final int PNG_ZTXT = fourcc("zTXt");
+	public static final int PNG_ITXT = fourcc("iTXt");
+	public static final int PNG_EXIF = fourcc("eXIf");
+	public static final int WEBP_EXIF = fourcc("EXIF");
+	public static final int WEBP_XMP = fourcc("XMP ");
+	public static final int WEBP_VP8 = fourcc("VP8 ");
+	public static final int WEBP_VP8L = fourcc("VP8L");
+	public static final int WEBP_ALPH = fourcc("ALPH");
+	public static final int WEBP_ANMF = fourcc("ANMF");
+
+	/** The 8 byte PNG signature. */
+	public static final int PNG_SIGNATURE_LENGTH = 8;
+	/** RIFF header: "RIFF", size, "WEBP". */
+	public static final int RIFF_HEADER_LENGTH = 12;
+
+	private final ImageFormat format;
+	private final int start;
+	private final int end;
+	private int count = 0;
+	private int[] offsets = new int[4];
+	private int[] lengths = new int[4];
+	private int[] types = new int[4];
+	private int payloadOffset = -1;
+	/** Running fingerprint of the image data; null unless asked for. */
+	private CRC32 payloadCrc;
+	private Adler32 payloadAdler;
+	private long payloadLength = 0;
+
+	private ImageSegments(ImageFormat format, int start, int end) {
+		this.format = format;
+		this.start = start;
+		this.end = end;
+	}
+
+	/** Walks the container structure of the image stored in data[off..off+len).
+	 * Never throws on truncated or corrupt input; it simply stops walking.
+	 *
+	 * @return the located segments; for UNKNOWN formats the list is empty
+	 */
+	public static ImageSegments locate(byte[] data, int off, int len) {
+		return locate(data, off, len, false);
+	}
+
+	/** locate(), and with fingerprint also hashes the image data on the way; see
+	 * {@link #getPayloadFingerprint}. */
+	public static ImageSegments locate(byte[] data, int off, int len, boolean fingerprint) {
+		ImageFormat format = ImageFormat.detect(data, off, len);
+		ImageSegments s = new ImageSegments(format, off, off + len);
+		if (fingerprint && format != ImageFormat.TIFF) {
+			s.payloadCrc = new CRC32();
+			s.payloadAdler = new Adler32();
+		}
+		switch (format) {
+			case JPEG: s.walkJpeg(data); break;
+			case PNG:  s.walkPng(data);  break;
+			case WEBP: s.walkWebp(data); break;
+			case TIFF: s.add(off, len, 0); break;
+			default: break;
+		}
+		return s;
+	}
+
+	public static ImageSegments locate(byte[] data) {
+		return locate(data, 0, data.length);
+	}
+
+	private void walkJpeg(byte[] data) {
+		int pos = start + 2;
+		while (pos + 4 <= end) {
+			if ((data[pos] & 0xFF) != 0xFF) {
+				return;  // lost sync, corrupt file
+			}
+			int marker = data[pos + 1] & 0xFF;
+			if (marker == 0xFF) {
+				pos++;    // fill byte
+				continue;
+			}
+			if (marker == 0xD8 || marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+				pos += 2; // stand-alone markers have no length
+				continue;
+			}
+			if (marker == JPEG_EOI) {
+				return;
+			}
+			int segLength = u16be(data, pos + 2);
+			if (marker == JPEG_SOS) {
+				payloadOffset = pos;
+				if (payloadCrc != null) {
+					hash(data, pos, jpegEnd(data, pos) - pos);
+				}
+				return;
+			}
+			if (segLength < 2) {
+				return;
+			}
+			if ((marker >= JPEG_APP0 && marker <= JPEG_APP15) || marker == JPEG_COM) {
+				add(pos, Math.min(2 + segLength, end - pos), marker);
+			}
+			pos += 2 + segLength;
+		}
+	}
+
+	private void walkPng(byte[] data) {
+		int pos = start + PNG_SIGNATURE_LENGTH;
+		while (pos + 8 <= end) {
+			long chunkLength = u32be(data, pos);
+			int type = u32be(data, pos + 4);
+			long total = 12 + chunkLength;  // length, type, data, crc
+			if (chunkLength < 0 || total > Integer.MAX_VALUE) {
+				return;
+			}
+			if (type == PNG_IDAT) {
+				if (payloadOffset < 0) {
+					payloadOffset = pos;
+				}
+				if (payloadCrc != null) {
+					hash(data, pos + 8, (int) Math.min(chunkLength, end - pos - 8));
+				}
+			} else if (type == PNG_TEXT || type == PNG_ZTXT || type == PNG_ITXT || type == PNG_EXIF) {
+				add(pos, (int) Math.min(total, end - pos), type);
+			} else if (type == PNG_IEND) {
+				return;
+			}
+			if (total > end - pos) {
+				return;  // truncated, or a length that would run pos past the end and wrap
+			}
+			pos += (int) total;
+		}
+	}
+
+	private void walkWebp(byte[] data) {
+		int pos = start + RIFF_HEADER_LENGTH;
+		while (pos + 8 <= end) {
+			int type = u32be(data, pos);
+			long chunkLength = u32le(data, pos + 4) & 0xFFFFFFFFL;
+			long total = 8 + chunkLength + (chunkLength & 1);  // chunks are padded to even sizes
+			if (total > Integer.MAX_VALUE) {
+				return;
+			}
+			if (type == WEBP_VP8 || type == WEBP_VP8L || type == WEBP_ANMF || type == WEBP_ALPH) {
+				if (payloadOffset < 0 && type != WEBP_ALPH) {
+					payloadOffset = pos;
+				}
+				if (payloadCrc != null) {
+					hash(data, pos + 8, (int) Math.min(chunkLength, end - pos - 8));
+				}
+			} else if (type == WEBP_EXIF || type == WEBP_XMP) {
+				add(pos, (int) Math.min(total, end - pos), type);
+			}
+			if (total > end - pos) {
+				return;  // truncated, or a length that would run pos past the end and wrap
+			}
+			pos += (int) total;
+		}
+	}
+
+	/** End of the JPEG image data: just past the last EOI, or the end of the buffer when
+	 * there is none.  Searched from the back, so trailers appended after EOI are left out
+	 * without walking the entropy-coded data. */
+	private int jpegEnd(byte[] data, int sos) {
+		for (int p = end - 2; p > sos; p--) {
+			if ((data[p] & 0xFF) == 0xFF && (data[p + 1] & 0xFF) == JPEG_EOI) {
+				return p + 2;
+			}
+		}
+		return end;
+	}
+
+	private void hash(byte[] data, int off, int len) {
+		if (len > 0) {
+			payloadCrc.update(data, off, len);
+			payloadAdler.update(data, off, len);
+			payloadLength += len;
+		}
+	}
+
+	private void add(int offset, int length, int type) {
+		if (count == offsets.length) {
+			int n = count * 2;
+			offsets = java.util.Arrays.copyOf(offsets, n);
+			lengths = java.util.Arrays.copyOf(lengths, n);
+			types = java.util.Arrays.copyOf(types, n);
+		}
+		offsets[count] = offset;
+		lengths[count] = length;
+		types[count] = type;
+		count++;
+	}
+
+	public ImageFormat getFormat() {
+		return format;
+	}
+
+	/** Number of metadata segments found. */
+	public int size() {
+		return count;
+	}
+
+	/** Absolute offset of segment i, including its marker / chunk header. */
+	public int getOffset(int i) {
+		return offsets[i];
+	}
+
+	/** Length of segment i, including its marker / chunk header. */
+	public int getLength(int i) {
+		return lengths[i];
+	}
+
+	/** JPEG marker (0xE1, ...) or packed chunk type of segment i; 0 for TIFF. */
+	public int getType(int i) {
+		return types[i];
+	}
+
+	/** Absolute offset of the first pixel-data structure (JPEG SOS, PNG IDAT,
+	 * WebP VP8/VP8L/ANMF), or -1 when it was not reached. */
+	public int getPayloadOffset() {
+		return payloadOffset;
+	}
+
+	/** Fingerprint of the image data without the metadata, the same for every copy of a
+	 * picture whatever metadata it carries.  Null unless locate() was asked for it, for
+	 * TIFF, and when no image data was reached. */
+	public ContentHash getPayloadFingerprint() {
+		if (payloadCrc == null || payloadLength == 0) {
+			return null;
+		}
+		return new ContentHash((payloadCrc.getValue() << 32) | payloadAdler.getValue(), (int) Math.min(payloadLength, Integer.MAX_VALUE));
+	}
+
+	/** Total bytes covered by the metadata segments. */
+	public int getMetadataLength() {
+		int total = 0;
+		for (int i = 0; i < count; i++) {
+			total += lengths[i];
+		}
+		return total;
+	}
+
+	/** True when there is no segment that could carry metadata, e.g. a stripped image. */
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/** Returns the segments as [start, end) pairs shifted by base, the layout Burp's markers use. */
+	public java.util.List<int[]> toMarkers(int base) {
+		java.util.List<int[]> markers = new java.util.ArrayList<int[]>(count);
+		for (int i = 0; i < count; i++) {
+			markers.add(new int[] { base + offsets[i], base + offsets[i] + lengths[i] });
+		}
+		return markers;
+	}
+
+
+	static int fourcc(String s) {
+		return (s.charAt(0) << 24) | (s.charAt(1) << 16) | (s.charAt(2) << 8) | s.charAt(3);
+	}
+
+	static int u16be(byte[] d, int p) {
+		return ((d[p] & 0xFF) << 8) | (d[p + 1] & 0xFF);
+	}
+
+	static int u32be(byte[] d, int p) {
+		return ((d[p] & 0xFF) << 24) | ((d[p + 1] & 0xFF) << 16) | ((d[p + 2] & 0xFF) << 8) | (d[p + 3] & 0xFF);
+	}
+
+	static int u32le(byte[] d, int p) {
+		return (d[p] & 0xFF) | ((d[p + 1] & 0xFF) << 8) | ((d[p + 2] & 0xFF) << 16) | ((d[p + 3] & 0xFF) << 24);
+	}
+}
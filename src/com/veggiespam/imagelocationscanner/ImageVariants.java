@@ -0,0 +1,312 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Images with metadata in every spot ILS reads, for fuzzing upload endpoints: each
+ * format (JPEG, PNG, WebP, TIFF) with text in Exif (plus a GPS position), XMP, IPTC
+ * or the makernote of one of the vendors in {@link SyntheticImages.Maker}.
+ * <p>
+ * The text comes from a pattern: {f} and {p} stand for the format and placement,
+ * {n} for a counter of COUNTER_DIGITS digits.  Each variant is built once with
+ * SyntheticImages and the offsets of the counter (and of the GPS seconds) are noted;
+ * after that an image is a copy of the template with those bytes overwritten, plus a
+ * new CRC for PNG.  Nothing is encoded or laid out per image, so a generator can
+ * hand out hundreds of thousands of images a second.
+ * <p>
+ * Only combinations metadata-extractor reads are offered: PNG carries XMP only, WebP
+ * no IPTC.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public final class ImageVariants {
+
+	public static final String FORMAT = "{f}";
+	public static final String PLACEMENT = "{p}";
+	public static final String COUNTER = "{n}";
+	public static final int COUNTER_DIGITS = 8;
+	private static final long COUNTER_RANGE = 100000000L;
+
+	/** GPS seconds of the template; build() replaces them. */
+	private static final int LATITUDE_SECONDS = 123456;
+	private static final int LONGITUDE_SECONDS = 234567;
+	private static final int SECONDS_RANGE = 60 * SyntheticImages.SECONDS_DENOMINATOR;
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** Where the text goes. */
+	public enum Placement {
+		EXIF_GPS("exif", "Exif ImageDescription and GPS position", null),
+		XMP("xmp", "XMP aux:SerialNumber", null),
+		IPTC("iptc", "IPTC City", null),
+		CANON("canon", null, SyntheticImages.Maker.CANON),
+		NIKON("nikon", null, SyntheticImages.Maker.NIKON),
+		OLYMPUS("olympus", null, SyntheticImages.Maker.OLYMPUS),
+		PANASONIC("panasonic", null, SyntheticImages.Maker.PANASONIC),
+		SIGMA("sigma", null, SyntheticImages.Maker.SIGMA),
+		FUJIFILM("fujifilm", null, SyntheticImages.Maker.FUJIFILM);
+
+		private final String key;
+		private final String description;
+		private final SyntheticImages.Maker maker;
+
+		Placement(String key, String description, SyntheticImages.Maker maker) {
+			this.key = key;
+			this.description = (maker == null) ? description
+					: maker.getMake() + " makernote " + maker.getTagName();
+			this.maker = maker;
+		}
+
+		/** Short lower-case name, what {p} expands to. */
+		public String getKey() {
+			return key;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+	}
+
+	/** One format and placement, ready to stamp out images. */
+	public static final class Variant {
+		private final ImageFormat format;
+		private final Placement placement;
+		private final String text;
+		private final byte[] template;
+		/** Offsets of the counter digits; empty without {n}. */
+		private final int[] counterAt;
+		private final int latitudeAt;
+		private final int longitudeAt;
+		/** The PNG chunk holding the text, for its CRC; -1 for other formats. */
+		private final int chunkAt;
+
+		private Variant(ImageFormat format, Placement placement, String text, byte[] template,
+				int[] counterAt, int latitudeAt, int longitudeAt, int chunkAt) {
+			this.format = format;
+			this.placement = placement;
+			this.text = text;
+			this.template = template;
+			this.counterAt = counterAt;
+			this.latitudeAt = latitudeAt;
+			this.longitudeAt = longitudeAt;
+			this.chunkAt = chunkAt;
+		}
+
+		public ImageFormat getFormat() {
+			return format;
+		}
+
+		public Placement getPlacement() {
+			return placement;
+		}
+
+		/** The text with the counter at zero. */
+		public String getText() {
+			return text;
+		}
+
+		/** Image number n: the counter is n modulo 10^COUNTER_DIGITS, and for EXIF_GPS the
+		 * GPS seconds follow n too, so neighbouring images differ in position. */
+		public byte[] build(long n) {
+			byte[] image = template.clone();
+			long c = n % COUNTER_RANGE;
+			for (int at : counterAt) {
+				long v = c;
+				for (int i = COUNTER_DIGITS - 1; i >= 0; i--) {
+					image[at + i] = (byte) ('0' + (v % 10));
+					v /= 10;
+				}
+			}
+			if (latitudeAt >= 0) {
+				putLe32(image, latitudeAt, (int) (n % SECONDS_RANGE));
+				putLe32(image, longitudeAt, (int) ((n / SECONDS_RANGE) % SECONDS_RANGE));
+			}
+			if (chunkAt >= 0) {
+				int length = ImageSegments.u32be(image, chunkAt);
+				CRC32 crc = new CRC32();
+				crc.update(image, chunkAt + 4, 4 + length);
+				int v = (int) crc.getValue();
+				int at = chunkAt + 8 + length;
+				image[at] = (byte) (v >> 24);
+				image[at + 1] = (byte) (v >> 16);
+				image[at + 2] = (byte) (v >> 8);
+				image[at + 3] = (byte) v;
+			}
+			return image;
+		}
+	}
+
+	private ImageVariants() {
+		// static helpers only
+	}
+
+	/** True when metadata-extractor reads the placement in the format. */
+	public static boolean supports(ImageFormat format, Placement placement) {
+		switch (format) {
+			case JPEG:
+			case TIFF:
+				return true;
+			case PNG:
+				return placement == Placement.XMP;
+			case WEBP:
+				return placement != Placement.IPTC;
+			default:
+				return false;
+		}
+	}
+
+	/** Every supported variant, format by format, with text from pattern. */
+	public static List<Variant> all(String pattern) {
+		List<Variant> all = new ArrayList<Variant>();
+		for (ImageFormat f : ImageFormat.values()) {
+			for (Placement p : Placement.values()) {
+				if (supports(f, p)) {
+					all.add(of(f, p, pattern));
+				}
+			}
+		}
+		return all;
+	}
+
+	/** The variant for one format and placement.
+	 *
+	 * @throws IllegalArgumentException if the combination is not supported
+	 */
+	public static Variant of(ImageFormat format, Placement placement, String pattern) {
+		if (! supports(format, placement)) {
+			throw new IllegalArgumentException(placement + " in " + format + " is not supported");
+		}
+		String text = pattern.replace(FORMAT, format.name().toLowerCase(java.util.Locale.ROOT))
+				.replace(PLACEMENT, placement.key);
+		int counter = text.indexOf(COUNTER);
+		String prefix = (counter < 0) ? text : text.substring(0, counter);
+		String suffix = (counter < 0) ? "" : text.substring(counter + COUNTER.length());
+		String zero = (counter < 0) ? "" : String.format("%0" + COUNTER_DIGITS + "d", 0);
+		text = prefix + zero + suffix;
+
+		double latitude = Double.NaN;
+		double longitude = Double.NaN;
+		if (placement == Placement.EXIF_GPS) {
+			latitude = 40 + 18 / 60.0 + LATITUDE_SECONDS / (3600.0 * SyntheticImages.SECONDS_DENOMINATOR);
+			longitude = -(74 + 39 / 60.0 + LONGITUDE_SECONDS / (3600.0 * SyntheticImages.SECONDS_DENOMINATOR));
+		}
+		byte[] image;
+		byte[] exif = null;
+		String xmp = null;
+		byte[] iptc = null;
+		switch (placement) {
+			case EXIF_GPS:
+				exif = SyntheticImages.exif(latitude, longitude, text);
+				break;
+			case XMP:
+				xmp = SyntheticImages.xmp(SyntheticImages.SAMPLE_LATITUDE, SyntheticImages.SAMPLE_LONGITUDE, escape(text));
+				break;
+			case IPTC:
+				iptc = SyntheticImages.iptc(text);
+				break;
+			default:
+				exif = SyntheticImages.exif(Double.NaN, Double.NaN, null, placement.maker, text);
+				break;
+		}
+		switch (format) {
+			case JPEG:
+				image = SyntheticImages.jpeg(exif, iptc, xmp);
+				break;
+			case PNG:
+				image = SyntheticImages.png(xmp);
+				break;
+			case WEBP:
+				image = SyntheticImages.webp(exif, xmp);
+				break;
+			default:
+				image = SyntheticImages.tiff(latitude, longitude, placement == Placement.EXIF_GPS ? text : null,
+						placement.maker, text, xmp, iptc);
+				break;
+		}
+
+		int[] counterAt = new int[0];
+		if (counter >= 0) {
+			boolean xml = placement == Placement.XMP;
+			byte[] encoded = (xml ? escape(text) : text).getBytes(xml ? UTF_8 : ISO_8859_1);
+			int digitsAt = (xml ? escape(prefix) : prefix).getBytes(xml ? UTF_8 : ISO_8859_1).length;
+			counterAt = occurrences(image, encoded);
+			for (int i = 0; i < counterAt.length; i++) {
+				counterAt[i] += digitsAt;
+			}
+		}
+		int latitudeAt = -1;
+		int longitudeAt = -1;
+		if (placement == Placement.EXIF_GPS) {
+			latitudeAt = first(image, seconds(LATITUDE_SECONDS));
+			longitudeAt = first(image, seconds(LONGITUDE_SECONDS));
+		}
+		int chunkAt = -1;
+		if (format == ImageFormat.PNG && counterAt.length > 0) {
+			chunkAt = chunkHolding(image, counterAt[0]);
+		}
+		return new Variant(format, placement, text, image, counterAt, latitudeAt, longitudeAt, chunkAt);
+	}
+
+	/** Start offsets of every occurrence of pattern in data. */
+	private static int[] occurrences(byte[] data, byte[] pattern) {
+		BytePattern p = new BytePattern(pattern);
+		List<Integer> found = new ArrayList<Integer>(2);
+		int at = p.indexOf(data, 0, data.length);
+		while (at >= 0) {
+			found.add(Integer.valueOf(at));
+			at = p.indexOf(data, at + pattern.length, data.length);
+		}
+		if (found.isEmpty()) {
+			throw new IllegalStateException("text not found in the template");
+		}
+		int[] offsets = new int[found.size()];
+		for (int i = 0; i < offsets.length; i++) {
+			offsets[i] = found.get(i).intValue();
+		}
+		return offsets;
+	}
+
+	private static int first(byte[] data, byte[] pattern) {
+		return occurrences(data, pattern)[0];
+	}
+
+	/** Offset of the PNG chunk whose data holds offset. */
+	private static int chunkHolding(byte[] png, int offset) {
+		int pos = ImageSegments.PNG_SIGNATURE_LENGTH;
+		while (pos + 12 <= png.length) {
+			int length = ImageSegments.u32be(png, pos);
+			if (offset < pos + 8 + length) {
+				return pos;
+			}
+			pos += 12 + length;
+		}
+		throw new IllegalStateException("offset past the last chunk");
+	}
+
+	/** A GPS seconds RATIONAL as SyntheticImages writes it. */
+	private static byte[] seconds(int numerator) {
+		byte[] b = new byte[8];
+		putLe32(b, 0, numerator);
+		putLe32(b, 4, SyntheticImages.SECONDS_DENOMINATOR);
+		return b;
+	}
+
+	private static void putLe32(byte[] b, int at, int v) {
+		b[at] = (byte) v;
+		b[at + 1] = (byte) (v >> 8);
+		b[at + 2] = (byte) (v >> 16);
+		b[at + 3] = (byte) (v >> 24);
+	}
+
+	/** For an XML attribute value. */
+	private static String escape(String s) {
+		return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+}
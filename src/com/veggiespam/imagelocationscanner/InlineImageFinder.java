@@ -0,0 +1,115 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds images embedded as base64 text in HTML, CSS, JSON or any other text body:
+ * data: URIs such as data:image/jpeg;base64,... as well as bare base64 fields of
+ * API responses.  The body is walked once; each long enough run of base64 characters
+ * has only its first 16 characters decoded to check for image magic bytes.  Matches
+ * are offsets into the original buffer, and {@link InlineImage#open()} decodes lazily,
+ * so no string or decoded copy of the body is ever built.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public final class InlineImageFinder {
+
+	/** Shorter runs cannot hold an image with metadata worth reporting (about 200 bytes). */
+	public static final int MIN_RUN_LENGTH = 256;
+
+	/** Characters decoded to identify the image, enough for ImageFormat.MAGIC_LENGTH bytes. */
+	private static final int MAGIC_CHARS = 16;
+
+	/** One base64-encoded image inside a text body. */
+	public static final class InlineImage {
+		private final byte[] data;
+		private final int offset;
+		private final int length;
+		private final boolean escaped;
+		private final ImageFormat format;
+
+		InlineImage(byte[] data, int offset, int length, boolean escaped, ImageFormat format) {
+			this.data = data;
+			this.offset = offset;
+			this.length = length;
+			this.escaped = escaped;
+			this.format = format;
+		}
+
+		/** Absolute offset of the base64 text in the buffer that was searched. */
+		public int getOffset() {
+			return offset;
+		}
+
+		/** Length of the base64 text, not of the decoded image. */
+		public int getLength() {
+			return length;
+		}
+
+		/** Upper bound of the decoded size. */
+		public int getDecodedLength() {
+			return (int) (length * 3L / 4);
+		}
+
+		public ImageFormat getFormat() {
+			return format;
+		}
+
+		/** Returns a stream that decodes the image as it is read. */
+		public InputStream open() {
+			return new Base64InputStream(data, offset, offset + length, escaped);
+		}
+	}
+
+	private InlineImageFinder() {
+		// static helpers only
+	}
+
+	/** Lists the base64 runs in data[start..end) that decode to an image ILS can scan. */
+	public static List<InlineImage> find(byte[] data, int start, int end) {
+		List<InlineImage> images = new ArrayList<InlineImage>();
+		int pos = start;
+		while (pos < end) {
+			if (! Base64InputStream.isRunChar(data[pos])) {
+				pos++;
+				continue;
+			}
+			int runStart = pos;
+			boolean escaped = false;
+			while (pos < end && Base64InputStream.isRunChar(data[pos])) {
+				if (data[pos] == '\\') {
+					escaped = true;
+				}
+				pos++;
+			}
+			if (pos - runStart >= MIN_RUN_LENGTH) {
+				ImageFormat format = detect(data, runStart, pos, escaped);
+				if (format != ImageFormat.UNKNOWN) {
+					images.add(new InlineImage(data, runStart, pos - runStart, escaped, format));
+				}
+			}
+		}
+		return images;
+	}
+
+	private static ImageFormat detect(byte[] data, int from, int to, boolean escaped) {
+		byte[] magic = new byte[ImageFormat.MAGIC_LENGTH];
+		InputStream in = new Base64InputStream(data, from, Math.min(to, from + MAGIC_CHARS + (escaped ? 8 : 0)), escaped);
+		int n = 0;
+		try {
+			int r;
+			while (n < magic.length && (r = in.read(magic, n, magic.length - n)) > 0) {
+				n += r;
+			}
+		} catch (IOException e) {
+			return ImageFormat.UNKNOWN;  // cannot happen on an array
+		}
+		return ImageFormat.detect(magic, 0, n);
+	}
+}
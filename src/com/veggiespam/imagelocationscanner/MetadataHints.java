@@ -0,0 +1,109 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The cheapest useful check: does an image contain the structures that carry location
+ * data, without decoding any of them?  Only the container walk of {@link ImageSegments}
+ * and a look at the tag numbers of the first TIFF directory are done, a few hundred
+ * byte reads per image.  Used when the extension is overloaded and a full parse of
+ * every image is not affordable; a hint means "probably", not a finding.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public final class MetadataHints {
+
+	public static final String EXIF_GPS = "Exif GPS directory";
+	public static final String XMP_LOCATION = "XMP location fields";
+	public static final String IPTC = "IPTC block";
+
+	/** Exif tag pointing at the GPS IFD. */
+	private static final int GPS_IFD_TAG = 0x8825;
+
+	private static final BytePattern EXIF_HEADER = BytePattern.ascii("Exif\0\0");
+	private static final BytePattern XMP_GPS = BytePattern.ascii("GPSLatitude");
+	private static final BytePattern XMP_CITY = BytePattern.ascii("photoshop:City");
+	private static final BytePattern XMP_IPTC_LOCATION = BytePattern.ascii("Iptc4xmpCore:Location");
+
+	private MetadataHints() {
+		// static helpers only
+	}
+
+	/** Lists the location-carrying structures present in data[off..off+len), each once. */
+	public static List<String> find(byte[] data, int off, int len) {
+		List<String> hints = new ArrayList<String>(3);
+		ImageSegments s = ImageSegments.locate(data, off, len);
+		for (int i = 0; i < s.size(); i++) {
+			int start = s.getOffset(i);
+			int end = start + s.getLength(i);
+			int type = s.getType(i);
+			if (s.getFormat() == ImageFormat.TIFF) {
+				if (hasTag(data, start, end, GPS_IFD_TAG)) {
+					add(hints, EXIF_GPS);
+				}
+			} else if (type == ImageSegments.JPEG_APP1 && EXIF_HEADER.matchesAt(data, start + 4)) {
+				if (hasTag(data, start + 10, end, GPS_IFD_TAG)) {
+					add(hints, EXIF_GPS);
+				}
+			} else if (type == ImageSegments.PNG_EXIF || type == ImageSegments.WEBP_EXIF) {
+				int tiff = EXIF_HEADER.matchesAt(data, start + 8) ? start + 14 : start + 8;
+				if (hasTag(data, tiff, end, GPS_IFD_TAG)) {
+					add(hints, EXIF_GPS);
+				}
+			} else if (type == ImageSegments.JPEG_APP13) {
+				add(hints, IPTC);
+			} else if (XMP_GPS.indexOf(data, start, end) >= 0 || XMP_CITY.indexOf(data, start, end) >= 0
+					|| XMP_IPTC_LOCATION.indexOf(data, start, end) >= 0) {
+				// XMP lives in APP1, iTXt or the WebP "XMP " chunk; the field names are plain text
+				add(hints, XMP_LOCATION);
+			}
+		}
+		return hints;
+	}
+
+	private static void add(List<String> hints, String hint) {
+		if (! hints.contains(hint)) {
+			hints.add(hint);
+		}
+	}
+
+	/** True when the first IFD of the TIFF structure at data[tiff..end) has the given tag. */
+	static boolean hasTag(byte[] data, int tiff, int end, int tag) {
+		if (tiff < 0 || tiff + 8 > end) {
+			return false;
+		}
+		boolean little;
+		if (data[tiff] == 'I' && data[tiff + 1] == 'I') {
+			little = true;
+		} else if (data[tiff] == 'M' && data[tiff + 1] == 'M') {
+			little = false;
+		} else {
+			return false;
+		}
+		long ifd = u32(data, tiff + 4, little) & 0xFFFFFFFFL;
+		if (ifd < 8 || tiff + ifd + 2 > end) {
+			return false;
+		}
+		int pos = tiff + (int) ifd;
+		int entries = u16(data, pos, little);
+		pos += 2;
+		for (int i = 0; i < entries && pos + 12 <= end; i++, pos += 12) {
+			if (u16(data, pos, little) == tag) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int u16(byte[] d, int p, boolean little) {
+		return little ? ((d[p] & 0xFF) | ((d[p + 1] & 0xFF) << 8)) : ImageSegments.u16be(d, p);
+	}
+
+	private static int u32(byte[] d, int p, boolean little) {
+		return little ? ImageSegments.u32le(d, p) : ImageSegments.u32be(d, p);
+	}
+}
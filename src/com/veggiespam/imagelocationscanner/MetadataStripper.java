@@ -0,0 +1,294 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.util.zip.CRC32;
+
+/**
+ * Takes the metadata out of an image without decoding it, for rewriting responses in
+ * transit.  Two ways, both working on the segments ImageSegments found:
+ * <ul>
+ * <li>{@link Mode#ZERO_TAGS} overwrites in place: the GPS IFD is emptied and its values
+ * zeroed, and the serial number and owner tags of the Exif IFD are zeroed; a PNG
+ * eXIf chunk gets a new CRC.  The image keeps its size and every other tag
+ * (orientation, colour space, ...).  Makernotes, XMP and IPTC are left alone.</li>
+ * <li>{@link Mode#DROP_SEGMENTS} leaves out whole segments: APP1 (Exif, XMP) and APP13
+ * (IPTC) of a JPEG, the text and eXIf chunks of a PNG, the EXIF and XMP chunks of a
+ * WebP.  The result is one new array put together with System.arraycopy from the
+ * runs in between.  A TIFF is all IFDs, so it only gets ZERO_TAGS.</li>
+ * </ul>
+ * Either way the cost is a walk of the segment headers and the IFDs, a few
+ * microseconds for a typical photo, and the pixel data is only ever copied as a block.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public final class MetadataStripper {
+
+	public enum Mode {
+		OFF("Off"),
+		ZERO_TAGS("Zero GPS, serial number and owner tags"),
+		DROP_SEGMENTS("Remove metadata segments");
+
+		private final String label;
+
+		Mode(String label) {
+			this.label = label;
+		}
+
+		@Override
+		public String toString() {
+			return label;
+		}
+	}
+
+	private static final int GPS_IFD_TAG = 0x8825;
+	private static final int EXIF_IFD_TAG = 0x8769;
+	/** Exif IFD tags zeroed by ZERO_TAGS: CameraOwnerName, BodySerialNumber, LensSerialNumber. */
+	private static final int[] PERSONAL_TAGS = { 0xA430, 0xA431, 0xA435 };
+	/** Bytes per component of the TIFF types, by type code. */
+	private static final int[] TYPE_SIZES = { 0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8, 4 };
+	/** VP8X flags for EXIF and XMP chunks present. */
+	private static final int VP8X_METADATA_FLAGS = 0x08 | 0x04;
+
+	private MetadataStripper() {
+		// static helpers only
+	}
+
+	/** ZERO_TAGS: clears the GPS IFD and the personal tags of every Exif block of the
+	 * image, in place.
+	 *
+	 * @return the number of tags cleared; 0 when the image had none
+	 */
+	public static int zeroTags(byte[] data, ImageSegments segments) {
+		int cleared = 0;
+		for (int i = 0; i < segments.size(); i++) {
+			int off = segments.getOffset(i);
+			int end = off + segments.getLength(i);
+			int type = segments.getType(i);
+			switch (segments.getFormat()) {
+				case JPEG:
+					if (type == ImageSegments.JPEG_APP1 && startsWith(data, off + 4, end, "Exif\0\0")) {
+						cleared += zeroTiff(data, off + 10, end);
+					}
+					break;
+				case PNG:
+					if (type == ImageSegments.PNG_EXIF) {
+						int n = zeroTiff(data, off + 8, end - 4);
+						if (n > 0) {
+							fixPngCrc(data, off, end);
+						}
+						cleared += n;
+					}
+					break;
+				case WEBP:
+					if (type == ImageSegments.WEBP_EXIF) {
+						// some writers keep the JPEG "Exif\0\0" prefix
+						int tiff = startsWith(data, off + 8, end, "Exif\0\0") ? off + 14 : off + 8;
+						cleared += zeroTiff(data, tiff, end);
+					}
+					break;
+				case TIFF:
+					cleared += zeroTiff(data, off, end);
+					break;
+				default:
+					break;
+			}
+		}
+		return cleared;
+	}
+
+	/** Bytes DROP_SEGMENTS removes from the image; 0 when there is nothing to drop. */
+	public static int droppedLength(ImageSegments segments) {
+		int total = 0;
+		for (int i = 0; i < segments.size(); i++) {
+			if (isDropped(segments.getFormat(), segments.getType(i))) {
+				total += segments.getLength(i);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * DROP_SEGMENTS: head followed by the image in data[off..off+len) without its metadata
+	 * segments.  For a WebP the RIFF size and the VP8X flags are fixed up.
+	 *
+	 * @param head bytes to put in front, e.g. the HTTP headers; may be empty
+	 */
+	public static byte[] drop(byte[] data, int off, int len, ImageSegments segments, byte[] head) {
+		int end = off + len;
+		byte[] out = new byte[head.length + len - droppedLength(segments)];
+		System.arraycopy(head, 0, out, 0, head.length);
+		int pos = head.length;
+		int from = off;
+		for (int i = 0; i < segments.size(); i++) {
+			if (isDropped(segments.getFormat(), segments.getType(i))) {
+				int at = segments.getOffset(i);
+				System.arraycopy(data, from, out, pos, at - from);
+				pos += at - from;
+				from = at + segments.getLength(i);
+			}
+		}
+		System.arraycopy(data, from, out, pos, end - from);
+		if (segments.getFormat() == ImageFormat.WEBP) {
+			int riff = head.length;
+			putLe32(out, riff + 4, out.length - riff - 8);
+			int first = riff + ImageSegments.RIFF_HEADER_LENGTH;
+			if (first + 9 <= out.length && ImageSegments.u32be(out, first) == ImageSegments.fourcc("VP8X")) {
+				out[first + 8] &= ~VP8X_METADATA_FLAGS;
+			}
+		}
+		return out;
+	}
+
+	private static boolean isDropped(ImageFormat format, int type) {
+		switch (format) {
+			case JPEG:
+				return type == ImageSegments.JPEG_APP1 || type == ImageSegments.JPEG_APP13;
+			case PNG:
+			case WEBP:
+				return true;  // ImageSegments only records the metadata chunks
+			default:
+				return false;
+		}
+	}
+
+	/** Walks IFD0 of the TIFF structure in data[tiff..end) to the GPS and Exif IFDs.
+	 * Every offset is checked against [tiff, end) in long arithmetic, so a corrupt or
+	 * hostile offset is skipped instead of zeroing bytes outside the Exif block. */
+	private static int zeroTiff(byte[] data, int tiff, int end) {
+		if (tiff < 0 || tiff + 8 > end) {
+			return 0;
+		}
+		boolean le;
+		if (data[tiff] == 'I' && data[tiff + 1] == 'I') {
+			le = true;
+		} else if (data[tiff] == 'M' && data[tiff + 1] == 'M') {
+			le = false;
+		} else {
+			return 0;
+		}
+		int cleared = 0;
+		int ifd0 = ifd(data, tiff, tiff + 4, end, le);
+		int entries = entries(data, ifd0, end, le);
+		for (int i = 0; i < entries; i++) {
+			int e = ifd0 + 2 + 12 * i;
+			int tag = u16(data, e, le);
+			if (tag == GPS_IFD_TAG) {
+				cleared += clearIfd(data, tiff, ifd(data, tiff, e + 8, end, le), end, le);
+			} else if (tag == EXIF_IFD_TAG) {
+				cleared += zeroPersonal(data, tiff, ifd(data, tiff, e + 8, end, le), end, le);
+			}
+		}
+		return cleared;
+	}
+
+	/** The IFD whose offset is stored at data[at], or -1 when it does not start in [tiff, end). */
+	private static int ifd(byte[] data, int tiff, int at, int end, boolean le) {
+		long ifd = tiff + (u32(data, at, le) & 0xFFFFFFFFL);
+		return (ifd < end) ? (int) ifd : -1;
+	}
+
+	/** Zeroes all values of the IFD and sets its entry count to 0. */
+	private static int clearIfd(byte[] data, int tiff, int ifd, int end, boolean le) {
+		int entries = entries(data, ifd, end, le);
+		if (entries == 0) {
+			return 0;
+		}
+		for (int i = 0; i < entries; i++) {
+			zeroValue(data, tiff, ifd + 2 + 12 * i, end, le);
+		}
+		java.util.Arrays.fill(data, ifd, ifd + 2 + 12 * entries, (byte) 0);
+		if (ifd + 2 + 12 * entries + 4 <= end) {
+			// an IFD of no entries needs its next-IFD link right after the count
+			System.arraycopy(data, ifd + 2 + 12 * entries, data, ifd + 2, 4);
+		}
+		return entries;
+	}
+
+	private static int zeroPersonal(byte[] data, int tiff, int ifd, int end, boolean le) {
+		int cleared = 0;
+		int entries = entries(data, ifd, end, le);
+		for (int i = 0; i < entries; i++) {
+			int e = ifd + 2 + 12 * i;
+			int tag = u16(data, e, le);
+			for (int t : PERSONAL_TAGS) {
+				if (tag == t) {
+					zeroValue(data, tiff, e, end, le);
+					cleared++;
+				}
+			}
+		}
+		return cleared;
+	}
+
+	/** Zeroes the value of the entry at e, inline or where its offset points; an offset
+	 * value that does not fit in [tiff, end) is left alone. */
+	private static void zeroValue(byte[] data, int tiff, int e, int end, boolean le) {
+		int type = u16(data, e + 2, le);
+		long count = u32(data, e + 4, le) & 0xFFFFFFFFL;
+		long size = count * ((type > 0 && type < TYPE_SIZES.length) ? TYPE_SIZES[type] : 1);
+		if (size <= 4) {
+			java.util.Arrays.fill(data, e + 8, e + 12, (byte) 0);
+			return;
+		}
+		long at = tiff + (u32(data, e + 8, le) & 0xFFFFFFFFL);
+		if (size <= end - tiff && at <= end - size) {
+			java.util.Arrays.fill(data, (int) at, (int) (at + size), (byte) 0);
+		}
+	}
+
+	/** Entry count of the IFD at ifd, or 0 when the IFD is -1 or does not fit in data[..end).
+	 * ifd is always at or after the start of the TIFF block, see ifd(). */
+	private static int entries(byte[] data, int ifd, int end, boolean le) {
+		if (ifd < 0 || ifd + 2 > end) {
+			return 0;
+		}
+		int n = u16(data, ifd, le);
+		return (ifd + 2 + 12L * n <= end) ? n : 0;
+	}
+
+	/** Writes the CRC of the PNG chunk at data[off..end) after its data again. */
+	private static void fixPngCrc(byte[] data, int off, int end) {
+		long length = ImageSegments.u32be(data, off) & 0xFFFFFFFFL;
+		if (off + 12 + length != end) {
+			return;  // a chunk cut short has no CRC to fix
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, off + 4, 4 + (int) length);
+		int v = (int) crc.getValue();
+		int at = end - 4;
+		data[at] = (byte) (v >> 24);
+		data[at + 1] = (byte) (v >> 16);
+		data[at + 2] = (byte) (v >> 8);
+		data[at + 3] = (byte) v;
+	}
+
+	private static boolean startsWith(byte[] data, int pos, int end, String s) {
+		if (pos + s.length() > end) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			if (data[pos + i] != (byte) s.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int u16(byte[] d, int p, boolean le) {
+		return le ? ((d[p] & 0xFF) | ((d[p + 1] & 0xFF) << 8)) : ImageSegments.u16be(d, p);
+	}
+
+	private static int u32(byte[] d, int p, boolean le) {
+		return le ? ((d[p] & 0xFF) | ((d[p + 1] & 0xFF) << 8) | ((d[p + 2] & 0xFF) << 16) | ((d[p + 3] & 0xFF) << 24))
+				: ImageSegments.u32be(d, p);
+	}
+
+	private static void putLe32(byte[] b, int at, int v) {
+		b[at] = (byte) v;
+		b[at + 1] = (byte) (v >> 8);
+		b[at + 2] = (byte) (v >> 16);
+		b[at + 3] = (byte) (v >> 24);
+	}
+}
@@ -0,0 +1,142 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick search for many byte patterns at once: one pass over the haystack and
+ * one table lookup per byte, however many patterns there are.  The automaton is a
+ * full DFA (failure links are folded into the transitions at build time) over byte
+ * classes: only bytes that occur in some pattern get a class of their own, so a few
+ * thousand hex tokens need a table of about 20 columns instead of 256.
+ * <p>
+ * Immutable once built; build a new one to add patterns.  BytePattern is faster for
+ * a single pattern.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public final class MultiPattern {
+
+	/** Byte to class; 0 for bytes that are in no pattern. */
+	private final int[] classOf = new int[256];
+	private final int classes;
+	/** next[state * classes + class] */
+	private final int[] next;
+	/** Pattern ending in the state, or -1. */
+	private final int[] match;
+	/** Nearest shorter state on the failure chain that ends a pattern, or -1. */
+	private final int[] matchLink;
+	private final int patterns;
+
+	public MultiPattern(List<byte[]> patternList) {
+		patterns = patternList.size();
+		int n = 1;
+		for (byte[] p : patternList) {
+			if (p.length == 0) {
+				throw new IllegalArgumentException("empty pattern");
+			}
+			for (byte b : p) {
+				if (classOf[b & 0xFF] == 0) {
+					classOf[b & 0xFF] = n++;
+				}
+			}
+		}
+		classes = n;
+
+		// the trie, growing arrays as states are added
+		int capacity = 1;
+		for (byte[] p : patternList) {
+			capacity += p.length;
+		}
+		int[] trie = new int[capacity * classes];
+		int[] ends = new int[capacity];
+		Arrays.fill(ends, -1);
+		int states = 1;
+		for (int i = 0; i < patternList.size(); i++) {
+			int s = 0;
+			for (byte b : patternList.get(i)) {
+				int c = classOf[b & 0xFF];
+				if (trie[s * classes + c] == 0) {
+					trie[s * classes + c] = states++;
+				}
+				s = trie[s * classes + c];
+			}
+			if (ends[s] < 0) {
+				ends[s] = i;  // duplicates report the first
+			}
+		}
+
+		// breadth first: failure links, then the missing transitions through them
+		next = Arrays.copyOf(trie, states * classes);
+		match = Arrays.copyOf(ends, states);
+		matchLink = new int[states];
+		Arrays.fill(matchLink, -1);
+		int[] fail = new int[states];
+		int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+		for (int c = 0; c < classes; c++) {
+			int t = next[c];
+			if (t != 0) {
+				queue[tail++] = t;
+			}
+		}
+		while (head < tail) {
+			int s = queue[head++];
+			int f = fail[s];
+			matchLink[s] = (match[f] >= 0) ? f : matchLink[f];
+			for (int c = 0; c < classes; c++) {
+				int t = next[s * classes + c];
+				if (t != 0 && trie[s * classes + c] != 0) {
+					fail[t] = next[f * classes + c];
+					queue[tail++] = t;
+				} else {
+					next[s * classes + c] = next[f * classes + c];
+				}
+			}
+		}
+	}
+
+	/** Patterns from ASCII strings, e.g. canary tokens. */
+	public static MultiPattern ascii(List<String> strings) {
+		List<byte[]> list = new ArrayList<byte[]>(strings.size());
+		for (String s : strings) {
+			byte[] b = new byte[s.length()];
+			for (int i = 0; i < b.length; i++) {
+				b[i] = (byte) s.charAt(i);
+			}
+			list.add(b);
+		}
+		return new MultiPattern(list);
+	}
+
+	/** Number of patterns, including duplicates. */
+	public int size() {
+		return patterns;
+	}
+
+	/** Indexes of the patterns that occur in data[from..to), each once, in the order their
+	 * first occurrence ends. */
+	public List<Integer> findAll(byte[] data, int from, int to) {
+		List<Integer> found = new ArrayList<Integer>(2);
+		boolean[] seen = null;
+		int s = 0;
+		for (int i = from; i < to; i++) {
+			s = next[s * classes + classOf[data[i] & 0xFF]];
+			for (int m = (match[s] >= 0) ? s : matchLink[s]; m >= 0; m = matchLink[m]) {
+				if (seen == null) {
+					seen = new boolean[patterns];
+				}
+				if (! seen[match[m]]) {
+					seen[match[m]] = true;
+					found.add(Integer.valueOf(match[m]));
+				}
+			}
+		}
+		return found;
+	}
+}
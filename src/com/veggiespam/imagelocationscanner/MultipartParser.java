@@ -0,0 +1,218 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the image files inside a multipart/form-data body without copying it.  Part
+ * boundaries are located with a {@link BytePattern} search and each part's content is
+ * identified by its magic bytes, not by the (client-controlled) Content-Type of the
+ * part.  The result is a list of offsets into the original buffer that can be handed
+ * to ILS.scan(data, offset, length) directly.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public final class MultipartParser {
+
+	private static final BytePattern HEADER_END = BytePattern.ascii("\r\n\r\n");
+
+	/** One image file inside a multipart body. */
+	public static final class Part {
+		private final int offset;
+		private final int length;
+		private final String name;
+		private final String filename;
+		private final ImageFormat format;
+
+		Part(int offset, int length, String name, String filename, ImageFormat format) {
+			this.offset = offset;
+			this.length = length;
+			this.name = name;
+			this.filename = filename;
+			this.format = format;
+		}
+
+		/** Absolute offset of the file content in the buffer that was parsed. */
+		public int getOffset() {
+			return offset;
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+		/** Form field name, or "" when the part has none. */
+		public String getName() {
+			return name;
+		}
+
+		/** File name as sent by the client, or "" when the part has none. */
+		public String getFilename() {
+			return filename;
+		}
+
+		public ImageFormat getFormat() {
+			return format;
+		}
+	}
+
+	private MultipartParser() {
+		// static helpers only
+	}
+
+	/** Extracts the boundary parameter from a multipart Content-Type header value.
+	 *
+	 * @return the boundary, or null if the value is not multipart or has no boundary
+	 */
+	public static String boundaryOf(String contentType) {
+		if (contentType == null || ! contentType.toLowerCase().startsWith("multipart/")) {
+			return null;
+		}
+		int i = contentType.toLowerCase().indexOf("boundary=");
+		if (i < 0) {
+			return null;
+		}
+		String b = contentType.substring(i + 9).trim();
+		if (b.startsWith("\"")) {
+			int end = b.indexOf('"', 1);
+			b = (end < 0) ? b.substring(1) : b.substring(1, end);
+		} else {
+			int end = b.indexOf(';');
+			if (end >= 0) {
+				b = b.substring(0, end).trim();
+			}
+		}
+		return b.length() == 0 ? null : b;
+	}
+
+	/** Lists the parts of data[start..end) whose content is an image ILS can scan.
+	 * A body cut off in the middle of a part still yields that part up to end.
+	 */
+	public static List<Part> findImageParts(byte[] data, int start, int end, String boundary) {
+		List<Part> parts = new ArrayList<Part>();
+		BytePattern delimiter = BytePattern.ascii("\r\n--" + boundary);
+
+		// The first boundary normally has no CRLF in front of it.
+		int pos;
+		if (delimiter.matchesAt(data, start - 2) || matchesDashes(data, start, boundary)) {
+			pos = start + 2 + boundary.length();
+		} else {
+			pos = delimiter.indexOf(data, start, end);
+			if (pos < 0) {
+				return parts;
+			}
+			pos += delimiter.length();
+		}
+
+		while (pos + 2 <= end) {
+			if (data[pos] == '-' && data[pos + 1] == '-') {
+				break;  // closing boundary
+			}
+			int headersEnd = HEADER_END.indexOf(data, pos, end);
+			if (headersEnd < 0) {
+				break;
+			}
+			int contentStart = headersEnd + HEADER_END.length();
+			int next = delimiter.indexOf(data, contentStart, end);
+			int contentEnd = (next < 0) ? end : next;
+
+			ImageFormat format = ImageFormat.detect(data, contentStart, contentEnd - contentStart);
+			if (format != ImageFormat.UNKNOWN) {
+				String headers = ascii(data, pos, headersEnd);
+				parts.add(new Part(contentStart, contentEnd - contentStart,
+						dispositionParam(headers, "name"), dispositionParam(headers, "filename"), format));
+			}
+			if (next < 0) {
+				break;
+			}
+			pos = next + delimiter.length();
+		}
+		return parts;
+	}
+
+	/** The format of the first uploaded file in data[start..end), the first part with a
+	 * filename, by its magic bytes.  Only the small fields in front of it are walked,
+	 * never the file itself, so this is cheap enough for a UI thread.
+	 *
+	 * @return the format, or UNKNOWN when there is no file part or it is not an image
+	 */
+	public static ImageFormat firstFileFormat(byte[] data, int start, int end, String boundary) {
+		BytePattern delimiter = BytePattern.ascii("\r\n--" + boundary);
+		int pos;
+		if (delimiter.matchesAt(data, start - 2) || matchesDashes(data, start, boundary)) {
+			pos = start + 2 + boundary.length();
+		} else {
+			pos = delimiter.indexOf(data, start, end);
+			if (pos < 0) {
+				return ImageFormat.UNKNOWN;
+			}
+			pos += delimiter.length();
+		}
+		while (pos + 2 <= end && ! (data[pos] == '-' && data[pos + 1] == '-')) {
+			int headersEnd = HEADER_END.indexOf(data, pos, end);
+			if (headersEnd < 0) {
+				break;
+			}
+			int contentStart = headersEnd + HEADER_END.length();
+			if (dispositionParam(ascii(data, pos, headersEnd), "filename").length() > 0) {
+				return ImageFormat.detect(data, contentStart, end - contentStart);
+			}
+			int next = delimiter.indexOf(data, contentStart, end);
+			if (next < 0) {
+				break;
+			}
+			pos = next + delimiter.length();
+		}
+		return ImageFormat.UNKNOWN;
+	}
+
+	/** A body that is an image as a whole, e.g. a PUT of a photo or an
+	 * application/octet-stream POST.
+	 *
+	 * @return the body as a single part, or null if it is not an image
+	 */
+	public static Part wholeBody(byte[] data, int start, int end) {
+		ImageFormat format = ImageFormat.detect(data, start, end - start);
+		if (format == ImageFormat.UNKNOWN) {
+			return null;
+		}
+		return new Part(start, end - start, "", "", format);
+	}
+
+	private static boolean matchesDashes(byte[] data, int pos, String boundary) {
+		return BytePattern.ascii("--" + boundary).matchesAt(data, pos);
+	}
+
+	private static String ascii(byte[] data, int from, int to) {
+		StringBuilder sb = new StringBuilder(to - from);
+		for (int i = from; i < to; i++) {
+			sb.append((char) (data[i] & 0xFF));
+		}
+		return sb.toString();
+	}
+
+	/** Pulls name="..." or filename="..." out of the part headers. */
+	private static String dispositionParam(String headers, String param) {
+		String lower = headers.toLowerCase();
+		int i = -1;
+		do {
+			i = lower.indexOf(param + "=", i + 1);
+		} while (i > 0 && Character.isLetterOrDigit(lower.charAt(i - 1)));  // "name" inside "filename"
+		if (i < 0) {
+			return "";
+		}
+		int v = i + param.length() + 1;
+		if (v < headers.length() && headers.charAt(v) == '"') {
+			int end = headers.indexOf('"', v + 1);
+			return (end < 0) ? headers.substring(v + 1) : headers.substring(v + 1, end);
+		}
+		int end = v;
+		while (end < headers.length() && headers.charAt(end) != ';' && headers.charAt(end) != '\r') {
+			end++;
+		}
+		return headers.substring(v, end).trim();
+	}
+}
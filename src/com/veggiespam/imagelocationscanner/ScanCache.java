@@ -0,0 +1,169 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache of ILS results keyed by the {@link ContentHash} of the
+ * image body.  The same avatar or logo is usually served hundreds of times during an
+ * assessment, so remembering "no findings" is the common case and the main win.
+ * All methods are synchronized; the critical sections are a single map operation.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public class ScanCache {
+
+	/** "ILSC", the start of a saved cache file. */
+	private static final int FILE_MAGIC = 0x494C5343;
+	private static final int FILE_VERSION = 1;
+	private static final int MAX_STORED_CHARS = 20000;
+
+	private final LinkedHashMap<ContentHash, ScanResult> map;
+	private int capacity;
+	private long hits = 0;
+	private long misses = 0;
+
+	public ScanCache(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		this.map = new LinkedHashMap<ContentHash, ScanResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ContentHash, ScanResult> eldest) {
+				return size() > ScanCache.this.capacity;
+			}
+		};
+	}
+
+	/** Returns the cached result, or null if this body was not scanned yet. */
+	public synchronized ScanResult get(ContentHash key) {
+		ScanResult r = map.get(key);
+		if (r == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return r;
+	}
+
+	/** Stores the result of ILS.scan().  Images without findings share ScanResult.EMPTY,
+	 * so remembering them costs only the map entry. */
+	public synchronized void put(ContentHash key, ScanResult result) {
+		map.put(key, result);
+	}
+
+	/** Changes the capacity in place, dropping the least recently used entries if it shrinks. */
+	public synchronized void setCapacity(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		Iterator<ContentHash> it = map.keySet().iterator();
+		while (map.size() > this.capacity && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+
+	public synchronized int size() {
+		return map.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized void clear() {
+		map.clear();
+	}
+
+	/** Writes the cache, least recently used entry first so that load() restores the order.
+	 * Only the findings are stored; the Text and HTML output is rebuilt on load.
+	 * Entries whose values are too long for the file format are left out. */
+	public void save(DataOutputStream out) throws IOException {
+		List<ContentHash> keys;
+		List<ScanResult> values;
+		synchronized (this) {
+			keys = new ArrayList<ContentHash>(map.keySet());
+			values = new ArrayList<ScanResult>(map.values());
+		}
+
+		out.writeInt(FILE_MAGIC);
+		out.writeInt(FILE_VERSION);
+		out.writeUTF(ILS.pluginVersion);
+		int n = 0;
+		for (ScanResult r : values) {
+			if (isStorable(r)) {
+				n++;
+			}
+		}
+		out.writeInt(n);
+		for (int i = 0; i < keys.size(); i++) {
+			ScanResult r = values.get(i);
+			if (! isStorable(r)) {
+				continue;
+			}
+			out.writeLong(keys.get(i).getHash());
+			out.writeInt(keys.get(i).getLength());
+			out.writeInt(r.getFindings().size());
+			for (Finding f : r.getFindings()) {
+				out.writeUTF(f.getBigtype());
+				out.writeUTF(f.getSubtype());
+				out.writeUTF(f.getValue());
+			}
+		}
+	}
+
+	/** Reads a file written by save().  Files from another ILS version are ignored, since
+	 * their results may not match the current rules.  Entries already in the cache win.
+	 *
+	 * @return the number of entries loaded
+	 */
+	public int load(DataInputStream in) throws IOException {
+		if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION || ! ILS.pluginVersion.equals(in.readUTF())) {
+			return 0;
+		}
+		int n = in.readInt();
+		int loaded = 0;
+		for (int i = 0; i < n; i++) {
+			ContentHash key = new ContentHash(in.readLong(), in.readInt());
+			int count = in.readInt();
+			ArrayList<Finding> findings = new ArrayList<Finding>(count);
+			for (int j = 0; j < count; j++) {
+				findings.add(new Finding(in.readUTF(), in.readUTF(), in.readUTF()));
+			}
+			ScanResult r = findings.isEmpty() ? ScanResult.EMPTY : ILS.render(findings);
+			synchronized (this) {
+				if (! map.containsKey(key)) {
+					map.put(key, r);
+					loaded++;
+				}
+			}
+		}
+		return loaded;
+	}
+
+	/** writeUTF() is limited to 64K bytes, i.e. 21K chars in the worst case. */
+	private static boolean isStorable(ScanResult r) {
+		for (Finding f : r.getFindings()) {
+			if (f.getValue().length() > MAX_STORED_CHARS) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
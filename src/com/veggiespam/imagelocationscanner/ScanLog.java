@@ -0,0 +1,291 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Logging that is cheap enough for the scan threads.  A log call only checks the level
+ * and the rate limit of its key, then drops an entry into a fixed ring buffer with one
+ * CAS; formatting and the blocking write to the sink happen on a background thread.
+ * When the buffer is full the entry is dropped and counted instead of waiting.
+ * <p>
+ * Each call names a key, e.g. "scan" or "cache.load", and up to LIMIT_PER_KEY entries
+ * per key are kept each second; the next entry that gets through reports how many were
+ * suppressed.  Fields are name / value pairs, e.g.
+ * <code>ScanLog.debug("scan", "scanned", ScanLog.FORMAT, format, ScanLog.SIZE, n)</code>,
+ * written as name=value after the message.  Static, so ILS and the Burp and ZAP glue
+ * can all use it; the CLI and ZAP log to stderr until a sink is set.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public final class ScanLog {
+
+	public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+	/** Where formatted lines go; called on the log thread only. */
+	public interface Sink {
+		void write(String line);
+	}
+
+	/** The usual field names. */
+	public static final String URL = "url";
+	public static final String SIZE = "size";
+	public static final String FORMAT = "format";
+	public static final String DURATION_MS = "duration_ms";
+	public static final String FINDINGS = "findings";
+
+	/** Entries per key per second before the rest are suppressed. */
+	public static final int LIMIT_PER_KEY = 20;
+	/** Slots in the ring; a power of two. */
+	static final int CAPACITY = 4096;
+	private static final int MASK = CAPACITY - 1;
+	private static final long RATE_WINDOW_NANOS = 1000L * 1000000L;
+	/** How long the log thread sleeps when the ring is empty. */
+	private static final long IDLE_SLEEP_MILLIS = 20;
+	private static final int MAX_KEYS = 1000;
+
+	private static final AtomicReferenceArray<Entry> ring = new AtomicReferenceArray<Entry>(CAPACITY);
+	/** Next slot to fill; claimed with CAS so a full ring is never overrun. */
+	private static final AtomicLong head = new AtomicLong();
+	/** Next slot to drain; written by the log thread only. */
+	private static volatile long tail = 0;
+	private static final AtomicLong dropped = new AtomicLong();
+	private static final ConcurrentMap<String, Rate> rates = new ConcurrentHashMap<String, Rate>();
+
+	private static volatile Level level = Level.INFO;
+	private static volatile Sink sink = new Sink() {
+		@Override
+		public void write(String line) {
+			System.err.println(line);
+		}
+	};
+	private static Thread drainer;
+	private static volatile boolean running = false;
+	/** Set for good by shutdown(): the extension is unloading and its thread must not come back. */
+	private static volatile boolean stopped = false;
+
+	private ScanLog() {
+		// static helpers only
+	}
+
+
+	private static final class Entry {
+		final long time = System.currentTimeMillis();
+		final Level level;
+		final String key;
+		final String message;
+		final Object[] fields;
+		final int suppressed;
+
+		Entry(Level level, String key, String message, Object[] fields, int suppressed) {
+			this.level = level;
+			this.key = key;
+			this.message = message;
+			this.fields = fields;
+			this.suppressed = suppressed;
+		}
+	}
+
+	/** Per-key counter for the current one-second window. */
+	private static final class Rate {
+		final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+		final AtomicInteger count = new AtomicInteger();
+		final AtomicInteger suppressed = new AtomicInteger();
+	}
+
+
+	public static void setLevel(Level l) {
+		level = l;
+	}
+
+	public static Level getLevel() {
+		return level;
+	}
+
+	public static boolean isEnabled(Level l) {
+		return l.compareTo(level) >= 0 && l != Level.OFF;
+	}
+
+	public static boolean isDebugEnabled() {
+		return isEnabled(Level.DEBUG);
+	}
+
+	public static void setSink(Sink s) {
+		sink = s;
+	}
+
+	/** Entries lost because the ring was full. */
+	public static long getDropped() {
+		return dropped.get();
+	}
+
+	public static void debug(String key, String message, Object... fields) {
+		log(Level.DEBUG, key, message, fields);
+	}
+
+	public static void info(String key, String message, Object... fields) {
+		log(Level.INFO, key, message, fields);
+	}
+
+	public static void warn(String key, String message, Object... fields) {
+		log(Level.WARN, key, message, fields);
+	}
+
+	public static void error(String key, String message, Object... fields) {
+		log(Level.ERROR, key, message, fields);
+	}
+
+	/** Queues an entry; never blocks and never throws.  Field values are turned into text
+	 * on the log thread, so pass immutable values (numbers, strings, enums, URLs).  After
+	 * shutdown() entries are discarded. */
+	public static void log(Level l, String key, String message, Object... fields) {
+		if (! isEnabled(l) || stopped) {
+			return;
+		}
+		int suppressed = admit(key);
+		if (suppressed < 0) {
+			return;
+		}
+		while (true) {
+			long h = head.get();
+			if (h - tail >= CAPACITY) {
+				dropped.incrementAndGet();
+				return;
+			}
+			if (head.compareAndSet(h, h + 1)) {
+				ring.set((int) h & MASK, new Entry(l, key, message, fields, suppressed));
+				break;
+			}
+		}
+		if (! running) {
+			ensureStarted();  // the lock is only taken until the thread is up
+		}
+	}
+
+	/** @return -1 when the key is over its limit, else the number suppressed since the last entry */
+	private static int admit(String key) {
+		Rate r = rates.get(key);
+		if (r == null) {
+			if (rates.size() > MAX_KEYS) {
+				rates.clear();  // keys built from data; do not let them pile up
+			}
+			Rate fresh = new Rate();
+			r = rates.putIfAbsent(key, fresh);
+			if (r == null) {
+				r = fresh;
+			}
+		}
+		long now = System.nanoTime();
+		long start = r.windowStart.get();
+		if (now - start > RATE_WINDOW_NANOS && r.windowStart.compareAndSet(start, now)) {
+			r.count.set(0);
+		}
+		if (r.count.incrementAndGet() > LIMIT_PER_KEY) {
+			r.suppressed.incrementAndGet();
+			return -1;
+		}
+		return r.suppressed.getAndSet(0);
+	}
+
+	private static synchronized void ensureStarted() {
+		if (running || stopped) {
+			return;
+		}
+		running = true;
+		drainer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, "ILS-log");
+		drainer.setDaemon(true);
+		drainer.setPriority(Thread.MIN_PRIORITY);
+		drainer.start();
+	}
+
+	/** Writes what is queued, then stops the log thread for good; later entries are
+	 * discarded, so a scan still finishing during an unload cannot start a new thread. */
+	public static void shutdown() {
+		Thread t;
+		synchronized (ScanLog.class) {
+			stopped = true;
+			running = false;
+			t = drainer;
+			drainer = null;
+		}
+		if (t != null) {
+			t.interrupt();
+			try {
+				t.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static void drain() {
+		StringBuilder sb = new StringBuilder(256);
+		long reportedDrops = 0;
+		while (true) {
+			long t = tail;
+			if (t == head.get()) {
+				long d = dropped.get();
+				if (d != reportedDrops) {
+					write("ILS log: " + (d - reportedDrops) + " entries dropped, the log buffer was full");
+					reportedDrops = d;
+				}
+				if (! running) {
+					return;
+				}
+				try {
+					Thread.sleep(IDLE_SLEEP_MILLIS);
+				} catch (InterruptedException e) {
+					// shutdown(): drain what is left, then stop
+				}
+				continue;
+			}
+			int slot = (int) t & MASK;
+			Entry e = ring.get(slot);
+			if (e == null) {
+				Thread.yield();  // claimed, the producer is about to store it
+				continue;
+			}
+			ring.set(slot, null);
+			tail = t + 1;
+			sb.setLength(0);
+			format(sb, e);
+			write(sb.toString());
+		}
+	}
+
+	private static void write(String line) {
+		try {
+			sink.write(line);
+		} catch (RuntimeException e) {
+			// a broken sink must not kill the log thread
+		}
+	}
+
+	private static void format(StringBuilder sb, Entry e) {
+		sb.append(String.format("%tT.%<tL ", e.time)).append(e.level).append(' ').append(e.key).append(": ").append(e.message);
+		Object[] f = e.fields;
+		for (int i = 0; f != null && i + 1 < f.length; i += 2) {
+			sb.append(' ').append(f[i]).append('=');
+			String v = String.valueOf(f[i + 1]);
+			if (v.indexOf(' ') >= 0 || v.length() == 0) {
+				sb.append('"').append(v.replace("\"", "\\\"")).append('"');
+			} else {
+				sb.append(v);
+			}
+		}
+		if (e.suppressed > 0) {
+			sb.append(" suppressed=").append(e.suppressed);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything one ILS scan produced: the Text and HTML output plus the individual
+ * findings behind them.  Immutable, so results can be cached and shared between
+ * threads.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public final class ScanResult {
+
+	/** Result for images without findings. */
+	public static final ScanResult EMPTY = new ScanResult("", "", Collections.<Finding>emptyList());
+
+	private final String text;
+	private final String html;
+	private final List<Finding> findings;
+
+	public ScanResult(String text, String html, List<Finding> findings) {
+		this.text = text;
+		this.html = html;
+		this.findings = Collections.unmodifiableList(findings);
+	}
+
+	public String getText() {
+		return text;
+	}
+
+	public String getHtml() {
+		return html;
+	}
+
+	public List<Finding> getFindings() {
+		return findings;
+	}
+
+	/** True when the image exposes nothing. */
+	public boolean isEmpty() {
+		return text.length() == 0;
+	}
+}
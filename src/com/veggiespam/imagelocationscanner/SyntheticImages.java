@@ -0,0 +1,581 @@
+package com.veggiespam.imagelocationscanner;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import javax.imageio.ImageIO;
+
+/**
+ * Small images with location metadata, built in memory: for warming up the readers,
+ * and as the base of canary uploads and metadata payloads.  JPEG and PNG start from a
+ * real 8x8 grey image written by ImageIO, so they decode anywhere; the metadata is
+ * then spliced in as bytes (an APP1 Exif segment, an iTXt XMP chunk).  The TIFF is a
+ * complete 1x1 image written by hand.  The WebP carries the well-known 1x1 lossless
+ * bitstream that browsers use for feature detection, behind a VP8X header and an EXIF
+ * chunk.
+ * <p>
+ * Besides Exif GPS, the builders place text in the other spots ILS reads: XMP, IPTC
+ * and the makernotes of each vendor in {@link Maker}, laid out the way
+ * metadata-extractor expects them.
+ *
+ * @author  Jay Ball / github: veggiespam / twitter: @veggiespam / www.veggiespam.com
+ * @license Apache License 2.0
+ * @version 0.3
+ * @see https://www.veggiespam.com/ils/
+ */
+public final class SyntheticImages {
+
+	/** A position that is obviously a test: the Null Island neighbourhood is avoided so geoLocation.isZero() stays false. */
+	public static final double SAMPLE_LATITUDE = 40.3153;
+	public static final double SAMPLE_LONGITUDE = -74.6605;
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int TIFF_BYTE = 1;
+	private static final int TIFF_ASCII = 2;
+	private static final int TIFF_SHORT = 3;
+	private static final int TIFF_LONG = 4;
+	private static final int TIFF_RATIONAL = 5;
+	private static final int TIFF_UNDEFINED = 7;
+	private static final int GPS_IFD_TAG = 0x8825;
+	private static final int EXIF_IFD_TAG = 0x8769;
+	private static final int BODY_SERIAL_NUMBER_TAG = 0xA431;
+	private static final int STRIP_OFFSETS_TAG = 0x0111;
+	private static final int MAKER_NOTE_TAG = 0x927C;
+	private static final int XMP_TAG = 0x02BC;
+	private static final int IPTC_TAG = 0x83BB;
+	/** GPS seconds are written as n / SECONDS_DENOMINATOR, always little-endian. */
+	public static final int SECONDS_DENOMINATOR = 10000;
+
+	/** VP8L payload of a 1x1 lossless WebP. */
+	private static final byte[] VP8L_1X1 = {
+		0x2f, 0x00, 0x00, 0x00, 0x10, 0x07, 0x10, 0x11, 0x11, (byte) 0x88, (byte) 0x88, (byte) 0xfe, 0x07, 0x00 };
+
+	/** Camera makes whose makernotes ILS reads, with the Make tag that selects them and
+	 * the tag the text goes into. */
+	public enum Maker {
+		CANON("Canon", "OwnerName"),
+		NIKON("NIKON CORPORATION", "SerialNumber"),
+		OLYMPUS("OLYMPUS IMAGING CORP.", "SerialNumber and Equipment SerialNumber"),
+		PANASONIC("Panasonic", "City"),
+		SIGMA("SIGMA", "SerialNumber"),
+		FUJIFILM("FUJIFILM", "SerialNumber");
+
+		private final String make;
+		private final String tagName;
+
+		Maker(String make, String tagName) {
+			this.make = make;
+			this.tagName = tagName;
+		}
+
+		public String getMake() {
+			return make;
+		}
+
+		/** The makernote tag(s) that carry the text. */
+		public String getTagName() {
+			return tagName;
+		}
+	}
+
+	private static byte[] baseJpeg;
+	private static byte[] basePng;
+
+	private SyntheticImages() {
+		// static helpers only
+	}
+
+	/** One image of every supported format, all carrying the sample position. */
+	public static List<byte[]> corpus() {
+		List<byte[]> all = new ArrayList<byte[]>(4);
+		byte[] exif = exif(SAMPLE_LATITUDE, SAMPLE_LONGITUDE, "ILS sample");
+		all.add(jpeg(exif));
+		all.add(png(xmp(SAMPLE_LATITUDE, SAMPLE_LONGITUDE, "ILS-0000")));
+		all.add(tiff(SAMPLE_LATITUDE, SAMPLE_LONGITUDE, "ILS sample"));
+		all.add(webp(exif));
+		return all;
+	}
+
+	/**
+	 * A little-endian TIFF structure as found in an Exif block: IFD0 with Make and an
+	 * optional ImageDescription, and a GPS IFD with the position.
+	 *
+	 * @param description ImageDescription text, or null for none
+	 */
+	public static byte[] exif(double latitude, double longitude, String description) {
+		return exif(latitude, longitude, description, null);
+	}
+
+	/** exif(), plus an Exif IFD with BodySerialNumber unless serialNumber is null. */
+	public static byte[] exif(double latitude, double longitude, String description, String serialNumber) {
+		List<int[]> ifd0 = new ArrayList<int[]>();
+		List<byte[]> ifd0Values = new ArrayList<byte[]>();
+		if (description != null) {
+			add(ifd0, ifd0Values, 0x010E, TIFF_ASCII, ascii(description));
+		}
+		add(ifd0, ifd0Values, 0x010F, TIFF_ASCII, ascii("ILS"));
+		if (serialNumber != null) {
+			add(ifd0, ifd0Values, EXIF_IFD_TAG, TIFF_LONG, longs(0));
+		}
+		add(ifd0, ifd0Values, GPS_IFD_TAG, TIFF_LONG, longs(0));
+		return tiffStructure(ifd0, ifd0Values, null, latitude, longitude, serialNumber, null, null);
+	}
+
+	/**
+	 * An Exif block with a makernote of the maker carrying text, Make set to match.
+	 *
+	 * @param latitude the GPS position, or Double.NaN for no GPS IFD
+	 * @param description ImageDescription text, or null for none
+	 */
+	public static byte[] exif(double latitude, double longitude, String description, Maker maker, String text) {
+		List<int[]> ifd0 = new ArrayList<int[]>();
+		List<byte[]> ifd0Values = new ArrayList<byte[]>();
+		if (description != null) {
+			add(ifd0, ifd0Values, 0x010E, TIFF_ASCII, ascii(description));
+		}
+		add(ifd0, ifd0Values, 0x010F, TIFF_ASCII, ascii(maker.make));
+		add(ifd0, ifd0Values, EXIF_IFD_TAG, TIFF_LONG, longs(0));
+		if (! Double.isNaN(latitude)) {
+			add(ifd0, ifd0Values, GPS_IFD_TAG, TIFF_LONG, longs(0));
+		}
+		return tiffStructure(ifd0, ifd0Values, null, latitude, longitude, null, maker, text);
+	}
+
+	/** IPTC-IIM records for an APP13 segment: the record version and City (2:90). */
+	public static byte[] iptc(String city) {
+		byte[] value = city.getBytes(ISO_8859_1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(value.length + 12);
+		write(out, new byte[] { 0x1C, 2, 0, 0, 2, 0, 4 });                 // 2:00 record version 4
+		write(out, new byte[] { 0x1C, 2, 90, (byte) (value.length >> 8), (byte) value.length });
+		write(out, value);
+		return out.toByteArray();
+	}
+
+	/** A complete 1x1 grey TIFF with the same tags as exif(). */
+	public static byte[] tiff(double latitude, double longitude, String description) {
+		return tiff(latitude, longitude, description, null, null, null, null);
+	}
+
+	/**
+	 * A complete 1x1 grey TIFF with any of: a GPS position, ImageDescription, a makernote,
+	 * an XMP packet (tag 700) and IPTC records (tag 33723).
+	 *
+	 * @param latitude the GPS position, or Double.NaN for none; the other arguments take null for none
+	 */
+	public static byte[] tiff(double latitude, double longitude, String description, Maker maker, String text,
+			String xmpPacket, byte[] iptcRecords) {
+		List<int[]> ifd0 = new ArrayList<int[]>();
+		List<byte[]> ifd0Values = new ArrayList<byte[]>();
+		add(ifd0, ifd0Values, 0x0100, TIFF_SHORT, shorts(1));     // ImageWidth
+		add(ifd0, ifd0Values, 0x0101, TIFF_SHORT, shorts(1));     // ImageLength
+		add(ifd0, ifd0Values, 0x0102, TIFF_SHORT, shorts(8));     // BitsPerSample
+		add(ifd0, ifd0Values, 0x0103, TIFF_SHORT, shorts(1));     // Compression: none
+		add(ifd0, ifd0Values, 0x0106, TIFF_SHORT, shorts(1));     // PhotometricInterpretation: black is zero
+		if (description != null) {
+			add(ifd0, ifd0Values, 0x010E, TIFF_ASCII, ascii(description));
+		}
+		add(ifd0, ifd0Values, 0x010F, TIFF_ASCII, ascii(maker == null ? "ILS" : maker.make));
+		add(ifd0, ifd0Values, STRIP_OFFSETS_TAG, TIFF_LONG, longs(0));
+		add(ifd0, ifd0Values, 0x0115, TIFF_SHORT, shorts(1));     // SamplesPerPixel
+		add(ifd0, ifd0Values, 0x0116, TIFF_SHORT, shorts(1));     // RowsPerStrip
+		add(ifd0, ifd0Values, 0x0117, TIFF_LONG, longs(1));       // StripByteCounts
+		if (xmpPacket != null) {
+			add(ifd0, ifd0Values, XMP_TAG, TIFF_BYTE, xmpPacket.getBytes(UTF_8));
+		}
+		if (iptcRecords != null) {
+			add(ifd0, ifd0Values, IPTC_TAG, TIFF_UNDEFINED, iptcRecords);
+		}
+		if (maker != null) {
+			add(ifd0, ifd0Values, EXIF_IFD_TAG, TIFF_LONG, longs(0));
+		}
+		if (! Double.isNaN(latitude)) {
+			add(ifd0, ifd0Values, GPS_IFD_TAG, TIFF_LONG, longs(0));
+		}
+		return tiffStructure(ifd0, ifd0Values, new byte[] { (byte) 0x80 }, latitude, longitude, null, maker, text);
+	}
+
+	/** The 8x8 JPEG with an APP1 Exif segment holding exifTiff right after SOI. */
+	public static byte[] jpeg(byte[] exifTiff) {
+		return jpeg(exifTiff, null);
+	}
+
+	/** jpeg(), plus an APP13 segment with the IPTC records unless iptcRecords is null. */
+	public static byte[] jpeg(byte[] exifTiff, byte[] iptcRecords) {
+		return jpeg(exifTiff, iptcRecords, null);
+	}
+
+	/** The 8x8 JPEG with an APP1 Exif, an APP1 XMP and an APP13 IPTC segment; each is left
+	 * out when its argument is null. */
+	public static byte[] jpeg(byte[] exifTiff, byte[] iptcRecords, String xmpPacket) {
+		byte[] base = baseJpeg();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(base.length + 1024);
+		out.write(base, 0, 2);
+		if (exifTiff != null) {
+			jpegSegment(out, 0xE1, "Exif\0\0".getBytes(ISO_8859_1), exifTiff);
+		}
+		if (xmpPacket != null) {
+			jpegSegment(out, 0xE1, "http://ns.adobe.com/xap/1.0/\0".getBytes(ISO_8859_1), xmpPacket.getBytes(UTF_8));
+		}
+		if (iptcRecords != null) {
+			// Photoshop image resource 0x0404, empty Pascal name, data padded to even length
+			ByteArrayOutputStream resource = new ByteArrayOutputStream(iptcRecords.length + 12);
+			write(resource, "8BIM".getBytes(ISO_8859_1));
+			write(resource, new byte[] { 0x04, 0x04, 0, 0 });
+			write(resource, be32(iptcRecords.length));
+			write(resource, iptcRecords);
+			if ((iptcRecords.length & 1) != 0) {
+				resource.write(0);
+			}
+			jpegSegment(out, 0xED, "Photoshop 3.0\0".getBytes(ISO_8859_1), resource.toByteArray());
+		}
+		out.write(base, 2, base.length - 2);
+		return out.toByteArray();
+	}
+
+	private static void jpegSegment(ByteArrayOutputStream out, int marker, byte[] header, byte[] body) {
+		int segment = 2 + header.length + body.length;
+		if (segment > 0xFFFF) {
+			throw new IllegalArgumentException("metadata too large for one JPEG segment");
+		}
+		out.write(0xFF);
+		out.write(marker);
+		out.write(segment >> 8);
+		out.write(segment & 0xFF);
+		write(out, header);
+		write(out, body);
+	}
+
+	/** The 8x8 PNG with an iTXt chunk holding the XMP packet right after IHDR. */
+	public static byte[] png(String xmpPacket) {
+		byte[] base = basePng();
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		write(data, "XML:com.adobe.xmp".getBytes(ISO_8859_1));
+		write(data, new byte[] { 0, 0, 0, 0, 0 });  // keyword end, uncompressed, method, no language, no translation
+		write(data, xmpPacket.getBytes(UTF_8));
+		byte[] chunk = pngChunk("iTXt", data.toByteArray());
+		int afterIhdr = 8 + 8 + 13 + 4;
+		ByteArrayOutputStream out = new ByteArrayOutputStream(base.length + chunk.length);
+		out.write(base, 0, afterIhdr);
+		write(out, chunk);
+		out.write(base, afterIhdr, base.length - afterIhdr);
+		return out.toByteArray();
+	}
+
+	/** A 1x1 lossless WebP with the Exif block in an EXIF chunk. */
+	public static byte[] webp(byte[] exifTiff) {
+		return webp(exifTiff, null);
+	}
+
+	/** A 1x1 lossless WebP with an EXIF and an XMP chunk; each is left out when its argument is null. */
+	public static byte[] webp(byte[] exifTiff, String xmpPacket) {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		write(body, "WEBP".getBytes(ISO_8859_1));
+		// VP8X: flags (EXIF 0x08, XMP 0x04 present), 3 reserved bytes, canvas width - 1 and height - 1 as 24 bits each
+		int flags = (exifTiff == null ? 0 : 0x08) | (xmpPacket == null ? 0 : 0x04);
+		write(body, riffChunk("VP8X", new byte[] { (byte) flags, 0, 0, 0, 0, 0, 0, 0, 0, 0 }));
+		write(body, riffChunk("VP8L", VP8L_1X1));
+		if (exifTiff != null) {
+			write(body, riffChunk("EXIF", exifTiff));
+		}
+		if (xmpPacket != null) {
+			write(body, riffChunk("XMP ", xmpPacket.getBytes(UTF_8)));
+		}
+		byte[] b = body.toByteArray();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(b.length + 8);
+		write(out, "RIFF".getBytes(ISO_8859_1));
+		write(out, le32(b.length));
+		write(out, b);
+		return out.toByteArray();
+	}
+
+	/** An XMP packet with exif:GPSLatitude, exif:GPSLongitude and aux:SerialNumber. */
+	public static String xmp(double latitude, double longitude, String serialNumber) {
+		return "<?xpacket begin=\"\" id=\"W5M0MpCehiHzreSzNTczkc9d\"?>"
+				+ "<x:xmpmeta xmlns:x=\"adobe:ns:meta/\"><rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\">"
+				+ "<rdf:Description rdf:about=\"\" xmlns:exif=\"http://ns.adobe.com/exif/1.0/\""
+				+ " xmlns:aux=\"http://ns.adobe.com/exif/1.0/aux/\" aux:SerialNumber=\"" + serialNumber + "\""
+				+ " exif:GPSLatitude=\"" + xmpCoordinate(latitude, 'N', 'S') + "\""
+				+ " exif:GPSLongitude=\"" + xmpCoordinate(longitude, 'E', 'W') + "\"/>"
+				+ "</rdf:RDF></x:xmpmeta><?xpacket end=\"w\"?>";
+	}
+
+
+	/** Lays out header, IFD0, the Exif IFD, the GPS IFD and the strip, then fills in the
+	 * offsets that point to them.  The GPS IFD is left out for a NaN latitude. */
+	private static byte[] tiffStructure(List<int[]> ifd0, List<byte[]> ifd0Values, byte[] strip,
+			double latitude, double longitude, String serialNumber, Maker maker, String text) {
+		List<int[]> exif = new ArrayList<int[]>();
+		List<byte[]> exifValues = new ArrayList<byte[]>();
+		if (serialNumber != null) {
+			add(exif, exifValues, BODY_SERIAL_NUMBER_TAG, TIFF_ASCII, ascii(serialNumber));
+		}
+		if (maker != null) {
+			add(exif, exifValues, MAKER_NOTE_TAG, TIFF_UNDEFINED, makernote(maker, text, 0));
+		}
+
+		List<int[]> gps = new ArrayList<int[]>();
+		List<byte[]> gpsValues = new ArrayList<byte[]>();
+		if (! Double.isNaN(latitude)) {
+			add(gps, gpsValues, 0x0000, TIFF_BYTE, new byte[] { 2, 3, 0, 0 });             // GPSVersionID
+			add(gps, gpsValues, 0x0001, TIFF_ASCII, ascii(latitude < 0 ? "S" : "N"));
+			add(gps, gpsValues, 0x0002, TIFF_RATIONAL, dms(Math.abs(latitude)));
+			add(gps, gpsValues, 0x0003, TIFF_ASCII, ascii(longitude < 0 ? "W" : "E"));
+			add(gps, gpsValues, 0x0004, TIFF_RATIONAL, dms(Math.abs(longitude)));
+		}
+
+		int ifd0Offset = 8;
+		int exifOffset = ifd0Offset + ifdSize(ifd0Values);
+		int gpsOffset = exifOffset + (exif.isEmpty() ? 0 : ifdSize(exifValues));
+		int stripOffset = gpsOffset + (gps.isEmpty() ? 0 : ifdSize(gpsValues));
+		if (maker != null) {
+			// the last value of the Exif IFD; most vendors count offsets from the TIFF header
+			int last = exifValues.size() - 1;
+			int length = exifValues.get(last).length;
+			exifValues.set(last, makernote(maker, text, exifOffset + ifdSize(exifValues) - length - (length & 1)));
+		}
+		for (int i = 0; i < ifd0.size(); i++) {
+			if (ifd0.get(i)[0] == EXIF_IFD_TAG) {
+				ifd0Values.set(i, longs(exifOffset));
+			} else if (ifd0.get(i)[0] == GPS_IFD_TAG) {
+				ifd0Values.set(i, longs(gpsOffset));
+			} else if (ifd0.get(i)[0] == STRIP_OFFSETS_TAG) {
+				ifd0Values.set(i, longs(stripOffset));
+			}
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(stripOffset + (strip == null ? 0 : strip.length));
+		write(out, new byte[] { 'I', 'I', 42, 0 });
+		write(out, le32(ifd0Offset));
+		writeIfd(out, ifd0, ifd0Values, ifd0Offset);
+		if (! exif.isEmpty()) {
+			writeIfd(out, exif, exifValues, exifOffset);
+		}
+		if (! gps.isEmpty()) {
+			writeIfd(out, gps, gpsValues, gpsOffset);
+		}
+		if (strip != null) {
+			write(out, strip);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * A makernote with text in the maker's tag, in the layout metadata-extractor looks for:
+	 * the vendor header, then an IFD whose offsets count from the TIFF header or from the
+	 * makernote itself, depending on the vendor.
+	 *
+	 * @param offset where the makernote starts in the TIFF structure
+	 */
+	private static byte[] makernote(Maker maker, String text, int offset) {
+		List<int[]> entries = new ArrayList<int[]>();
+		List<byte[]> values = new ArrayList<byte[]>();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64 + text.length());
+		switch (maker) {
+			case CANON:
+				// a bare IFD, offsets from the TIFF header
+				add(entries, values, 0x0009, TIFF_ASCII, ascii(text));
+				writeIfd(out, entries, values, offset);
+				break;
+			case NIKON:
+				// type 2: "Nikon", version, then a TIFF header of its own that the offsets count from
+				write(out, "Nikon\0\2\0\0\0II".getBytes(ISO_8859_1));
+				write(out, le16(42));
+				write(out, le32(8));
+				add(entries, values, 0x001D, TIFF_ASCII, ascii(text));
+				writeIfd(out, entries, values, 8);
+				break;
+			case OLYMPUS: {
+				// the newer header, offsets from the makernote; Equipment is a sub-IFD
+				write(out, "OLYMPUS\0II".getBytes(ISO_8859_1));
+				write(out, le16(3));
+				List<int[]> equipment = new ArrayList<int[]>();
+				List<byte[]> equipmentValues = new ArrayList<byte[]>();
+				add(equipment, equipmentValues, 0x0101, TIFF_ASCII, ascii(text));
+				add(entries, values, 0x101A, TIFF_ASCII, ascii(text));
+				add(entries, values, 0x2010, TIFF_LONG, longs(0));
+				int equipmentOffset = 12 + ifdSize(values);
+				values.set(1, longs(equipmentOffset));
+				writeIfd(out, entries, values, 12);
+				writeIfd(out, equipment, equipmentValues, equipmentOffset);
+				break;
+			}
+			case PANASONIC:
+				write(out, "Panasonic\0\0\0".getBytes(ISO_8859_1));
+				add(entries, values, 0x006D, TIFF_ASCII, ascii(text));
+				writeIfd(out, entries, values, offset + 12);
+				break;
+			case SIGMA:
+				write(out, "SIGMA\0\0\0\1\0".getBytes(ISO_8859_1));
+				add(entries, values, 0x0002, TIFF_ASCII, ascii(text));
+				writeIfd(out, entries, values, offset + 10);
+				break;
+			case FUJIFILM:
+				// always little-endian, the IFD offset and all others from the makernote
+				write(out, "FUJIFILM".getBytes(ISO_8859_1));
+				write(out, le32(12));
+				add(entries, values, 0x0010, TIFF_ASCII, ascii(text));
+				writeIfd(out, entries, values, 12);
+				break;
+			default:
+				throw new IllegalArgumentException(String.valueOf(maker));
+		}
+		return out.toByteArray();
+	}
+
+	private static int ifdSize(List<byte[]> values) {
+		int size = 2 + values.size() * 12 + 4;
+		for (byte[] v : values) {
+			if (v.length > 4) {
+				size += v.length + (v.length & 1);
+			}
+		}
+		return size;
+	}
+
+	/** Writes one IFD at offset, its out-of-line values right behind it; no next IFD. */
+	private static void writeIfd(ByteArrayOutputStream out, List<int[]> entries, List<byte[]> values, int offset) {
+		int data = offset + 2 + entries.size() * 12 + 4;
+		write(out, le16(entries.size()));
+		for (int i = 0; i < entries.size(); i++) {
+			int[] e = entries.get(i);
+			byte[] v = values.get(i);
+			write(out, le16(e[0]));
+			write(out, le16(e[1]));
+			write(out, le32(e[2]));
+			if (v.length <= 4) {
+				write(out, v);
+				write(out, new byte[4 - v.length]);
+			} else {
+				write(out, le32(data));
+				data += v.length + (v.length & 1);
+			}
+		}
+		write(out, le32(0));
+		for (byte[] v : values) {
+			if (v.length > 4) {
+				write(out, v);
+				if ((v.length & 1) != 0) {
+					out.write(0);
+				}
+			}
+		}
+	}
+
+	/** Adds an entry; count is derived from the value bytes and the type. */
+	private static void add(List<int[]> entries, List<byte[]> values, int tag, int type, byte[] value) {
+		int unit = (type == TIFF_SHORT) ? 2 : (type == TIFF_LONG) ? 4 : (type == TIFF_RATIONAL) ? 8 : 1;
+		entries.add(new int[] { tag, type, value.length / unit });
+		values.add(value);
+	}
+
+	private static byte[] ascii(String s) {
+		byte[] b = s.getBytes(ISO_8859_1);
+		byte[] z = new byte[b.length + 1];
+		System.arraycopy(b, 0, z, 0, b.length);
+		return z;
+	}
+
+	private static byte[] shorts(int v) {
+		return le16(v);
+	}
+
+	private static byte[] longs(int v) {
+		return le32(v);
+	}
+
+	/** Degrees, minutes and seconds as three RATIONALs, the seconds in 1/SECONDS_DENOMINATOR. */
+	private static byte[] dms(double value) {
+		int degrees = (int) value;
+		double m = (value - degrees) * 60;
+		int minutes = (int) m;
+		int seconds = (int) Math.round((m - minutes) * 60 * SECONDS_DENOMINATOR);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(24);
+		write(out, le32(degrees));
+		write(out, le32(1));
+		write(out, le32(minutes));
+		write(out, le32(1));
+		write(out, le32(seconds));
+		write(out, le32(SECONDS_DENOMINATOR));
+		return out.toByteArray();
+	}
+
+	/** XMP's "DDD,MM.mmk" form. */
+	private static String xmpCoordinate(double value, char positive, char negative) {
+		double a = Math.abs(value);
+		int degrees = (int) a;
+		return String.format(java.util.Locale.ROOT, "%d,%.4f%c", degrees, (a - degrees) * 60, value < 0 ? negative : positive);
+	}
+
+	private static byte[] pngChunk(String type, byte[] data) {
+		byte[] t = type.getBytes(ISO_8859_1);
+		CRC32 crc = new CRC32();
+		crc.update(t);
+		crc.update(data);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 12);
+		write(out, be32(data.length));
+		write(out, t);
+		write(out, data);
+		write(out, be32((int) crc.getValue()));
+		return out.toByteArray();
+	}
+
+	private static byte[] riffChunk(String type, byte[] data) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 9);
+		write(out, type.getBytes(ISO_8859_1));
+		write(out, le32(data.length));
+		write(out, data);
+		if ((data.length & 1) != 0) {
+			out.write(0);
+		}
+		return out.toByteArray();
+	}
+
+	private static synchronized byte[] baseJpeg() {
+		if (baseJpeg == null) {
+			baseJpeg = encode("jpeg");
+		}
+		return baseJpeg;
+	}
+
+	private static synchronized byte[] basePng() {
+		if (basePng == null) {
+			basePng = encode("png");
+		}
+		return basePng;
+	}
+
+	private static byte[] encode(String format) {
+		BufferedImage img = new BufferedImage(8, 8, BufferedImage.TYPE_BYTE_GRAY);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+		try {
+			if (! ImageIO.write(img, format, out)) {
+				throw new IllegalStateException("no ImageIO writer for " + format);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException(e);  // cannot happen on a byte array
+		}
+		return out.toByteArray();
+	}
+
+	private static void write(ByteArrayOutputStream out, byte[] b) {
+		out.write(b, 0, b.length);
+	}
+
+	private static byte[] le16(int v) {
+		return new byte[] { (byte) v, (byte) (v >> 8) };
+	}
+
+	private static byte[] le32(int v) {
+		return new byte[] { (byte) v, (byte) (v >> 8), (byte) (v >> 16), (byte) (v >> 24) };
+	}
+
+	private static byte[] be32(int v) {
+		return new byte[] { (byte) (v >> 24), (byte) (v >> 16), (byte) (v >> 8), (byte) v };
+	}
+}